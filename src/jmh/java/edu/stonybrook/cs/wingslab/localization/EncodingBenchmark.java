@@ -0,0 +1,38 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**Text encoding of one sample: the String.format based toString()/sssInfo() against CsvSampleEncoder.*/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EncodingBenchmark {
+    private final CsvSampleEncoder encoder = new CsvSampleEncoder();
+
+    @Benchmark
+    public String formatToString(GeneratorState state){
+        return state.sample.toString();
+    }
+
+    @Benchmark
+    public String sssInfo(GeneratorState state){
+        return state.sample.sssInfo();
+    }
+
+    @Benchmark
+    public int csvSampleEncoder(GeneratorState state){
+        this.encoder.clear();
+        this.encoder.encode(state.sample);
+        return this.encoder.size();
+    }
+
+    @Benchmark
+    public String mostIsolatedTx(GeneratorState state){
+        return state.sample.mostIsolatedTx();
+    }
+}
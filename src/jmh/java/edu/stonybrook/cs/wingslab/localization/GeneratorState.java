@@ -0,0 +1,70 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import edu.stonybrook.cs.wingslab.commons.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**Shared benchmark fixture: a field, a set of sensors, a log-distance model and one pre-built sample,
+ * parameterized by sensor count, TX count and shadowing.*/
+@State(Scope.Thread)
+public class GeneratorState {
+    static final int FIELD_SIZE = 100;
+    // side of the square field in cells; same as LocalizationDatasetGeneratorMain
+    static final int CELL_SIZE = 10;
+    // in meter
+    static final double ALPHA = 3.5;
+    // propagation model coeff.
+    static final double TX_HEIGHT = 30;
+    // in meter
+    static final double SS_HEIGHT = 15;
+    // in meter
+    static final double NOISE_FLOOR = -90;
+    // noise floor
+
+    @Param({"100", "400", "900", "2500"})
+    public int sensorCount;
+    @Param({"1", "4", "32"})
+    public int txCount;
+    // the app draws fixed powers for the first 4 TXs and uniform ones after; 32 TXs fill several buckets of the
+    // TxSpatialIndex that mostIsolatedTx() queries
+    @Param({"0.0", "1.0"})
+    public double std;
+    // shadowing std in dB; 0.0 means LogDistancePM without noise
+
+    Shape shape;
+    SpectrumSensor[] sss;
+    PropagationModel propagationModel;
+    PathLossFunction pathLoss;
+    GainTable gainTable;
+    TX[] txs;
+    LocalizationDatasetGenerator sample;
+    LocalizationDatasetGeneratorApp app;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.shape = new Square(FIELD_SIZE);
+        Point[] sssPoint = this.shape.points(this.sensorCount);
+        this.sss = new SpectrumSensor[this.sensorCount];
+        for (int i = 0; i < this.sensorCount; i++)
+            this.sss[i] = new SpectrumSensor(new RX(new Element(sssPoint[i], SS_HEIGHT)), 0, 1);
+        this.propagationModel = this.std == 0.0 ? new LogDistancePM(ALPHA) : new LogDistancePM(ALPHA, this.std);
+        this.pathLoss = PathLossFunction.of(this.propagationModel, CELL_SIZE);
+        this.gainTable = new GainTable(new LogDistancePM(ALPHA), this.sss, new FieldGrid(FIELD_SIZE), CELL_SIZE,
+                TX_HEIGHT, this.std);
+        Point[] txsPoint = this.shape.points(this.txCount);
+        this.txs = new TX[this.txCount];
+        for (int i = 0; i < this.txCount; i++)
+            this.txs[i] = new TX(new Element(txsPoint[i], TX_HEIGHT), -5.0 * i);
+        this.sample = new LocalizationDatasetGenerator(this.txs, this.sss, this.shape, this.propagationModel,
+                CELL_SIZE, true, NOISE_FLOOR);
+        // the app creates its data directory on construction; keep benchmarks out of resources/data
+        LocalizationDatasetGeneratorApp.setDataDir(Files.createTempDirectory("jmh-data").toString() + "/");
+        this.app = new LocalizationDatasetGeneratorApp(1, "jmh", new ConcurrentHashMap<Integer,
+                HashMap<String, Double>>(), this.propagationModel, this.sss, this.shape, CELL_SIZE, this.txCount,
+                this.txCount, TX_HEIGHT, -15.0, 0.0, true, NOISE_FLOOR);
+    }
+}
@@ -0,0 +1,48 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**Received power of every sensor for one sample: the generator constructor (model, path loss function and gain
+ * table paths) and the kernel on its own.*/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReceivedPowerBenchmark {
+
+    @Benchmark
+    public LocalizationDatasetGenerator constructWithModel(GeneratorState state){
+        return new LocalizationDatasetGenerator(state.txs, state.sss, state.shape, state.propagationModel,
+                GeneratorState.CELL_SIZE, true, GeneratorState.NOISE_FLOOR);
+    }
+
+    @Benchmark
+    public LocalizationDatasetGenerator constructWithPathLossFunction(GeneratorState state){
+        return new LocalizationDatasetGenerator(state.txs, state.sss, state.shape, state.pathLoss,
+                GeneratorState.CELL_SIZE, true, GeneratorState.NOISE_FLOOR);
+    }
+
+    @Benchmark
+    public LocalizationDatasetGenerator constructWithGainTable(GeneratorState state){
+        return new LocalizationDatasetGenerator(state.txs, state.sss, state.shape, state.gainTable,
+                GeneratorState.CELL_SIZE, true, GeneratorState.NOISE_FLOOR);
+    }
+
+    @Benchmark
+    public double kernelWithModel(GeneratorState state){
+        ReceivedPowerKernel.forThread().compute(state.txs, state.sss, state.propagationModel,
+                GeneratorState.CELL_SIZE, GeneratorState.NOISE_FLOOR);
+        return state.sss[0].getRx().getReceived_power();
+    }
+
+    @Benchmark
+    public double kernelWithGainTable(GeneratorState state){
+        ReceivedPowerKernel.forThread().compute(state.gainTable, state.txs, state.sss, GeneratorState.NOISE_FLOOR,
+                ThreadLocalRandom.current());
+        return state.sss[0].getRx().getReceived_power();
+    }
+}
@@ -0,0 +1,26 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import edu.stonybrook.cs.wingslab.commons.SpectrumSensor;
+import edu.stonybrook.cs.wingslab.commons.TX;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**Random TX and sensor placement done by LocalizationDatasetGeneratorApp for every sample.*/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SampleCreationBenchmark {
+
+    @Benchmark
+    public TX[] createTXs(GeneratorState state){
+        return state.app.createTXs();
+    }
+
+    @Benchmark
+    public SpectrumSensor[] createSSs(GeneratorState state){
+        return state.app.createSSs();
+    }
+}
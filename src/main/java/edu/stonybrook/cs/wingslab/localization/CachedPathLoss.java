@@ -0,0 +1,44 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**PathLossFunction that looks path loss up in a shared PathLossCache and computes (and caches) it with a
+ * delegate on a miss. Links the cache can't key (non-integer cells, other heights) always go to the delegate.
+ * Thread-safe as long as the delegate is used by one thread only, i.e. one CachedPathLoss per worker.*/
+public class CachedPathLoss implements PathLossFunction {
+    private final PathLossCache cache;
+    private final PathLossFunction delegate;
+
+    /**CachedPathLoss constructor
+     * @param cache shared cache
+     * @param delegate path loss function computing misses (e.g. PathLossFunction.of(splat, cellSize))
+     * @param cellSize cell size delegate uses*/
+    public CachedPathLoss(PathLossCache cache, PathLossFunction delegate, int cellSize){
+        super();
+        if (cache.getCellSize() != cellSize)
+            throw new IllegalArgumentException("Path loss cache was created for another cell size.");
+        this.cache = cache;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public double pathLoss(double txX, double txY, double txHeight, double rxX, double rxY, double rxHeight){
+        if (!this.cache.accepts(txHeight, rxHeight))
+            return this.delegate.pathLoss(txX, txY, txHeight, rxX, rxY, rxHeight);
+        long key = PathLossCache.key(txX, txY, rxX, rxY);
+        double loss = this.cache.get(key);
+        if (!Double.isNaN(loss))
+            return loss;
+        loss = this.delegate.pathLoss(txX, txY, txHeight, rxX, rxY, rxHeight);
+        try {
+            this.cache.put(key, loss);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return loss;
+    }
+
+    // **************************** Setter & Getter ******************************
+    public PathLossCache getCache() { return cache; }
+}
@@ -0,0 +1,59 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import java.util.Random;
+
+/**Draws distinct random cells of a FieldGrid without building Point objects. A partial Fisher-Yates shuffle over a
+ * reusable permutation of the cells is done and undone for each draw, so a draw costs O(count) and allocates
+ * nothing. Not thread-safe; every worker owns its own sampler.*/
+public class CellSampler {
+    private final FieldGrid grid;
+    private final int[] cells;          // permutation of cell indices; identity between draws
+    private final int[] swaps;          // positions swapped by the current draw, to undo it
+
+    /**CellSampler constructor
+     * @param grid grid of the field
+     * @param maxCount maximum number of cells of one draw*/
+    public CellSampler(FieldGrid grid, int maxCount){
+        super();
+        if (maxCount > grid.cellCount())
+            throw new IllegalArgumentException(String.format("Can't draw %d distinct cells from a %s grid.",
+                    maxCount, grid));
+        this.grid = grid;
+        this.cells = new int[grid.cellCount()];
+        for (int cell = 0; cell < this.cells.length; cell++)
+            this.cells[cell] = cell;
+        this.swaps = new int[maxCount];
+    }
+
+    /**Draws distinct cells uniformly at random.
+     * @param count number of cells
+     * @param random source of randomness
+     * @param x x of the cells will be written here
+     * @param y y of the cells will be written here
+     * @param cellIndex cell index will be written here; may be null*/
+    public void draw(int count, Random random, double[] x, double[] y, int[] cellIndex){
+        if (count > this.swaps.length)
+            throw new IllegalArgumentException("Number of cells is more than the sampler capacity.");
+        int n = this.cells.length;
+        for (int i = 0; i < count; i++){
+            int j = i + random.nextInt(n - i);
+            this.swaps[i] = j;
+            int cell = this.cells[j];
+            this.cells[j] = this.cells[i];
+            this.cells[i] = cell;
+            x[i] = this.grid.x(cell);
+            y[i] = this.grid.y(cell);
+            if (cellIndex != null)
+                cellIndex[i] = cell;
+        }
+        for (int i = count - 1; i >= 0; i--){       // undoing in reverse order restores the identity
+            int j = this.swaps[i];
+            int cell = this.cells[j];
+            this.cells[j] = this.cells[i];
+            this.cells[i] = cell;
+        }
+    }
+
+    // **************************** Setter & Getter ******************************
+    public FieldGrid getGrid() { return grid; }
+}
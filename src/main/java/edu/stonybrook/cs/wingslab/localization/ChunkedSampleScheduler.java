@@ -0,0 +1,244 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**Splits a run into small chunks of consecutive sample indices and generates them on a work-stealing pool, so
+ * a slow chunk (e.g. many SPLAT! executions) only delays its own worker. Finished chunks are handed to a
+ * DatasetWriterPipeline that writes a single file in index order; no per-thread files or merge pass are needed.
+ * Each worker app is used by one task at a time, so its propagation model and sensors need not be thread-safe.
+ * Chunks pass their global sample indices to the apps, so a seeded run writes the same file for any chunk size or
+ * number of threads. For the same reason, a seeded run can be checkpointed and resumed: chunks completed before the
+ * checkpoint are kept in the file and generation continues with the next one.*/
+public class ChunkedSampleScheduler {
+    public static final int DEFAULT_CHUNK_SIZE = 64;
+
+    private final long firstIndex;          // global index of the first sample (e.g. of a shard)
+    private final int sampleCount;          // number of samples of the run
+    private final int chunkSize;            // number of samples of a chunk
+    private final int parallelism;          // number of pool threads
+
+    /**ChunkedSampleScheduler constructor
+     * @param firstIndex global index of the first sample
+     * @param sampleCount number of samples to be generated
+     * @param chunkSize number of samples of a chunk
+     * @param parallelism number of threads*/
+    public ChunkedSampleScheduler(long firstIndex, int sampleCount, int chunkSize, int parallelism){
+        super();
+        if (chunkSize <= 0 || parallelism <= 0)
+            throw new IllegalArgumentException("Chunk size and parallelism should be positive.");
+        this.firstIndex = firstIndex;
+        this.sampleCount = sampleCount;
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+    }
+
+    /**ChunkedSampleScheduler constructor
+     * @param sampleCount number of samples to be generated
+     * @param chunkSize number of samples of a chunk
+     * @param parallelism number of threads*/
+    public ChunkedSampleScheduler(int sampleCount, int chunkSize, int parallelism){
+        this(0, sampleCount, chunkSize, parallelism);
+    }
+
+    /**ChunkedSampleScheduler constructor with default chunk size and one thread per available processor
+     * @param sampleCount number of samples to be generated*/
+    public ChunkedSampleScheduler(int sampleCount){
+        this(sampleCount, DEFAULT_CHUNK_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**Generates all samples (not yet written according to the checkpoint) and writes them to the output file in
+     * index order.
+     * @param workers sample generators; at least one, ideally one per thread; seeded if checkpointed
+     * @param output output text file; overwritten if exists, unless resumed from the checkpoint
+     * @param gzip whether output is GZIP compressed
+     * @param checkpoint checkpoint saved periodically during the run and resumed from if it has completed chunks;
+     *                   null for none. It should be for this scheduler's samples and chunk size.
+     * @return number of samples written, including those before the checkpoint; less than sample count if some
+     * samples failed*/
+    public long run(LocalizationDatasetGeneratorApp[] workers, Path output, boolean gzip,
+                    GenerationCheckpoint checkpoint) throws IOException, InterruptedException {
+        SampleSource[] sources = new SampleSource[workers.length];
+        for (int i = 0; i < workers.length; i++) {
+            LocalizationDatasetGeneratorApp app = workers[i];
+            sources[i] = (firstIndex, count, encoders) -> app.generate(firstIndex, count, encoders[0]);
+        }
+        return run(sources, new Path[]{output}, gzip, checkpoint);
+    }
+
+    /**Generates all samples and writes them to the output file in index order.
+     * @param workers sample generators; at least one, ideally one per thread
+     * @param output output text file; overwritten if exists
+     * @param gzip whether output is GZIP compressed
+     * @return number of samples written; less than sample count if some samples failed*/
+    public long run(LocalizationDatasetGeneratorApp[] workers, Path output, boolean gzip)
+            throws IOException, InterruptedException {
+        return run(workers, output, gzip, null);
+    }
+
+    /**Generates all samples and writes them to an uncompressed output file in index order.
+     * @param workers sample generators; at least one, ideally one per thread
+     * @param output output text file; overwritten if exists
+     * @return number of samples written; less than sample count if some samples failed*/
+    public long run(LocalizationDatasetGeneratorApp[] workers, Path output) throws IOException, InterruptedException {
+        return run(workers, output, false);
+    }
+
+    /**Generates all samples of several datasets at once (e.g. a DatasetSweep) and writes each dataset to its own
+     * output file in index order.
+     * @param sources sample sources; at least one, ideally one per thread
+     * @param outputs output text file of each dataset, in the order of the sources' encoders
+     * @param gzip whether outputs are GZIP compressed
+     * @param checkpoint checkpoint of a single output, as in run(workers, output, gzip, checkpoint); null for none
+     * @return number of samples written to each output, including those before the checkpoint*/
+    long run(SampleSource[] sources, Path[] outputs, boolean gzip, GenerationCheckpoint checkpoint)
+            throws IOException, InterruptedException {
+        if (sources.length == 0)
+            throw new IllegalArgumentException("At least one worker is needed.");
+        if (checkpoint != null && (outputs.length != 1 || checkpoint.getFirstSample() != this.firstIndex ||
+                checkpoint.getSampleCount() != this.sampleCount || checkpoint.getChunkSize() != this.chunkSize ||
+                checkpoint.isGzip() != gzip))
+            throw new IllegalArgumentException("Checkpoint is not for the samples and chunks of this run.");
+        BlockingQueue<Worker> idleWorkers = new ArrayBlockingQueue<>(sources.length);
+        for (int i = 0; i < sources.length; i++)
+            idleWorkers.add(new Worker(sources[i], outputs.length, "w" + i));
+        int chunkCount = (this.sampleCount + this.chunkSize - 1) / this.chunkSize;
+        int firstChunk = checkpoint != null ? (int) checkpoint.getCompletedChunks() : 0;
+        AtomicLong generatedSamples = new AtomicLong(checkpoint != null ? checkpoint.getWrittenSamples() : 0);
+        if (checkpoint != null)
+            ProgressReporter.global().resumeFrom(checkpoint.getWrittenSamples());
+        AtomicReference<Throwable> taskFailure = new AtomicReference<>();
+        List<Future<?>> tasks = new ArrayList<>(chunkCount);
+        DatasetWriterPipeline[] writers = new DatasetWriterPipeline[outputs.length];
+        ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+        try {
+            for (int output = 0; output < outputs.length; output++)
+                writers[output] = new DatasetWriterPipeline(outputs[output], gzip,
+                        Math.max(DatasetWriterPipeline.DEFAULT_WINDOW, 4 * this.parallelism), checkpoint);
+            for (int chunk = firstChunk; chunk < chunkCount; chunk++) {
+                for (DatasetWriterPipeline writer : writers)
+                    writer.reserve();       // backpressure; chunks are reserved in index order
+                if (failed(writers) || taskFailure.get() != null) {
+                    for (DatasetWriterPipeline writer : writers)
+                        writer.abandon(chunk);      // returning the slots; nothing is written anymore
+                    break;
+                }
+                int chunkId = chunk;
+                int count = Math.min(this.chunkSize, this.sampleCount - chunk * this.chunkSize);
+                tasks.add(pool.submit(() -> {
+                    runChunk(chunkId, count, idleWorkers, writers, generatedSamples, taskFailure);
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    taskFailure.compareAndSet(null, e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdown();
+            IOException closeFailure = null;
+            for (DatasetWriterPipeline writer : writers) {
+                try {
+                    if (writer != null)
+                        writer.close();
+                } catch (IOException e) {
+                    if (closeFailure == null)
+                        closeFailure = e;
+                }
+            }
+            if (closeFailure != null)
+                taskFailure.compareAndSet(null, closeFailure);
+        }
+        Throwable failure = taskFailure.get();
+        if (failure instanceof IOException ioException)
+            throw ioException;
+        if (failure != null)
+            throw new RuntimeException(this.getClass().getSimpleName() + " failed generating chunks", failure);
+        return generatedSamples.get();
+    }
+
+    private static boolean failed(DatasetWriterPipeline[] writers){
+        for (DatasetWriterPipeline writer : writers)
+            if (writer.getFailure() != null)
+                return true;
+        return false;
+    }
+
+    // generating a chunk with an idle worker and handing it to the writers; the chunk is always submitted
+    // (abandoned on failure) so the writers never wait for it
+    private void runChunk(int chunk, int count, BlockingQueue<Worker> idleWorkers, DatasetWriterPipeline[] writers,
+                          AtomicLong generatedSamples, AtomicReference<Throwable> taskFailure)
+            throws InterruptedException {
+        byte[][] bytes = new byte[writers.length][];
+        int generated = 0;
+        try {
+            Worker worker = idleWorkers.take();
+            worker.progress.begin();
+            try {
+                generated = worker.source.generate(this.firstIndex + (long) chunk * this.chunkSize, count,
+                        worker.encoders);
+                for (int output = 0; output < writers.length; output++)
+                    bytes[output] = worker.encoders[output].toByteArray();
+                generatedSamples.addAndGet(generated);
+                worker.progress.add(generated);
+            } finally {
+                for (CsvSampleEncoder encoder : worker.encoders)
+                    encoder.clear();
+                worker.progress.finish();
+                idleWorkers.put(worker);
+            }
+        } catch (InterruptedException | RuntimeException | Error e) {
+            taskFailure.compareAndSet(null, e);
+            throw e;
+        } finally {
+            for (int output = 0; output < writers.length; output++)
+                writers[output].submit(chunk, bytes[output], generated);     // null bytes abandon the chunk
+        }
+    }
+
+    /**Generates consecutive samples into one encoder per output. A source is used by one chunk at a time, so it
+     * need not be thread-safe.*/
+    @FunctionalInterface
+    interface SampleSource {
+        /**@param firstIndex global index of the first sample
+         * @param count number of samples to be generated
+         * @param encoders encoders the samples are appended to, one per output
+         * @return number of samples appended to each encoder*/
+        int generate(long firstIndex, int count, CsvSampleEncoder[] encoders);
+    }
+
+    // a sample source together with its encoders and progress
+    private static class Worker {
+        private final SampleSource source;
+        private final CsvSampleEncoder[] encoders;
+        private final ProgressReporter.Worker progress;
+
+        private Worker(SampleSource source, int outputCount, String name){
+            this.source = source;
+            this.progress = ProgressReporter.global().newWorker(name);
+            this.progress.finish();             // idle until it gets a chunk
+            this.encoders = new CsvSampleEncoder[outputCount];
+            for (int output = 0; output < outputCount; output++)
+                this.encoders[output] = new CsvSampleEncoder(LocalizationDatasetGeneratorApp.getLabels());
+        }
+    }
+
+    // **************************** Setter & Getter ******************************
+    public int getSampleCount() { return sampleCount; }
+
+    public int getChunkSize() { return chunkSize; }
+
+    public int getParallelism() { return parallelism; }
+}
@@ -0,0 +1,152 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import edu.stonybrook.cs.wingslab.commons.*;
+
+import java.util.Random;
+
+/**Spatially correlated shadowing of a fixed sensor deployment (Gudmundson's model): the shadowing of the links
+ * from a TX to two sensors d meters apart has correlation exp(-d / decorrelationDistance). Drawing such a vector
+ * exactly needs a Cholesky factor of the sensors' covariance, O(sensors^2) per draw. Instead, sensors are visited
+ * in a fixed order and each one is drawn conditioned on its nearest already-drawn sensors only (a nearest-neighbor
+ * or Vecchia factorization): the weights and the conditional std of every sensor are computed once, so a draw
+ * costs one Gaussian and a few multiply-adds per sensor, about what independent shadowing costs. With as many
+ * neighbors as sensors it is the exact Cholesky draw; the exponential correlation decays fast enough that a dozen
+ * neighbors keep the pairwise correlations close to the model's.
+ * A CorrelatedShadowing keeps no per-draw state and is shared read-only by all threads.*/
+public class CorrelatedShadowing {
+    public static final int DEFAULT_NEIGHBORS = 12;
+    private static final double JITTER = 1e-9;      // keeps co-located sensors' covariance positive definite
+
+    private final int sensorCount;
+    private final double decorrelationDistance;     // in meter
+    private final int[] order;              // sensors in the order they are drawn
+    private final int[] offsets;            // neighbors of order[p] are neighbors[offsets[p] .. offsets[p + 1])
+    private final int[] neighbors;          // sensor indices, drawn before the sensor they condition
+    private final double[] weights;         // weight of every neighbor in the conditional mean
+    private final double[] conditionalStd;  // std of order[p] given its neighbors, per order position
+
+    /**CorrelatedShadowing constructor
+     * @param sss array of SpectrumSensor; their locations should not change during the run
+     * @param cellSize cell size in square
+     * @param decorrelationDistance distance in meter at which the correlation drops to 1/e
+     * @param neighborCount number of already drawn sensors every sensor is conditioned on*/
+    public CorrelatedShadowing(SpectrumSensor[] sss, int cellSize, double decorrelationDistance,
+                               int neighborCount){
+        super();
+        if (!(decorrelationDistance > 0) || neighborCount < 1)
+            throw new IllegalArgumentException("Decorrelation distance and neighbor count should be positive.");
+        this.sensorCount = sss.length;
+        this.decorrelationDistance = decorrelationDistance;
+        double[] x = new double[this.sensorCount];
+        double[] y = new double[this.sensorCount];
+        for (int ssId = 0; ssId < this.sensorCount; ssId++){
+            x[ssId] = sss[ssId].getRx().getElement().getLocation().getCartesian().getX() * cellSize;
+            y[ssId] = sss[ssId].getRx().getElement().getLocation().getCartesian().getY() * cellSize;
+        }
+        this.order = new int[this.sensorCount];
+        for (int ssId = 0; ssId < this.sensorCount; ssId++)
+            this.order[ssId] = ssId;
+        int m = Math.min(neighborCount, Math.max(this.sensorCount - 1, 0));
+        this.offsets = new int[this.sensorCount + 1];
+        for (int p = 0; p < this.sensorCount; p++)
+            this.offsets[p + 1] = this.offsets[p] + Math.min(p, m);
+        this.neighbors = new int[this.offsets[this.sensorCount]];
+        this.weights = new double[this.neighbors.length];
+        this.conditionalStd = new double[this.sensorCount];
+        double[] nearest = new double[m];           // squared distances of the nearest drawn sensors
+        double[] covariance = new double[m * m];
+        double[] crossCovariance = new double[m];
+        for (int p = 0; p < this.sensorCount; p++){
+            int ssId = this.order[p];
+            int offset = this.offsets[p];
+            int count = this.offsets[p + 1] - offset;
+            // nearest sensors among the ones drawn before, closest first
+            int found = 0;
+            for (int q = 0; q < p; q++){
+                int other = this.order[q];
+                double dx = x[other] - x[ssId], dy = y[other] - y[ssId];
+                double distance = dx * dx + dy * dy;
+                if (found == count && distance >= nearest[count - 1])
+                    continue;
+                int i = found < count ? found++ : count - 1;
+                for (; i > 0 && nearest[i - 1] > distance; i--){
+                    nearest[i] = nearest[i - 1];
+                    this.neighbors[offset + i] = this.neighbors[offset + i - 1];
+                }
+                nearest[i] = distance;
+                this.neighbors[offset + i] = other;
+            }
+            // weights solve covariance(neighbors) * w = covariance(neighbors, sensor)
+            for (int i = 0; i < count; i++){
+                int a = this.neighbors[offset + i];
+                crossCovariance[i] = correlation(x[a] - x[ssId], y[a] - y[ssId]);
+                for (int j = 0; j <= i; j++){
+                    int b = this.neighbors[offset + j];
+                    covariance[i * m + j] = i == j ? 1.0 + JITTER : correlation(x[a] - x[b], y[a] - y[b]);
+                }
+            }
+            choleskySolve(covariance, m, count, crossCovariance);
+            double variance = 1.0;
+            for (int i = 0; i < count; i++){
+                this.weights[offset + i] = crossCovariance[i];
+                int a = this.neighbors[offset + i];
+                variance -= crossCovariance[i] * correlation(x[a] - x[ssId], y[a] - y[ssId]);
+            }
+            this.conditionalStd[p] = Math.sqrt(Math.max(variance, 0.0));
+        }
+    }
+
+    /**CorrelatedShadowing constructor with DEFAULT_NEIGHBORS neighbors
+     * @param sss array of SpectrumSensor; their locations should not change during the run
+     * @param cellSize cell size in square
+     * @param decorrelationDistance distance in meter at which the correlation drops to 1/e*/
+    public CorrelatedShadowing(SpectrumSensor[] sss, int cellSize, double decorrelationDistance){
+        this(sss, cellSize, decorrelationDistance, DEFAULT_NEIGHBORS);
+    }
+
+    /**Draws the shadowing of one TX's links; scale by the std(dB) to get the shadowing in dB.
+     * @param random source of the draw; the same number of Gaussians is drawn every time
+     * @param out standard normal shadowing of every sensor, correlated over their locations*/
+    public void draw(Random random, double[] out){
+        for (int p = 0; p < this.sensorCount; p++){
+            double mean = 0.0;
+            for (int k = this.offsets[p]; k < this.offsets[p + 1]; k++)
+                mean += this.weights[k] * out[this.neighbors[k]];
+            out[this.order[p]] = mean + this.conditionalStd[p] * random.nextGaussian();
+        }
+    }
+
+    // Gudmundson correlation of two points dx, dy meters apart
+    private double correlation(double dx, double dy){
+        return Math.exp(-Math.sqrt(dx * dx + dy * dy) / this.decorrelationDistance);
+    }
+
+    // solving the lower triangle (row stride m) of a count x count SPD matrix in place; b is overwritten by x
+    private static void choleskySolve(double[] a, int m, int count, double[] b){
+        for (int i = 0; i < count; i++){
+            for (int j = 0; j <= i; j++){
+                double sum = a[i * m + j];
+                for (int k = 0; k < j; k++)
+                    sum -= a[i * m + k] * a[j * m + k];
+                a[i * m + j] = i == j ? Math.sqrt(Math.max(sum, JITTER)) : sum / a[j * m + j];
+            }
+        }
+        for (int i = 0; i < count; i++){            // L z = b
+            double sum = b[i];
+            for (int k = 0; k < i; k++)
+                sum -= a[i * m + k] * b[k];
+            b[i] = sum / a[i * m + i];
+        }
+        for (int i = count - 1; i >= 0; i--){       // L^T x = z
+            double sum = b[i];
+            for (int k = i + 1; k < count; k++)
+                sum -= a[k * m + i] * b[k];
+            b[i] = sum / a[i * m + i];
+        }
+    }
+
+    // **************************** Setter & Getter ******************************
+    public int getSensorCount() { return sensorCount; }
+
+    public double getDecorrelationDistance() { return decorrelationDistance; }
+}
@@ -0,0 +1,276 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**Encodes samples in exactly the text format of LocalizationDatasetGenerator.toString() (one line per sample,
+ * terminated by the platform line separator) straight into a reusable byte buffer. Fixed-precision values are
+ * formatted without Formatter; values that could round differently (near-ties, huge magnitudes, NaN) and
+ * locales whose number format differs from the plain one fall back to String.format, so the output is
+ * byte-for-byte the same as printing toString(). Selected labels (see SampleLabel) are appended to the line after
+ * the TX list, so lines without labels are unchanged. Not thread-safe.*/
+public class CsvSampleEncoder {
+    private static final byte[] NEGATIVE_INFINITY = {'-', 'i', 'n', 'f'};
+    private static final long[] POW10 = {1L, 10L, 100L, 1000L};
+    private static final double FAST_LIMIT = 1e6;       // larger magnitudes are formatted by String.format
+    private static final double TIE_GUARD = 1e-5;       // scaled fractions this close to .5 use String.format
+
+    private final byte[] lineSeparator;
+    private final Charset charset;
+    private final boolean fastFormat;                   // false if default locale formats numbers differently
+    private ByteBuffer buffer;
+    private SampleBuffer scratch;                       // object-based samples are copied here to be encoded
+    private final SampleLabeler labeler;                // null if no label is appended
+
+    /**CsvSampleEncoder constructor
+     * @param initialCapacity initial size of the buffer in bytes; it grows as needed
+     * @param labels labels appended to every line; empty for none*/
+    public CsvSampleEncoder(int initialCapacity, List<SampleLabel> labels){
+        super();
+        this.charset = Charset.defaultCharset();        // same as PrintWriter(File)
+        this.lineSeparator = System.lineSeparator().getBytes(this.charset);
+        this.fastFormat = String.format("%.3f,%.1f,%d", -1234.5, 0.25, -12).equals("-1234.500,0.3,-12");
+        this.buffer = ByteBuffer.allocate(Math.max(initialCapacity, 64));
+        this.labeler = labels == null || labels.isEmpty() ? null : new SampleLabeler(labels);
+    }
+
+    /**CsvSampleEncoder constructor
+     * @param initialCapacity initial size of the buffer in bytes; it grows as needed*/
+    public CsvSampleEncoder(int initialCapacity){
+        this(initialCapacity, null);
+    }
+
+    /**CsvSampleEncoder constructor with a 64KB initial buffer
+     * @param labels labels appended to every line; empty for none*/
+    public CsvSampleEncoder(List<SampleLabel> labels){
+        this(1 << 16, labels);
+    }
+
+    /**CsvSampleEncoder constructor with a 64KB initial buffer*/
+    public CsvSampleEncoder(){
+        this(1 << 16, null);
+    }
+
+    /**Appends a sample as one line to the buffer. If the sample can't be encoded, nothing is appended.
+     * @param sample a sample whose sensors' received power is computed*/
+    public void encode(LocalizationDatasetGenerator sample){
+        int sensorCount = sample.getSss().length;
+        int txCount = sample.getTxs() == null ? 0 : sample.getTxs().length;
+        if (this.scratch == null || this.scratch.getSensorCount() != sensorCount ||
+                this.scratch.getMaxTxCount() < txCount)
+            this.scratch = new SampleBuffer(txCount, sensorCount);
+        this.scratch.set(sample);
+        encode(this.scratch);
+    }
+
+    /**Appends a sample as one line to the buffer. If the sample can't be encoded, nothing is appended.
+     * @param sample a sample buffer whose received powers are computed*/
+    public void encode(SampleBuffer sample){
+        int lineStart = this.buffer.position();
+        try {
+            encodeSss(sample);
+            putByte(',');
+            encodeStrongest(sample);
+            putByte(',');
+            encodeTxs(sample);
+            if (this.labeler != null)
+                encodeLabels(sample);
+            ensure(this.lineSeparator.length);
+            this.buffer.put(this.lineSeparator);
+        } catch (RuntimeException e) {
+            this.buffer.position(lineStart);      // dropping the partial line
+            throw e;
+        }
+    }
+
+    /**Writes the buffered bytes to the channel and clears the buffer.
+     * @param channel destination channel*/
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining())
+            channel.write(this.buffer);
+        this.buffer.clear();
+    }
+
+    /**@return number of buffered bytes*/
+    public int size(){ return this.buffer.position(); }
+
+    /**discards the buffered bytes*/
+    public void clear(){ this.buffer.clear(); }
+
+    /**@return the buffered bytes as a new array*/
+    public byte[] toByteArray(){
+        byte[] bytes = new byte[this.buffer.position()];
+        this.buffer.duplicate().flip().get(bytes);
+        return bytes;
+    }
+
+    // same as LocalizationDatasetGenerator.sssInfo()
+    private void encodeSss(SampleBuffer sample){
+        int sensorCount = sample.getSensorCount();
+        boolean sssLocation = sample.isSssLocation();
+        if (sssLocation){
+            putLong(sensorCount);
+            putByte(',');
+        }
+        for (int ssId = 0; ssId < sensorCount; ssId++){
+            if (ssId > 0)
+                putByte(',');
+            if (sssLocation){
+                putDouble(sample.ssX[ssId]);
+                putByte(',');
+                putDouble(sample.ssY[ssId]);
+                putByte(',');
+            }
+            if (sample.receivedPower[ssId] == Double.NEGATIVE_INFINITY){
+                ensure(NEGATIVE_INFINITY.length);
+                this.buffer.put(NEGATIVE_INFINITY);
+            }
+            else
+                putFixed(sample.receivedPower[ssId], 3);
+        }
+    }
+
+    // same as LocalizationDatasetGenerator.strongest()
+    private void encodeStrongest(SampleBuffer sample){
+        if (sample.getTxCount() == 0){
+            putFixed(0.0, 1);
+            putByte(',');
+            putFixed(0.0, 1);
+            putByte(',');
+            putFixed(sample.getNoiseFloor(), 3);
+            return;
+        }
+        int strongestIdx = sample.strongestIndex();
+        putFixed(sample.txX[strongestIdx], 1);
+        putByte(',');
+        putFixed(sample.txY[strongestIdx], 1);
+        putByte(',');
+        putFixed(sample.txPower[strongestIdx], 3);
+    }
+
+    // same as LocalizationDatasetGenerator.txsInfo()
+    private void encodeTxs(SampleBuffer sample){
+        int txCount = sample.getTxCount();
+        if (txCount == 0){
+            putByte('0');
+            return;
+        }
+        putLong(txCount);
+        for (int txId = 0; txId < txCount; txId++){
+            putByte(',');
+            putDouble(sample.txX[txId]);
+            putByte(',');
+            putDouble(sample.txY[txId]);
+            putByte(',');
+            putFixed(sample.txPower[txId], 3);
+        }
+    }
+
+    // selected labels, each value preceded by a comma
+    private void encodeLabels(SampleBuffer sample){
+        this.labeler.label(sample);
+        double[] values = this.labeler.getValues();
+        int offset = 0;
+        for (SampleLabel label : this.labeler.getLabels()) {
+            int width = label.width(sample.getSensorCount());
+            for (int column = 0; column < width; column++){
+                putByte(',');
+                int decimals = label.decimals(column);
+                if (decimals == 0)
+                    putLong((long) values[offset + column]);
+                else
+                    putFixed(values[offset + column], decimals);
+            }
+            offset += width;
+        }
+    }
+
+    // same as String.format("%.<decimals>f", value)
+    private void putFixed(double value, int decimals){
+        double magnitude = Math.abs(value);
+        if (!this.fastFormat || !(magnitude < FAST_LIMIT)){    // also NaN
+            putString(String.format("%." + decimals + "f", value));
+            return;
+        }
+        double scaled = magnitude * POW10[decimals];
+        double floor = Math.floor(scaled);
+        double fraction = scaled - floor;
+        if (Math.abs(fraction - 0.5) < TIE_GUARD){            // Formatter rounds the decimal string half-up
+            putString(String.format("%." + decimals + "f", value));
+            return;
+        }
+        long units = (long) floor + (fraction > 0.5 ? 1 : 0);
+        ensure(24);
+        if (Double.doubleToRawLongBits(value) < 0)             // Formatter keeps the sign of -0.0 and -0.0001
+            this.buffer.put((byte) '-');
+        putPositiveLong(units / POW10[decimals]);
+        this.buffer.put((byte) '.');
+        long fractionDigits = units % POW10[decimals];
+        for (long pow = POW10[decimals] / 10; pow > 0; pow /= 10){
+            this.buffer.put((byte) ('0' + fractionDigits / pow));
+            fractionDigits %= pow;
+        }
+    }
+
+    // same as StringBuilder.append(double), i.e. Double.toString(value)
+    private void putDouble(double value){
+        if (value == Math.rint(value) && Math.abs(value) < 1e7 && this.fastFormat){
+            ensure(24);
+            if (Double.doubleToRawLongBits(value) < 0)
+                this.buffer.put((byte) '-');
+            putPositiveLong((long) Math.abs(value));
+            this.buffer.put((byte) '.').put((byte) '0');
+            return;
+        }
+        putString(Double.toString(value));
+    }
+
+    // same as String.format("%d", value)
+    private void putLong(long value){
+        if (!this.fastFormat){
+            putString(String.format("%d", value));
+            return;
+        }
+        ensure(24);
+        if (value < 0){
+            if (value == Long.MIN_VALUE){
+                putString(Long.toString(value));
+                return;
+            }
+            this.buffer.put((byte) '-');
+            value = -value;
+        }
+        putPositiveLong(value);
+    }
+
+    private void putPositiveLong(long value){
+        if (value >= 10)
+            putPositiveLong(value / 10);
+        this.buffer.put((byte) ('0' + value % 10));
+    }
+
+    private void putByte(char c){
+        ensure(1);
+        this.buffer.put((byte) c);
+    }
+
+    private void putString(String s){
+        byte[] bytes = s.getBytes(this.charset);
+        ensure(bytes.length);
+        this.buffer.put(bytes);
+    }
+
+    private void ensure(int bytes){
+        if (this.buffer.remaining() >= bytes)
+            return;
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(this.buffer.capacity() * 2,
+                this.buffer.position() + bytes));
+        this.buffer.flip();
+        larger.put(this.buffer);
+        this.buffer = larger;
+    }
+}
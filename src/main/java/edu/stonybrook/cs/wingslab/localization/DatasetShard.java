@@ -0,0 +1,95 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**One of count disjoint, consecutive ranges of the global sample indices of a run, e.g. "--shard 2/8". With the
+ * same run seed, independent processes generating every shard produce exactly the samples of the whole run, and
+ * the shards' text files concatenated in shard order (as bytes; gzip members concatenate too) are the whole run's
+ * file. NPY shards are concatenated by NpyDatasetWriter.merge(). A manifest written next to each shard records what
+ * it holds.*/
+public class DatasetShard {
+    public static final DatasetShard WHOLE = new DatasetShard(0, 1);      // the whole run as a single shard
+    private final int index;        // zero-based index of the shard
+    private final int count;        // number of shards
+
+    /**DatasetShard constructor
+     * @param index zero-based index of the shard
+     * @param count number of shards*/
+    public DatasetShard(int index, int count){
+        super();
+        if (count <= 0 || index < 0 || index >= count)
+            throw new IllegalArgumentException(String.format("Invalid shard %d/%d.", index, count));
+        this.index = index;
+        this.count = count;
+    }
+
+    /**@param shard shard as "index/count", e.g. "0/4"
+     * @return the shard*/
+    public static DatasetShard parse(String shard){
+        String[] parts = shard.split("/");
+        if (parts.length != 2)
+            throw new IllegalArgumentException("Shard should be given as index/count: " + shard);
+        try {
+            return new DatasetShard(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Shard should be given as index/count: " + shard, e);
+        }
+    }
+
+    /**@param totalSamples number of samples of the whole run
+     * @return global index of this shard's first sample*/
+    public long firstSample(long totalSamples){
+        return totalSamples * this.index / this.count;
+    }
+
+    /**@param totalSamples number of samples of the whole run
+     * @return number of samples of this shard*/
+    public long sampleCount(long totalSamples){
+        return totalSamples * (this.index + 1) / this.count - firstSample(totalSamples);
+    }
+
+    /**@return whether the run is split into more than one shard*/
+    public boolean isSharded(){ return this.count > 1; }
+
+    /**Writes a JSON manifest describing this shard of a seeded run.
+     * @param manifest manifest file
+     * @param dataset file (or npy directory) of the shard, relative to the manifest
+     * @param format output format
+     * @param runSeed seed of the run
+     * @param totalSamples number of samples of the whole run
+     * @param writtenSamples number of samples actually written; less than the shard's if some failed
+     * @param vectorizedKernel whether received power was computed by the vectorized log-distance kernel; shards
+     *                         computed with and without it should not be mixed*/
+    public void writeManifest(Path manifest, String dataset, OutputFormat format, long runSeed, long totalSamples,
+                              long writtenSamples, boolean vectorizedKernel) throws IOException {
+        String json = String.format(Locale.ROOT, "{\n" +
+                        "  \"dataset\": \"%s\",\n" +
+                        "  \"format\": \"%s\",\n" +
+                        "  \"run_seed\": %d,\n" +
+                        "  \"shard\": %d,\n" +
+                        "  \"shards\": %d,\n" +
+                        "  \"total_samples\": %d,\n" +
+                        "  \"first_sample\": %d,\n" +
+                        "  \"samples\": %d,\n" +
+                        "  \"written_samples\": %d,\n" +
+                        "  \"vectorized_kernel\": %b\n" +
+                        "}\n", dataset.replace("\\", "\\\\").replace("\"", "\\\""),
+                format.name().toLowerCase(Locale.ROOT), runSeed, this.index, this.count, totalSamples,
+                firstSample(totalSamples), sampleCount(totalSamples), writtenSamples, vectorizedKernel);
+        Files.writeString(manifest, json, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString(){
+        return this.index + "/" + this.count;
+    }
+
+    // **************************** Setter & Getter ******************************
+    public int getIndex() { return index; }
+
+    public int getCount() { return count; }
+}
@@ -0,0 +1,206 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import edu.stonybrook.cs.wingslab.commons.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**Statistics of a dataset for normalization, accumulated while samples are written: per sensor (column) count,
+ * mean, variance, min and max of the finite received powers and the fraction of -inf readings, plus a histogram
+ * of the number of TXs per sample. Means and variances are accumulated with Welford's method, so a single pass is
+ * numerically stable; every worker owns an accumulator and they are merged (Chan et al.) at the end. Values are
+ * the received powers before they are rounded to the text format's 3 decimals. Not thread-safe.*/
+public class DatasetStatistics {
+    private final int sensorCount;
+    private long samples;
+    private final long[] txCounts;          // txCounts[i]: number of samples with i TXs
+    private final long[] count;             // number of finite readings per sensor
+    private final double[] mean;
+    private final double[] m2;              // sum of squared differences from the mean
+    private final double[] min;
+    private final double[] max;
+    private final long[] negativeInfinity;  // number of -inf readings per sensor
+
+    /**DatasetStatistics constructor
+     * @param sensorCount number of sensors of each sample
+     * @param maxTxNum maximum number of TXs of a sample*/
+    public DatasetStatistics(int sensorCount, int maxTxNum){
+        super();
+        this.sensorCount = sensorCount;
+        this.txCounts = new long[maxTxNum + 1];
+        this.count = new long[sensorCount];
+        this.mean = new double[sensorCount];
+        this.m2 = new double[sensorCount];
+        this.min = new double[sensorCount];
+        this.max = new double[sensorCount];
+        this.negativeInfinity = new long[sensorCount];
+        Arrays.fill(this.min, Double.POSITIVE_INFINITY);
+        Arrays.fill(this.max, Double.NEGATIVE_INFINITY);
+    }
+
+    /**Adds a sample.
+     * @param receivedPower received power(dB) of the sensors
+     * @param txCount number of TXs of the sample*/
+    public void record(double[] receivedPower, int txCount){
+        this.samples++;
+        this.txCounts[txCount]++;
+        for (int ssId = 0; ssId < this.sensorCount; ssId++) {
+            double value = receivedPower[ssId];
+            if (value == Double.NEGATIVE_INFINITY) {
+                this.negativeInfinity[ssId]++;
+                continue;
+            }
+            long n = ++this.count[ssId];
+            double delta = value - this.mean[ssId];
+            this.mean[ssId] += delta / n;
+            this.m2[ssId] += delta * (value - this.mean[ssId]);
+            if (value < this.min[ssId])
+                this.min[ssId] = value;
+            if (value > this.max[ssId])
+                this.max[ssId] = value;
+        }
+    }
+
+    /**Adds a primitive sample.
+     * @param sample a sample whose received powers are computed*/
+    public void record(SampleBuffer sample){
+        record(sample.receivedPower, sample.getTxCount());
+    }
+
+    /**Adds an object-based sample.
+     * @param sample a sample whose sensors' received power is computed*/
+    public void record(LocalizationDatasetGenerator sample){
+        SpectrumSensor[] sss = sample.getSss();
+        double[] receivedPower = new double[sss.length];
+        for (int ssId = 0; ssId < sss.length; ssId++)
+            receivedPower[ssId] = sss[ssId].getRx().getReceived_power();
+        record(receivedPower, sample.getTxs() == null ? 0 : sample.getTxs().length);
+    }
+
+    /**Adds another accumulator's samples to this one.
+     * @param other statistics of the same sensors*/
+    public void merge(DatasetStatistics other){
+        if (other.sensorCount != this.sensorCount || other.txCounts.length != this.txCounts.length)
+            throw new IllegalArgumentException("Statistics of different datasets can't be merged.");
+        this.samples += other.samples;
+        for (int txNum = 0; txNum < this.txCounts.length; txNum++)
+            this.txCounts[txNum] += other.txCounts[txNum];
+        for (int ssId = 0; ssId < this.sensorCount; ssId++)
+            mergeColumn(ssId, other, ssId);
+    }
+
+    // merging a sensor of another accumulator into a sensor of this one
+    private void mergeColumn(int ssId, DatasetStatistics other, int otherSsId){
+        this.negativeInfinity[ssId] += other.negativeInfinity[otherSsId];
+        long otherCount = other.count[otherSsId];
+        if (otherCount == 0)
+            return;
+        long n = this.count[ssId] + otherCount;
+        double delta = other.mean[otherSsId] - this.mean[ssId];
+        this.mean[ssId] += delta * otherCount / n;
+        this.m2[ssId] += other.m2[otherSsId] + delta * delta * this.count[ssId] * otherCount / n;
+        this.count[ssId] = n;
+        this.min[ssId] = Math.min(this.min[ssId], other.min[otherSsId]);
+        this.max[ssId] = Math.max(this.max[ssId], other.max[otherSsId]);
+    }
+
+    /**@param statistics accumulators of the same dataset, e.g. one per worker
+     * @return a new accumulator with all their samples*/
+    public static DatasetStatistics merged(Iterable<DatasetStatistics> statistics){
+        DatasetStatistics merged = null;
+        for (DatasetStatistics part : statistics) {
+            if (merged == null)
+                merged = new DatasetStatistics(part.sensorCount, part.txCounts.length - 1);
+            merged.merge(part);
+        }
+        return merged;
+    }
+
+    /**Writes the statistics as JSON, e.g. as a sidecar file next to the dataset. Variances are population
+     * variances; sensors with no finite reading have null mean, variance, min and max. "all_sensors" is over the
+     * readings of every sensor.
+     * @param path statistics file
+     * @param dataset file (or npy directory) of the dataset, relative to the statistics file*/
+    public void writeJson(Path path, String dataset) throws IOException {
+        DatasetStatistics overall = new DatasetStatistics(1, 0);      // readings of all sensors as one column
+        StringBuilder json = new StringBuilder("{\n");
+        json.append(String.format(Locale.ROOT, "  \"dataset\": \"%s\",\n  \"samples\": %d,\n  \"sensors\": %d,\n",
+                dataset.replace("\\", "\\\\").replace("\"", "\\\""), this.samples, this.sensorCount));
+        json.append("  \"tx_count_histogram\": [");
+        for (int txNum = 0; txNum < this.txCounts.length; txNum++)
+            json.append(txNum > 0 ? ", " : "").append(this.txCounts[txNum]);
+        json.append("],\n");
+        StringBuilder counts = new StringBuilder();
+        StringBuilder means = new StringBuilder();
+        StringBuilder variances = new StringBuilder();
+        StringBuilder mins = new StringBuilder();
+        StringBuilder maxs = new StringBuilder();
+        StringBuilder infinities = new StringBuilder();
+        for (int ssId = 0; ssId < this.sensorCount; ssId++) {
+            String separator = ssId > 0 ? ", " : "";
+            counts.append(separator).append(this.count[ssId]);
+            means.append(separator).append(jsonNumber(this.count[ssId] > 0 ? this.mean[ssId] : Double.NaN));
+            variances.append(separator).append(jsonNumber(variance(this.count[ssId], this.m2[ssId])));
+            mins.append(separator).append(jsonNumber(this.min[ssId]));
+            maxs.append(separator).append(jsonNumber(this.max[ssId]));
+            infinities.append(separator).append(jsonNumber(fraction(this.negativeInfinity[ssId])));
+            overall.mergeColumn(0, this, ssId);
+        }
+        json.append(String.format(Locale.ROOT, "  \"all_sensors\": {\"count\": %d, \"mean\": %s, \"variance\": %s, " +
+                        "\"min\": %s, \"max\": %s, \"negative_infinity_fraction\": %s},\n", overall.count[0],
+                jsonNumber(overall.count[0] > 0 ? overall.mean[0] : Double.NaN),
+                jsonNumber(variance(overall.count[0], overall.m2[0])), jsonNumber(overall.min[0]),
+                jsonNumber(overall.max[0]), jsonNumber(this.samples * this.sensorCount > 0 ?
+                        (double) overall.negativeInfinity[0] / (this.samples * this.sensorCount) : Double.NaN)));
+        json.append("  \"per_sensor\": {\n");
+        json.append("    \"count\": [").append(counts).append("],\n");
+        json.append("    \"mean\": [").append(means).append("],\n");
+        json.append("    \"variance\": [").append(variances).append("],\n");
+        json.append("    \"min\": [").append(mins).append("],\n");
+        json.append("    \"max\": [").append(maxs).append("],\n");
+        json.append("    \"negative_infinity_fraction\": [").append(infinities).append("]\n");
+        json.append("  }\n}\n");
+        Files.writeString(path, json, StandardCharsets.UTF_8);
+    }
+
+    private static double variance(long count, double m2){
+        return count > 0 ? m2 / count : Double.NaN;
+    }
+
+    private double fraction(long count){
+        return this.samples > 0 ? (double) count / this.samples : Double.NaN;
+    }
+
+    private static String jsonNumber(double value){
+        return Double.isFinite(value) ? Double.toString(value) : "null";
+    }
+
+    // **************************** Setter & Getter ******************************
+    public int getSensorCount() { return sensorCount; }
+
+    public long getSamples() { return samples; }
+
+    /**@param txNum number of TXs
+     * @return number of samples with txNum TXs*/
+    public long getTxCount(int txNum) { return txCounts[txNum]; }
+
+    /**@param ssId sensor index
+     * @return mean of the sensor's finite readings; NaN if there is none*/
+    public double getMean(int ssId) { return count[ssId] > 0 ? mean[ssId] : Double.NaN; }
+
+    /**@param ssId sensor index
+     * @return population variance of the sensor's finite readings; NaN if there is none*/
+    public double getVariance(int ssId) { return variance(count[ssId], m2[ssId]); }
+
+    public double getMin(int ssId) { return min[ssId]; }
+
+    public double getMax(int ssId) { return max[ssId]; }
+
+    /**@param ssId sensor index
+     * @return fraction of the sensor's readings that are -inf*/
+    public double getNegativeInfinityFraction(int ssId) { return fraction(negativeInfinity[ssId]); }
+}
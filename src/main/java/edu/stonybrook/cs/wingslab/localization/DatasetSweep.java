@@ -0,0 +1,296 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import edu.stonybrook.cs.wingslab.commons.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**Generates a family of seeded datasets (SweepConfigurations) in one run, sharing the work they have in common.
+ * All sensors of the datasets form one deployment: a smaller sensor set contained in a larger one (e.g. 400 of
+ * the 900 sensors) adds no sensors, and its received powers are the larger set's columns. For every sample index:
+ * <ul>
+ *     <li>TXs are drawn once per TX range, as a seeded app draws them;</li>
+ *     <li>received power of all sensors is computed once per propagation model (gain table) and TX range, each
+ *     model continuing the random of the TX draw, so shadowing is the same for every dataset sharing them;</li>
+ *     <li>every dataset picks its sensors' columns and is encoded into its own output.</li>
+ * </ul>
+ * Gain tables are built once per model over the whole deployment and may be shared (e.g. all SPLAT! datasets, or
+ * log-distance tables derived from one DistanceTable). A dataset whose sensors are the whole deployment is the
+ * same as a seeded run of that dataset alone with the same gain table.*/
+public class DatasetSweep {
+    private final List<SweepConfiguration> configurations;
+    private final SpectrumSensor[] sss;             // sensors of all datasets
+    private final int[][] sensorIndices;            // sensorIndices[dataset][i]: index of its i-th sensor in sss
+    private final FieldGrid grid;
+    private final double txHeight;                  // height of TXs
+    private final double minTxPower;                // power range of TXs past the fixed ones
+    private final double maxTxPower;
+    private final double noiseFloor;
+    private final long runSeed;
+    private final List<DrawGroup> drawGroups = new ArrayList<>();
+    private final int maxTxNum;                     // maximum number of TXs over all datasets
+    private final List<Worker> workers = new ArrayList<>();     // workers of the last run
+
+    /**DatasetSweep constructor; gain tables should be built with buildGainTables() before generating
+     * @param configurations datasets of the sweep
+     * @param sensors sensors of a dataset by sensor count, e.g. read from the sensors file of that count
+     * @param grid grid of the field
+     * @param txHeight height of TXs
+     * @param minTxPower minimum power(dB) of TXs past the fixed ones (see LocalizationDatasetGeneratorApp)
+     * @param maxTxPower maximum power(dB) of TXs past the fixed ones
+     * @param noiseFloor noise floor
+     * @param runSeed seed of the run*/
+    public DatasetSweep(List<SweepConfiguration> configurations, IntFunction<SpectrumSensor[]> sensors,
+                        FieldGrid grid, double txHeight, double minTxPower, double maxTxPower, double noiseFloor,
+                        long runSeed){
+        super();
+        if (configurations.isEmpty())
+            throw new IllegalArgumentException("A sweep needs at least one dataset.");
+        this.configurations = List.copyOf(configurations);
+        this.grid = grid;
+        this.txHeight = txHeight;
+        this.minTxPower = minTxPower;
+        this.maxTxPower = maxTxPower;
+        this.noiseFloor = noiseFloor;
+        this.runSeed = runSeed;
+        // larger sensor sets first, so smaller ones contained in them add nothing
+        List<Integer> sensorCounts = new ArrayList<>();
+        for (SweepConfiguration configuration : this.configurations)
+            if (!sensorCounts.contains(configuration.getSensorCount()))
+                sensorCounts.add(configuration.getSensorCount());
+        sensorCounts.sort((a, b) -> Integer.compare(b, a));
+        List<SpectrumSensor> deployment = new ArrayList<>();
+        Map<Integer, int[]> indicesByCount = new HashMap<>();
+        for (int sensorCount : sensorCounts) {
+            SpectrumSensor[] countSss = sensors.apply(sensorCount);
+            if (countSss == null || countSss.length != sensorCount)
+                throw new IllegalArgumentException(String.format("Sensors of the %d-sensor datasets could not be " +
+                        "read.", sensorCount));
+            int[] indices = new int[sensorCount];
+            for (int ssId = 0; ssId < sensorCount; ssId++) {
+                indices[ssId] = indexOf(deployment, countSss[ssId]);
+                if (indices[ssId] < 0) {
+                    indices[ssId] = deployment.size();
+                    deployment.add(countSss[ssId]);
+                }
+            }
+            indicesByCount.put(sensorCount, indices);
+        }
+        this.sss = deployment.toArray(new SpectrumSensor[0]);
+        this.sensorIndices = new int[this.configurations.size()][];
+        int maxTxNum = 0;
+        for (int dataset = 0; dataset < this.configurations.size(); dataset++) {
+            SweepConfiguration configuration = this.configurations.get(dataset);
+            this.sensorIndices[dataset] = indicesByCount.get(configuration.getSensorCount());
+            maxTxNum = Math.max(maxTxNum, configuration.getMaxTxNum());
+            DrawGroup drawGroup = null;
+            for (DrawGroup group : this.drawGroups)
+                if (group.configuration.sameTxDraws(configuration))
+                    drawGroup = group;
+            if (drawGroup == null) {
+                drawGroup = new DrawGroup(configuration);
+                this.drawGroups.add(drawGroup);
+            }
+            drawGroup.datasets.add(dataset);
+        }
+        this.maxTxNum = maxTxNum;
+    }
+
+    // index of a sensor at the same location and height in the list; -1 if there is none
+    private static int indexOf(List<SpectrumSensor> sss, SpectrumSensor ss){
+        Element element = ss.getRx().getElement();
+        for (int ssId = 0; ssId < sss.size(); ssId++) {
+            Element other = sss.get(ssId).getRx().getElement();
+            if (other.getHeight() == element.getHeight() &&
+                    other.getLocation().getCartesian().getX() == element.getLocation().getCartesian().getX() &&
+                    other.getLocation().getCartesian().getY() == element.getLocation().getCartesian().getY())
+                return ssId;
+        }
+        return -1;
+    }
+
+    /**Builds the gain tables of the datasets' propagation models over all sensors of the sweep. The factory is
+     * called once per distinct (alpha, std); datasets whose tables are the same object share the received power
+     * computation.
+     * @param tables gain table of a dataset's propagation model for getSensors()
+     * @return number of distinct gain tables*/
+    public int buildGainTables(Function<SweepConfiguration, GainTable> tables){
+        List<SweepConfiguration> models = new ArrayList<>();
+        List<GainTable> modelTables = new ArrayList<>();
+        Map<GainTable, Boolean> distinct = new IdentityHashMap<>();
+        for (DrawGroup drawGroup : this.drawGroups) {
+            drawGroup.modelGroups.clear();
+            for (int dataset : drawGroup.datasets) {
+                SweepConfiguration configuration = this.configurations.get(dataset);
+                GainTable table = null;
+                for (int model = 0; model < models.size() && table == null; model++)
+                    if (models.get(model).sameModel(configuration))
+                        table = modelTables.get(model);
+                if (table == null) {
+                    table = tables.apply(configuration);
+                    if (table.getSensorCount() != this.sss.length || table.getGrid().cellCount() !=
+                            this.grid.cellCount())
+                        throw new IllegalArgumentException("Gain table does not cover the sensors of the sweep.");
+                    models.add(configuration);
+                    modelTables.add(table);
+                    distinct.put(table, Boolean.TRUE);
+                }
+                ModelGroup modelGroup = null;
+                for (ModelGroup group : drawGroup.modelGroups)
+                    if (group.gainTable == table)
+                        modelGroup = group;
+                if (modelGroup == null) {
+                    modelGroup = new ModelGroup(table);
+                    drawGroup.modelGroups.add(modelGroup);
+                }
+                modelGroup.datasets.add(dataset);
+            }
+        }
+        return distinct.size();
+    }
+
+    /**Generates the datasets' samples and writes every dataset to its own output file in index order.
+     * @param outputs output text file of each dataset, in configuration order
+     * @param firstSample global index of the first sample (e.g. of a shard)
+     * @param sampleCount number of samples of each dataset
+     * @param chunkSize number of samples of a chunk
+     * @param parallelism number of threads
+     * @param gzip whether outputs are GZIP compressed
+     * @return number of samples written to each output*/
+    public long run(Path[] outputs, long firstSample, int sampleCount, int chunkSize, int parallelism, boolean gzip)
+            throws IOException, InterruptedException {
+        if (outputs.length != this.configurations.size())
+            throw new IllegalArgumentException("Every dataset needs one output.");
+        for (DrawGroup drawGroup : this.drawGroups)
+            if (drawGroup.modelGroups.isEmpty())
+                throw new IllegalStateException("Gain tables have not been built.");
+        ChunkedSampleScheduler.SampleSource[] workers = new ChunkedSampleScheduler.SampleSource[parallelism];
+        this.workers.clear();
+        for (int i = 0; i < parallelism; i++) {
+            Worker worker = new Worker();
+            this.workers.add(worker);
+            workers[i] = worker;
+        }
+        return new ChunkedSampleScheduler(firstSample, sampleCount, chunkSize, parallelism).run(workers, outputs,
+                gzip, null);
+    }
+
+    // datasets drawing the same TXs
+    private static class DrawGroup {
+        private final SweepConfiguration configuration;     // first dataset of the group; its TX range is used
+        private final List<Integer> datasets = new ArrayList<>();
+        private final List<ModelGroup> modelGroups = new ArrayList<>();
+
+        private DrawGroup(SweepConfiguration configuration){
+            this.configuration = configuration;
+        }
+    }
+
+    // datasets of a draw group sharing a gain table
+    private static class ModelGroup {
+        private final GainTable gainTable;
+        private final List<Integer> datasets = new ArrayList<>();
+
+        private ModelGroup(GainTable gainTable){
+            this.gainTable = gainTable;
+        }
+    }
+
+    // generates samples of all datasets; owned by one chunk at a time
+    private class Worker implements ChunkedSampleScheduler.SampleSource {
+        private final CellSampler cellSampler = new CellSampler(DatasetSweep.this.grid, DatasetSweep.this.maxTxNum);
+        private final SampleRandom drawRandom = new SampleRandom();     // random of the TX draw
+        private final SampleRandom modelRandom = new SampleRandom();    // continues drawRandom for every model
+        private final SampleBuffer draw = new SampleBuffer(DatasetSweep.this.maxTxNum, 0);
+        private final double[] receivedPower = new double[DatasetSweep.this.sss.length];
+        private final SampleBuffer[] samples = new SampleBuffer[DatasetSweep.this.configurations.size()];
+        private final DatasetStatistics[] statistics = new DatasetStatistics[this.samples.length];
+        private final GeneratorMetrics metrics = GeneratorMetrics.global();
+
+        private Worker(){
+            for (int dataset = 0; dataset < this.samples.length; dataset++) {
+                SweepConfiguration configuration = DatasetSweep.this.configurations.get(dataset);
+                this.samples[dataset] = new SampleBuffer(configuration.getMaxTxNum(),
+                        configuration.getSensorCount());
+                this.samples[dataset].setNoiseFloor(DatasetSweep.this.noiseFloor);
+                this.statistics[dataset] = new DatasetStatistics(configuration.getSensorCount(),
+                        configuration.getMaxTxNum());
+                int[] indices = DatasetSweep.this.sensorIndices[dataset];
+                for (int ssId = 0; ssId < indices.length; ssId++) {
+                    Element element = DatasetSweep.this.sss[indices[ssId]].getRx().getElement();
+                    this.samples[dataset].ssX[ssId] = element.getLocation().getCartesian().getX();
+                    this.samples[dataset].ssY[ssId] = element.getLocation().getCartesian().getY();
+                    this.samples[dataset].ssHeight[ssId] = element.getHeight();
+                }
+            }
+        }
+
+        @Override
+        public int generate(long firstIndex, int count, CsvSampleEncoder[] encoders){
+            long beginTime = System.nanoTime();
+            for (long sampleIndex = firstIndex; sampleIndex < firstIndex + count; sampleIndex++)
+                for (DrawGroup drawGroup : DatasetSweep.this.drawGroups)
+                    generate(drawGroup, sampleIndex, encoders);
+            this.metrics.countSamples(count, 0);
+            this.metrics.record(GeneratorMetrics.Stage.PATH_LOSS, System.nanoTime() - beginTime);
+            return count;
+        }
+
+        // same draws as a seeded app with a gain table
+        private void generate(DrawGroup drawGroup, long sampleIndex, CsvSampleEncoder[] encoders){
+            SampleRandom random = this.drawRandom.reset(DatasetSweep.this.runSeed, sampleIndex);
+            int minTxNum = drawGroup.configuration.getMinTxNum();
+            int txsNum = minTxNum + random.nextInt(drawGroup.configuration.getMaxTxNum() - minTxNum + 1);
+            this.cellSampler.draw(txsNum, random, this.draw.txX, this.draw.txY, this.draw.txCell);
+            for (int txId = 0; txId < txsNum; txId++)
+                this.draw.txPower[txId] = LocalizationDatasetGeneratorApp.txPower(txId, DatasetSweep.this.minTxPower,
+                        DatasetSweep.this.maxTxPower, random);
+            ReceivedPowerKernel kernel = ReceivedPowerKernel.forThread();
+            for (ModelGroup modelGroup : drawGroup.modelGroups) {
+                kernel.compute(modelGroup.gainTable, this.draw.txCell, this.draw.txPower, txsNum,
+                        DatasetSweep.this.noiseFloor, this.modelRandom.copyFrom(random), this.receivedPower);
+                for (int dataset : modelGroup.datasets) {
+                    SampleBuffer sample = this.samples[dataset];
+                    for (int txId = 0; txId < txsNum; txId++) {
+                        sample.txX[txId] = this.draw.txX[txId];
+                        sample.txY[txId] = this.draw.txY[txId];
+                        sample.txHeight[txId] = DatasetSweep.this.txHeight;
+                        sample.txPower[txId] = this.draw.txPower[txId];
+                        sample.txCell[txId] = this.draw.txCell[txId];
+                    }
+                    sample.setTxCount(txsNum);
+                    int[] indices = DatasetSweep.this.sensorIndices[dataset];
+                    for (int ssId = 0; ssId < indices.length; ssId++)
+                        sample.receivedPower[ssId] = this.receivedPower[indices[ssId]];
+                    encoders[dataset].encode(sample);
+                    this.statistics[dataset].record(sample);
+                }
+            }
+        }
+    }
+
+    // **************************** Setter & Getter ******************************
+    public List<SweepConfiguration> getConfigurations() { return configurations; }
+
+    /**@return sensors of all datasets; gain tables should be built for them*/
+    public SpectrumSensor[] getSensors() { return sss; }
+
+    /**@param dataset index of a dataset in configuration order
+     * @return statistics of the dataset's samples written by the last run*/
+    public DatasetStatistics getStatistics(int dataset){
+        List<DatasetStatistics> parts = new ArrayList<>();
+        for (Worker worker : this.workers)
+            parts.add(worker.statistics[dataset]);
+        return DatasetStatistics.merged(parts);
+    }
+
+    /**@return number of distinct TX draws per sample index*/
+    public int getDrawGroupCount() { return drawGroups.size(); }
+}
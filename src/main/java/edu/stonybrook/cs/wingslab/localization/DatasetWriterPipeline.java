@@ -0,0 +1,240 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPOutputStream;
+
+/**Single writer stage of the generation pipeline. Producers hand encoded chunks (tagged with their index) to a
+ * bounded queue and a dedicated thread streams them into the final file in index order, optionally through
+ * GZIP. At most window chunks can be in flight (reserved, being generated, queued or waiting for an earlier
+ * chunk); reserve() blocks beyond that, which keeps generation from outrunning the disk.
+ * With a GenerationCheckpoint, the writer thread periodically flushes the file to disk at a chunk boundary and saves
+ * the checkpoint; a GZIP member is finished there and a new one started, so the file can be cut at that offset.
+ * A pipeline created from a checkpoint with completed chunks cuts the file at its offset and expects the next
+ * chunk. Once a chunk is abandoned (its samples were not generated), no further checkpoints are saved.*/
+public class DatasetWriterPipeline implements Closeable {
+    public static final int DEFAULT_WINDOW = 256;
+    private static final int GZIP_BUFFER_SIZE = 1 << 16;
+    private static final Chunk END = new Chunk(-1, new byte[0], 0);    // poison pill
+
+    private final FileChannel channel;
+    private final OutputStream channelOutput;   // unbuffered stream over the channel
+    private final boolean gzip;
+    private OutputStream output;                // GZIP member over channelOutput if gzip; null between a
+    // checkpoint and the next write, which starts a new member
+    private final GenerationCheckpoint checkpoint;  // null if not checkpointed
+    private final int firstChunk;               // index of the first chunk expected by this pipeline
+    private boolean checkpointing;              // false once a chunk is abandoned or a write failed
+    private int checkpointedChunk;              // next chunk as of the last saved checkpoint
+    private final BlockingQueue<Chunk> queue;
+    private final Semaphore window;             // free slots of the in-flight window
+    private final int windowSize;
+    private final Thread writerThread;
+    private volatile IOException failure;       // first write failure; later chunks are dropped
+    private long writtenChunks;                 // only accessed by the writer thread until it is joined
+    private long writtenBytes;
+    private long writtenSamples;
+
+    /**DatasetWriterPipeline constructor; starts the writer thread
+     * @param path output file; overwritten if exists, unless resumed from the checkpoint
+     * @param gzip whether output is GZIP compressed
+     * @param window maximum number of chunks in flight
+     * @param checkpoint checkpoint of the run, saved periodically; null for none. If it has completed chunks, the
+     *                   file is cut at its offset and the first expected chunk is the next one.*/
+    public DatasetWriterPipeline(Path path, boolean gzip, int window, GenerationCheckpoint checkpoint)
+            throws IOException {
+        super();
+        if (window <= 0)
+            throw new IllegalArgumentException("Window should be positive.");
+        this.checkpoint = checkpoint;
+        this.checkpointing = checkpoint != null;
+        this.firstChunk = checkpoint != null ? (int) checkpoint.getCompletedChunks() : 0;
+        this.checkpointedChunk = this.firstChunk;
+        if (this.firstChunk > 0) {
+            this.channel = FileChannel.open(path, StandardOpenOption.WRITE);
+            if (this.channel.size() < checkpoint.getOutputBytes()) {
+                this.channel.close();
+                throw new IOException(String.format("%s is shorter than its checkpoint (%,d < %,d bytes)", path,
+                        Files.size(path), checkpoint.getOutputBytes()));
+            }
+            this.channel.truncate(checkpoint.getOutputBytes());     // dropping what was written after it
+            this.channel.position(checkpoint.getOutputBytes());
+            this.writtenSamples = checkpoint.getWrittenSamples();
+        }
+        else
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        this.gzip = gzip;
+        this.channelOutput = Channels.newOutputStream(this.channel);
+        this.output = gzip ? new GZIPOutputStream(this.channelOutput, GZIP_BUFFER_SIZE) : this.channelOutput;
+        this.windowSize = window;
+        this.window = new Semaphore(window);
+        this.queue = new ArrayBlockingQueue<>(window + 1);     // + 1 for END; puts never block
+        this.writerThread = new Thread(this::writeLoop, "dataset-writer");
+        this.writerThread.start();
+    }
+
+    /**DatasetWriterPipeline constructor without checkpoints; starts the writer thread
+     * @param path output file; overwritten if exists
+     * @param gzip whether output is GZIP compressed
+     * @param window maximum number of chunks in flight*/
+    public DatasetWriterPipeline(Path path, boolean gzip, int window) throws IOException {
+        this(path, gzip, window, null);
+    }
+
+    /**DatasetWriterPipeline constructor with the default window
+     * @param path output file; overwritten if exists
+     * @param gzip whether output is GZIP compressed*/
+    public DatasetWriterPipeline(Path path, boolean gzip) throws IOException {
+        this(path, gzip, DEFAULT_WINDOW);
+    }
+
+    /**Reserves a slot for the next chunk; blocks while the window is full. Chunks should be reserved in index
+     * order by the thread scheduling them (not by the producers), otherwise the earliest chunk could starve.*/
+    public void reserve() throws InterruptedException {
+        this.window.acquire();
+    }
+
+    /**Hands an encoded chunk to the writer. A slot should have been reserved for it.
+     * @param chunk index of the chunk; chunks are written in increasing order starting from 0 (or the checkpoint's
+     *              next chunk)
+     * @param bytes encoded samples of the chunk
+     * @param samples number of samples encoded in bytes*/
+    public void submit(int chunk, byte[] bytes, int samples){
+        if (!this.queue.offer(new Chunk(chunk, bytes, samples)))
+            throw new IllegalStateException("Chunk was submitted without reserving a slot.");
+    }
+
+    /**Hands an encoded chunk of unknown sample count to the writer. A slot should have been reserved for it.
+     * @param chunk index of the chunk
+     * @param bytes encoded samples of the chunk*/
+    public void submit(int chunk, byte[] bytes){
+        submit(chunk, bytes, 0);
+    }
+
+    /**Gives back the slot of a chunk that will not be generated; nothing is written for it and no checkpoint is
+     * saved past it.
+     * @param chunk index of the chunk*/
+    public void abandon(int chunk){
+        submit(chunk, null, 0);
+    }
+
+    private void writeLoop(){
+        Map<Integer, Chunk> waiting = new HashMap<>();      // chunks waiting for earlier ones
+        int nextChunk = this.firstChunk;
+        try {
+            while (true) {
+                Chunk chunk = this.queue.take();
+                if (chunk == END)
+                    break;
+                waiting.put(chunk.index, chunk);
+                Chunk ready;
+                while ((ready = waiting.remove(nextChunk)) != null) {
+                    if (ready.bytes == null)
+                        this.checkpointing = false;
+                    else if (this.failure == null) {
+                        try {
+                            long beginTime = System.nanoTime();
+                            if (this.output == null)
+                                this.output = new GZIPOutputStream(this.channelOutput, GZIP_BUFFER_SIZE);
+                            this.output.write(ready.bytes);
+                            GeneratorMetrics.global().record(GeneratorMetrics.Stage.IO, System.nanoTime() - beginTime);
+                            this.writtenBytes += ready.bytes.length;
+                            this.writtenSamples += ready.samples;
+                        } catch (IOException e) {
+                            this.failure = e;
+                        }
+                    }
+                    nextChunk++;
+                    this.writtenChunks++;
+                    this.window.release();
+                }
+                if (this.checkpointing && nextChunk > this.checkpointedChunk && this.checkpoint.isDue())
+                    saveCheckpoint(nextChunk);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // flushing the file to disk up to the end of the last written chunk and saving the checkpoint; the GZIP member
+    // is finished so the file is complete up to there
+    private void saveCheckpoint(int nextChunk){
+        if (this.failure != null) {
+            this.checkpointing = false;
+            return;
+        }
+        try {
+            if (this.gzip && this.output != null) {
+                ((GZIPOutputStream) this.output).finish();
+                this.output = null;
+            }
+            this.channel.force(false);
+            this.checkpoint.update(nextChunk, this.writtenSamples, this.channel.position());
+            this.checkpointedChunk = nextChunk;
+        } catch (IOException e) {
+            this.failure = e;
+            this.checkpointing = false;
+        }
+    }
+
+    /**@return first write failure, or null*/
+    public IOException getFailure() { return failure; }
+
+    /**Waits for all submitted chunks to be written and closes the file. Every reserved slot should have been
+     * submitted before.*/
+    @Override
+    public void close() throws IOException {
+        try {
+            this.queue.put(END);
+            this.writerThread.join();
+            if (this.checkpointing && this.firstChunk + this.writtenChunks > this.checkpointedChunk)
+                saveCheckpoint(this.firstChunk + (int) this.writtenChunks);
+        } catch (InterruptedException e) {
+            this.writerThread.interrupt();
+            Thread.currentThread().interrupt();
+        } finally {
+            if (this.output != null)
+                this.output.close();
+            else
+                this.channelOutput.close();
+        }
+        if (this.failure != null)
+            throw this.failure;
+    }
+
+    // **************************** Setter & Getter ******************************
+    /**@return number of chunks written; final once closed*/
+    public long getWrittenChunks() { return writtenChunks; }
+
+    /**@return number of uncompressed bytes written; final once closed*/
+    public long getWrittenBytes() { return writtenBytes; }
+
+    /**@return number of samples written, including those before the checkpoint resumed from; final once closed*/
+    public long getWrittenSamples() { return writtenSamples; }
+
+    public int getWindowSize() { return windowSize; }
+
+    private static class Chunk {
+        private final int index;
+        private final byte[] bytes;     // null if abandoned
+        private final int samples;
+
+        private Chunk(int index, byte[] bytes, int samples){
+            this.index = index;
+            this.bytes = bytes;
+            this.samples = samples;
+        }
+    }
+}
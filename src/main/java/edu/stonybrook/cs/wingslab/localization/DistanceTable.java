@@ -0,0 +1,74 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import edu.stonybrook.cs.wingslab.commons.*;
+
+/**Squared cell-to-sensor distances of a fixed sensor deployment, computed once and shared by the gain tables of
+ * log-distance kernels that differ only in alpha, reference loss or shadowing (e.g. the datasets of a sweep).
+ * Distances are in meter and clamped the way the kernels clamp them, so a gain table built from this one equals
+ * a table built from the kernel's path loss.*/
+public class DistanceTable {
+    private final FieldGrid grid;           // grid the table covers
+    private final int sensorCount;          // number of sensors
+    private final int cellSize;             // cell size in square
+    private final boolean heights;          // whether heights are included in the distance
+    private final double minDistance;       // shorter distances are clamped to this, in meter
+    private final double[] distancesSquared;    // row per cell, [cell * sensorCount + sensor]
+
+    /**DistanceTable constructor
+     * @param sss array of SpectrumSensor; their locations should not change during the run
+     * @param grid grid of the field
+     * @param cellSize cell size in square
+     * @param txHeight height of TXs
+     * @param heights whether heights are included in the distance
+     * @param minDistance minimum distance in meter*/
+    public DistanceTable(SpectrumSensor[] sss, FieldGrid grid, int cellSize, double txHeight, boolean heights,
+                         double minDistance){
+        super();
+        this.grid = grid;
+        this.sensorCount = sss.length;
+        this.cellSize = cellSize;
+        this.heights = heights;
+        this.minDistance = minDistance;
+        this.distancesSquared = new double[grid.cellCount() * this.sensorCount];
+        double[] ssX = new double[this.sensorCount];
+        double[] ssY = new double[this.sensorCount];
+        double[] ssDz = new double[this.sensorCount];
+        for (int ssId = 0; ssId < this.sensorCount; ssId++){
+            Element element = sss[ssId].getRx().getElement();
+            ssX[ssId] = element.getLocation().getCartesian().getX();
+            ssY[ssId] = element.getLocation().getCartesian().getY();
+            ssDz[ssId] = heights ? txHeight - element.getHeight() : 0.0;
+        }
+        double minSquared = minDistance * minDistance;
+        for (int cell = 0; cell < grid.cellCount(); cell++){
+            int offset = cell * this.sensorCount;
+            for (int ssId = 0; ssId < this.sensorCount; ssId++){
+                double dx = (grid.x(cell) - ssX[ssId]) * cellSize;
+                double dy = (grid.y(cell) - ssY[ssId]) * cellSize;
+                this.distancesSquared[offset + ssId] = Math.max(dx * dx + dy * dy + ssDz[ssId] * ssDz[ssId],
+                        minSquared);
+            }
+        }
+    }
+
+    /**@param kernel a log-distance kernel
+     * @return whether the kernel measures distances as this table does*/
+    public boolean matches(LogDistanceKernel kernel){
+        return kernel.getCellSize() == this.cellSize && kernel.isHeights() == this.heights &&
+                kernel.getMinDistance() == this.minDistance;
+    }
+
+    // raw table; callers must not modify it
+    double[] distancesSquared(){ return this.distancesSquared; }
+
+    // **************************** Setter & Getter ******************************
+    public FieldGrid getGrid() { return grid; }
+
+    public int getSensorCount() { return sensorCount; }
+
+    public int getCellSize() { return cellSize; }
+
+    public boolean isHeights() { return heights; }
+
+    public double getMinDistance() { return minDistance; }
+}
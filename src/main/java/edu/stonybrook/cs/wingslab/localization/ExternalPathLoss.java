@@ -0,0 +1,71 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**PathLossFunction that runs an external executable per link and reads the path loss(dB) from the first line of
+ * its standard output. The command gets the link as arguments after its own: txX txY txHeight rxX rxY rxHeight
+ * (cells and meters); its standard error is discarded. Meant for stand-ins of SPLAT!, e.g. a stub script when
+ * testing SplatExecutionService.*/
+public class ExternalPathLoss implements PathLossFunction {
+    private final List<String> command;
+    private final long timeoutSeconds;
+
+    /**ExternalPathLoss constructor
+     * @param timeoutSeconds maximum time of an execution
+     * @param command executable and its own arguments*/
+    public ExternalPathLoss(long timeoutSeconds, String... command){
+        super();
+        if (command.length == 0)
+            throw new IllegalArgumentException("Command is empty.");
+        this.command = List.of(command);
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    @Override
+    public double pathLoss(double txX, double txY, double txHeight, double rxX, double rxY, double rxHeight){
+        List<String> arguments = new ArrayList<>(this.command);
+        for (double argument : new double[]{txX, txY, txHeight, rxX, rxY, rxHeight})
+            arguments.add(Double.toString(argument));
+        Path output = null;
+        try {
+            // stdout goes to a file and stderr is discarded, so the process never blocks on a full pipe and the
+            // timeout covers the whole execution, even if it hangs before writing anything
+            output = Files.createTempFile("path-loss", ".out");
+            Process process = new ProcessBuilder(arguments).redirectOutput(output.toFile())
+                    .redirectError(ProcessBuilder.Redirect.DISCARD).start();
+            if (!process.waitFor(this.timeoutSeconds, TimeUnit.SECONDS)){
+                process.destroyForcibly();
+                throw new IllegalStateException(this.command.get(0) + " timed out.");
+            }
+            String line;
+            try (BufferedReader reader = Files.newBufferedReader(output, StandardCharsets.UTF_8)) {
+                line = reader.readLine();
+            }
+            if (process.exitValue() != 0 || line == null)
+                throw new IllegalStateException(String.format("%s failed (exit code %d).", this.command.get(0),
+                        process.exitValue()));
+            return Double.parseDouble(line.trim());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(this.command.get(0) + " was interrupted.", e);
+        } finally {
+            if (output != null) {
+                try {
+                    Files.deleteIfExists(output);
+                } catch (IOException e) {
+                    output.toFile().deleteOnExit();
+                }
+            }
+        }
+    }
+}
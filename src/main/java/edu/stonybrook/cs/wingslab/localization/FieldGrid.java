@@ -0,0 +1,69 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import edu.stonybrook.cs.wingslab.commons.Point;
+
+/**Grid of square cells covering the field. Cells are indexed row-major, i.e. index = y * width + x, where
+ * (x, y) are the cell coordinates Shape.points() returns.*/
+public class FieldGrid {
+    private final int width;        // number of cells along x
+    private final int length;       // number of cells along y
+
+    /**FieldGrid constructor
+     * @param width number of cells along x
+     * @param length number of cells along y*/
+    public FieldGrid(int width, int length){
+        super();
+        if (width <= 0 || length <= 0)
+            throw new IllegalArgumentException("Grid dimensions should be positive.");
+        this.width = width;
+        this.length = length;
+    }
+
+    /**FieldGrid constructor for a square field
+     * @param size number of cells along each side*/
+    public FieldGrid(int size){
+        this(size, size);
+    }
+
+    /**@return number of cells of the grid*/
+    public int cellCount(){
+        return this.width * this.length;
+    }
+
+    /**@param x cell x
+     * @param y cell y
+     * @return cell index*/
+    public int index(int x, int y){
+        if (x < 0 || x >= this.width || y < 0 || y >= this.length)
+            throw new IllegalArgumentException(String.format("Cell (%d, %d) is out of the grid.", x, y));
+        return y * this.width + x;
+    }
+
+    /**@param point a cell location (not multiplied by cell size)
+     * @return cell index*/
+    public int index(Point point){
+        return index((int) point.getCartesian().getX(), (int) point.getCartesian().getY());
+    }
+
+    /**@param index cell index
+     * @return x of the cell*/
+    public int x(int index){ return index % this.width; }
+
+    /**@param index cell index
+     * @return y of the cell*/
+    public int y(int index){ return index / this.width; }
+
+    /**@param index cell index
+     * @return location of the cell as a Point*/
+    public Point point(int index){ return new Point(x(index), y(index)); }
+
+    // **************************** Setter & Getter ******************************
+    public int getWidth() { return width; }
+
+    public int getLength() { return length; }
+
+    @Override
+    public String toString(){
+        return String.format("%dx%d", this.width, this.length);
+    }
+}
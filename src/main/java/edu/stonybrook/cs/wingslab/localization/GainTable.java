@@ -0,0 +1,132 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import edu.stonybrook.cs.wingslab.commons.*;
+
+/**Precomputed cell-to-sensor gain table for a fixed sensor deployment.
+ * Mean path loss from every cell of the grid to every sensor is computed once and kept as a linear-domain
+ * gain (10^(-loss/10)) so a sample reduces to lookups and additions. Shadowing, when std is positive, is drawn
+ * per sample and link on top of the cached mean; independently per link, or correlated over the sensors' locations
+ * if the table is correlated() (see CorrelatedShadowing).*/
+public class GainTable {
+    private final FieldGrid grid;           // grid the table covers
+    private final int sensorCount;          // number of sensors
+    private final double[] gains;           // linear gains; row per cell, [cell * sensorCount + sensor]
+    private final double std;               // std(dB) of shadowing added per link; 0 means no shadowing
+    private final CorrelatedShadowing shadowing;    // correlation of a TX's links; null if they are independent
+
+    /**GainTable constructor
+     * @param meanModel propagation model giving the mean path loss (e.g. LogDistancePM without noise)
+     * @param sss array of SpectrumSensor; their locations should not change during the run
+     * @param grid grid of the field
+     * @param cellSize cell size in square
+     * @param txHeight height of TXs
+     * @param std std(dB) of per-link shadowing; 0 for no shadowing*/
+    public GainTable(PropagationModel meanModel, SpectrumSensor[] sss, FieldGrid grid, int cellSize,
+                     double txHeight, double std){
+        super();
+        if (std < 0)
+            throw new IllegalArgumentException("Shadowing std should not be negative.");
+        this.grid = grid;
+        this.sensorCount = sss.length;
+        this.std = std;
+        this.shadowing = null;
+        this.gains = new double[grid.cellCount() * this.sensorCount];
+        Element[] rxElements = new Element[this.sensorCount];
+        for (int ssId = 0; ssId < this.sensorCount; ssId++)
+            rxElements[ssId] = sss[ssId].getRx().getElement().mul(cellSize);
+        for (int cell = 0; cell < grid.cellCount(); cell++){
+            Element txElement = new Element(grid.point(cell), txHeight).mul(cellSize);
+            int offset = cell * this.sensorCount;
+            for (int ssId = 0; ssId < this.sensorCount; ssId++)
+                this.gains[offset + ssId] = WirelessTools.getDecimal(-meanModel.pathLoss(txElement,
+                        rxElements[ssId]));
+        }
+    }
+
+    /**GainTable constructor using a primitive path loss function (e.g. a CachedPathLoss shared by a run)
+     * @param pathLoss path loss function giving the mean path loss
+     * @param sss array of SpectrumSensor; their locations should not change during the run
+     * @param grid grid of the field
+     * @param txHeight height of TXs
+     * @param std std(dB) of per-link shadowing; 0 for no shadowing*/
+    public GainTable(PathLossFunction pathLoss, SpectrumSensor[] sss, FieldGrid grid, double txHeight, double std){
+        super();
+        if (std < 0)
+            throw new IllegalArgumentException("Shadowing std should not be negative.");
+        this.grid = grid;
+        this.sensorCount = sss.length;
+        this.std = std;
+        this.shadowing = null;
+        this.gains = new double[grid.cellCount() * this.sensorCount];
+        for (int cell = 0; cell < grid.cellCount(); cell++){
+            int offset = cell * this.sensorCount;
+            for (int ssId = 0; ssId < this.sensorCount; ssId++){
+                Element rxElement = sss[ssId].getRx().getElement();
+                this.gains[offset + ssId] = WirelessTools.getDecimal(-pathLoss.pathLoss(grid.x(cell), grid.y(cell),
+                        txHeight, rxElement.getLocation().getCartesian().getX(),
+                        rxElement.getLocation().getCartesian().getY(), rxElement.getHeight()));
+            }
+        }
+    }
+
+    /**GainTable constructor for a log-distance kernel using precomputed distances; equals the table built from the
+     * kernel's path loss, but shares the geometry with other kernels' tables
+     * @param kernel log-distance kernel giving the mean path loss
+     * @param distances distances from every cell to the sensors, measured as the kernel does
+     * @param std std(dB) of per-link shadowing; 0 for no shadowing*/
+    public GainTable(LogDistanceKernel kernel, DistanceTable distances, double std){
+        super();
+        if (std < 0)
+            throw new IllegalArgumentException("Shadowing std should not be negative.");
+        if (!distances.matches(kernel))
+            throw new IllegalArgumentException("Distances are not measured as the kernel measures them.");
+        this.grid = distances.getGrid();
+        this.sensorCount = distances.getSensorCount();
+        this.std = std;
+        this.shadowing = null;
+        double[] distancesSquared = distances.distancesSquared();
+        this.gains = new double[distancesSquared.length];
+        for (int i = 0; i < distancesSquared.length; i++)    // same arithmetic as LogDistanceKernel.pathLoss()
+            this.gains[i] = WirelessTools.getDecimal(-(kernel.getReferenceLoss() + 5 * kernel.getAlpha() *
+                    Math.log10(distancesSquared[i])));
+    }
+
+    // a table sharing another's gains
+    private GainTable(GainTable table, CorrelatedShadowing shadowing){
+        super();
+        this.grid = table.grid;
+        this.sensorCount = table.sensorCount;
+        this.gains = table.gains;
+        this.std = table.std;
+        this.shadowing = shadowing;
+    }
+
+    /**@param shadowing correlation of the shadowing of the table's sensors
+     * @return a table with the same gains (shared, not copied) whose shadowing is correlated*/
+    public GainTable correlated(CorrelatedShadowing shadowing){
+        if (shadowing.getSensorCount() != this.sensorCount)
+            throw new IllegalArgumentException("Shadowing correlation was built for a different set of sensors.");
+        return new GainTable(this, shadowing);
+    }
+
+    /**@param cell cell index
+     * @return offset of the cell's row in gains()*/
+    int rowOffset(int cell){ return cell * this.sensorCount; }
+
+    /**@param cell cell index
+     * @param ssId sensor index
+     * @return linear-domain mean gain from the cell to the sensor*/
+    public double gain(int cell, int ssId){ return this.gains[rowOffset(cell) + ssId]; }
+
+    // raw table; callers must not modify it
+    double[] gains(){ return this.gains; }
+
+    // **************************** Setter & Getter ******************************
+    public FieldGrid getGrid() { return grid; }
+
+    public int getSensorCount() { return sensorCount; }
+
+    public double getStd() { return std; }
+
+    public CorrelatedShadowing getShadowing() { return shadowing; }
+}
@@ -0,0 +1,180 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**Progress of a seeded, chunked run: which chunks are completely written, how many samples they hold and how many
+ * bytes of the output file they take. It is saved atomically (temporary file + rename) by the writer thread after
+ * the output is flushed, so the recorded offset is always a chunk boundary the file really reaches. A run resumed
+ * from it truncates the output to that offset and continues with the next chunk; since a seeded sample only
+ * depends on its index, the result is the same file an uninterrupted run writes. Hooks (e.g. forcing the path loss
+ * cache store) run before every save, so the saved progress never gets ahead of the state it depends on.*/
+public class GenerationCheckpoint {
+    private final Path file;                // checkpoint file
+    private final String output;            // output file name, in the same directory
+    private final long runSeed;
+    private final DatasetShard shard;
+    private final long totalSamples;        // number of samples of the whole run
+    private final long firstSample;         // global index of the shard's first sample
+    private final int sampleCount;          // number of samples of the shard
+    private final int chunkSize;
+    private final boolean gzip;
+    private final boolean vectorizedKernel; // whether samples come from the vectorized log-distance kernel
+    private final long intervalMillis;      // minimum time between two saves
+    private final List<Runnable> hooks = new ArrayList<>();
+    private long completedChunks;
+    private long writtenSamples;
+    private long outputBytes;
+    private long lastSaveMillis;
+
+    /**GenerationCheckpoint constructor for a new run
+     * @param file checkpoint file
+     * @param output output file name, in the same directory as the checkpoint
+     * @param runSeed seed of the run
+     * @param shard shard of the run generated by this process
+     * @param totalSamples number of samples of the whole run
+     * @param chunkSize number of samples of a chunk
+     * @param gzip whether output is GZIP compressed
+     * @param vectorizedKernel whether samples are computed by the vectorized log-distance kernel
+     * @param intervalMillis minimum time between two saves*/
+    public GenerationCheckpoint(Path file, String output, long runSeed, DatasetShard shard, long totalSamples,
+                                int chunkSize, boolean gzip, boolean vectorizedKernel, long intervalMillis){
+        super();
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("Chunk size should be positive.");
+        this.file = file;
+        this.output = output;
+        this.runSeed = runSeed;
+        this.shard = shard;
+        this.totalSamples = totalSamples;
+        this.firstSample = shard.firstSample(totalSamples);
+        this.sampleCount = (int) shard.sampleCount(totalSamples);
+        this.chunkSize = chunkSize;
+        this.gzip = gzip;
+        this.vectorizedKernel = vectorizedKernel;
+        this.intervalMillis = intervalMillis;
+        this.lastSaveMillis = System.currentTimeMillis();
+    }
+
+    /**Loads a saved checkpoint to resume from.
+     * @param file checkpoint file
+     * @param intervalMillis minimum time between two saves of the resumed run
+     * @return the checkpoint*/
+    public static GenerationCheckpoint load(Path file, long intervalMillis) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        try {
+            GenerationCheckpoint checkpoint = new GenerationCheckpoint(file, required(properties, "output"),
+                    Long.parseLong(required(properties, "run_seed")),
+                    DatasetShard.parse(required(properties, "shard")),
+                    Long.parseLong(required(properties, "total_samples")),
+                    Integer.parseInt(required(properties, "chunk_size")),
+                    Boolean.parseBoolean(required(properties, "gzip")),
+                    Boolean.parseBoolean(properties.getProperty("vectorized_kernel", "false")), intervalMillis);
+            checkpoint.completedChunks = Long.parseLong(required(properties, "completed_chunks"));
+            checkpoint.writtenSamples = Long.parseLong(required(properties, "written_samples"));
+            checkpoint.outputBytes = Long.parseLong(required(properties, "output_bytes"));
+            return checkpoint;
+        } catch (IllegalArgumentException e) {        // NumberFormatException too
+            throw new IOException("Corrupted checkpoint " + file, e);
+        }
+    }
+
+    private static String required(Properties properties, String key) throws IOException {
+        String value = properties.getProperty(key);
+        if (value == null)
+            throw new IOException("Checkpoint has no " + key);
+        return value;
+    }
+
+    /**@param hook run before every save, on the writer thread*/
+    public void addHook(Runnable hook){
+        this.hooks.add(hook);
+    }
+
+    /**@return whether the interval has passed since the last save; lets the writer flush only when needed*/
+    boolean isDue(){
+        return System.currentTimeMillis() - this.lastSaveMillis >= this.intervalMillis;
+    }
+
+    /**Records progress and saves it. The output should have been flushed up to outputBytes.
+     * @param completedChunks number of chunks of the shard written so far
+     * @param writtenSamples number of samples written so far
+     * @param outputBytes output file size up to the last written chunk*/
+    void update(long completedChunks, long writtenSamples, long outputBytes) throws IOException {
+        this.completedChunks = completedChunks;
+        this.writtenSamples = writtenSamples;
+        this.outputBytes = outputBytes;
+        save();
+    }
+
+    /**Runs the hooks and saves the checkpoint atomically.*/
+    public void save() throws IOException {
+        for (Runnable hook : this.hooks)
+            hook.run();
+        Properties properties = new Properties();
+        properties.setProperty("output", this.output);
+        properties.setProperty("run_seed", Long.toString(this.runSeed));
+        properties.setProperty("shard", this.shard.toString());
+        properties.setProperty("total_samples", Long.toString(this.totalSamples));
+        properties.setProperty("chunk_size", Integer.toString(this.chunkSize));
+        properties.setProperty("gzip", Boolean.toString(this.gzip));
+        properties.setProperty("vectorized_kernel", Boolean.toString(this.vectorizedKernel));
+        properties.setProperty("completed_chunks", Long.toString(this.completedChunks));
+        properties.setProperty("written_samples", Long.toString(this.writtenSamples));
+        properties.setProperty("output_bytes", Long.toString(this.outputBytes));
+        Path temporary = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            properties.store(writer, "localization dataset generation checkpoint");
+        }
+        Files.move(temporary, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.lastSaveMillis = System.currentTimeMillis();
+    }
+
+    /**@return whether all chunks of the run are written*/
+    public boolean isComplete(){
+        return this.completedChunks * this.chunkSize >= this.sampleCount;
+    }
+
+    /**@return global index of the first sample that is not written yet*/
+    public long nextSample(){
+        return this.firstSample + Math.min(this.completedChunks * this.chunkSize, this.sampleCount);
+    }
+
+    // **************************** Setter & Getter ******************************
+    public Path getFile() { return file; }
+
+    public String getOutput() { return output; }
+
+    public long getRunSeed() { return runSeed; }
+
+    public DatasetShard getShard() { return shard; }
+
+    public long getTotalSamples() { return totalSamples; }
+
+    public long getFirstSample() { return firstSample; }
+
+    public int getSampleCount() { return sampleCount; }
+
+    public int getChunkSize() { return chunkSize; }
+
+    public boolean isGzip() { return gzip; }
+
+    public boolean isVectorizedKernel() { return vectorizedKernel; }
+
+    public long getCompletedChunks() { return completedChunks; }
+
+    public long getWrittenSamples() { return writtenSamples; }
+
+    public long getOutputBytes() { return outputBytes; }
+}
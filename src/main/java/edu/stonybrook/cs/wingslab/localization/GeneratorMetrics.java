@@ -0,0 +1,258 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**Low-overhead counters and latency histograms of a generation run. All updates go to LongAdders, so workers
+ * never contend on a lock; histograms have power-of-two nanosecond buckets. One instance is shared by the
+ * whole run (see global()); it can be exposed through JMX and summarized in a JSON run report.*/
+public class GeneratorMetrics implements GeneratorMetricsMXBean {
+    public static final String OBJECT_NAME = "edu.stonybrook.cs.wingslab.localization:type=GeneratorMetrics";
+    private static final GeneratorMetrics GLOBAL = new GeneratorMetrics();
+
+    /**Measured stages of generation*/
+    public enum Stage {
+        /**drawing TXs of a sample*/
+        TX_GENERATION,
+        /**drawing sensors of a sample (changing sensors only)*/
+        SENSOR_GENERATION,
+        /**computing sensors' received power, i.e. path loss and summation*/
+        PATH_LOSS,
+        /**one execution of the external path loss model (SPLAT!)*/
+        SPLAT_EXECUTION,
+        /**encoding a sample*/
+        ENCODING,
+        /**writing encoded bytes*/
+        IO
+    }
+
+    private final EnumMap<Stage, LatencyHistogram> stages = new EnumMap<>(Stage.class);
+    private final LongAdder samples = new LongAdder();
+    private final LongAdder failedSamples = new LongAdder();
+    private volatile long beginNanos = System.nanoTime();
+    private volatile PathLossCache pathLossCache;      // cache whose hit rate is reported; may be null
+
+    /**GeneratorMetrics constructor*/
+    public GeneratorMetrics(){
+        super();
+        for (Stage stage : Stage.values())
+            this.stages.put(stage, new LatencyHistogram());
+    }
+
+    /**@return metrics of the run*/
+    public static GeneratorMetrics global(){
+        return GLOBAL;
+    }
+
+    /**@param stage stage
+     * @param nanos duration in nanoseconds*/
+    public void record(Stage stage, long nanos){
+        this.stages.get(stage).record(nanos);
+    }
+
+    /**@param generated number of generated samples
+     * @param failed number of failed samples*/
+    public void countSamples(long generated, long failed){
+        this.samples.add(generated);
+        this.failedSamples.add(failed);
+    }
+
+    /**@param stage stage
+     * @return histogram of the stage*/
+    public LatencyHistogram histogram(Stage stage){
+        return this.stages.get(stage);
+    }
+
+    /**Registers the metrics with the platform MBean server; does nothing if already registered.*/
+    public void registerMBean(){
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // already registered
+        } catch (JMException e) {
+            throw new IllegalStateException("Registering " + OBJECT_NAME + " failed.", e);
+        }
+    }
+
+    /**Writes a machine-readable (JSON) summary of the run.
+     * @param path report file
+     * @param extra additional top-level numbers (e.g. configuration); may be empty*/
+    public void writeReport(Path path, Map<String, ? extends Number> extra) throws IOException {
+        StringBuilder report = new StringBuilder("{\n");
+        for (Map.Entry<String, ? extends Number> entry : extra.entrySet())
+            report.append(String.format(Locale.ROOT, "  \"%s\": %s,\n", entry.getKey(), entry.getValue()));
+        report.append(String.format(Locale.ROOT, "  \"samples\": %d,\n  \"failed_samples\": %d,\n" +
+                        "  \"elapsed_seconds\": %.3f,\n  \"samples_per_second\": %.3f,\n",
+                getSamples(), getFailedSamples(), (System.nanoTime() - this.beginNanos) / 1e9,
+                getSamplesPerSecond()));
+        report.append(String.format(Locale.ROOT, "  \"cache\": {\"hits\": %d, \"misses\": %d, \"hit_rate\": %s},\n",
+                getCacheHits(), getCacheMisses(), jsonNumber(getCacheHitRate())));
+        report.append("  \"stages\": {\n");
+        Stage[] stageValues = Stage.values();
+        for (int i = 0; i < stageValues.length; i++) {
+            LatencyHistogram histogram = this.stages.get(stageValues[i]);
+            report.append(String.format(Locale.ROOT, "    \"%s\": {\"count\": %d, \"total_ms\": %.3f, " +
+                            "\"mean_us\": %s, \"p50_us\": %s, \"p95_us\": %s, \"p99_us\": %s, \"max_us\": %s}%s\n",
+                    stageValues[i].name().toLowerCase(), histogram.count(), histogram.totalNanos() / 1e6,
+                    jsonNumber(histogram.mean() / 1e3), jsonNumber(histogram.percentile(0.50) / 1e3),
+                    jsonNumber(histogram.percentile(0.95) / 1e3), jsonNumber(histogram.percentile(0.99) / 1e3),
+                    jsonNumber(histogram.max() / 1e3), i < stageValues.length - 1 ? "," : ""));
+        }
+        report.append("  }\n}\n");
+        Files.writeString(path, report, StandardCharsets.UTF_8);
+    }
+
+    private static String jsonNumber(double value){
+        return Double.isFinite(value) ? String.format(Locale.ROOT, "%.3f", value) : "null";
+    }
+
+    /**@return one line per stage with count and mean latency*/
+    public String summary(){
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format("Samples: %,d (%,d failed), %.2f samples/s", getSamples(), getFailedSamples(),
+                getSamplesPerSecond()));
+        if (getCacheHits() + getCacheMisses() > 0)
+            summary.append(String.format("\nPath loss cache: %,d hits, %,d misses (%.2f%% hit rate)",
+                    getCacheHits(), getCacheMisses(), 100 * getCacheHitRate()));
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = this.stages.get(stage);
+            if (histogram.count() > 0)
+                summary.append(String.format("\n%-17s %,12d times, %10.2fus mean, %10.2fus p99, %,10.0fms total",
+                        stage.name(), histogram.count(), histogram.mean() / 1e3, histogram.percentile(0.99) / 1e3,
+                        histogram.totalNanos() / 1e6));
+        }
+        return summary.toString();
+    }
+
+    // **************************** MXBean ******************************
+    @Override
+    public long getSamples() { return samples.sum(); }
+
+    @Override
+    public long getFailedSamples() { return failedSamples.sum(); }
+
+    @Override
+    public double getSamplesPerSecond() {
+        return getSamples() / Math.max(1e-9, (System.nanoTime() - this.beginNanos) / 1e9);
+    }
+
+    @Override
+    public Map<String, Long> getStageCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        this.stages.forEach((stage, histogram) -> counts.put(stage.name(), histogram.count()));
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getStageMeanMicros() {
+        Map<String, Double> means = new LinkedHashMap<>();
+        this.stages.forEach((stage, histogram) -> means.put(stage.name(), histogram.mean() / 1e3));
+        return means;
+    }
+
+    @Override
+    public Map<String, Double> getStageP99Micros() {
+        Map<String, Double> percentiles = new LinkedHashMap<>();
+        this.stages.forEach((stage, histogram) -> percentiles.put(stage.name(), histogram.percentile(0.99) / 1e3));
+        return percentiles;
+    }
+
+    @Override
+    public double getCacheHitRate() {
+        long hits = getCacheHits();
+        long lookups = hits + getCacheMisses();
+        return lookups == 0 ? Double.NaN : (double) hits / lookups;
+    }
+
+    @Override
+    public long getCacheHits() { return pathLossCache == null ? 0 : pathLossCache.getHits(); }
+
+    @Override
+    public long getCacheMisses() { return pathLossCache == null ? 0 : pathLossCache.getMisses(); }
+
+    @Override
+    public void reset() {
+        this.stages.values().forEach(LatencyHistogram::reset);
+        this.samples.reset();
+        this.failedSamples.reset();
+        this.beginNanos = System.nanoTime();
+    }
+
+    // **************************** Setter & Getter ******************************
+    public PathLossCache getPathLossCache() { return pathLossCache; }
+
+    public void setPathLossCache(PathLossCache pathLossCache) { this.pathLossCache = pathLossCache; }
+
+    /**Striped latency histogram with power-of-two nanosecond buckets; bucket i holds [2^i, 2^(i+1)).*/
+    public static class LatencyHistogram {
+        private static final int BUCKETS = 64;
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+
+        private LatencyHistogram(){
+            for (int i = 0; i < BUCKETS; i++)
+                this.buckets[i] = new LongAdder();
+        }
+
+        /**@param nanos duration in nanoseconds; negative values count as 0*/
+        public void record(long nanos){
+            nanos = Math.max(0L, nanos);
+            this.buckets[63 - Long.numberOfLeadingZeros(nanos | 1L)].increment();
+            this.count.increment();
+            this.totalNanos.add(nanos);
+            this.maxNanos.accumulate(nanos);
+        }
+
+        public long count(){ return this.count.sum(); }
+
+        public long totalNanos(){ return this.totalNanos.sum(); }
+
+        public double max(){ return this.count() == 0 ? Double.NaN : this.maxNanos.get(); }
+
+        /**@return mean in nanoseconds; NaN if empty*/
+        public double mean(){
+            long count = count();
+            return count == 0 ? Double.NaN : (double) totalNanos() / count;
+        }
+
+        /**@param quantile in [0, 1]
+         * @return upper bound(ns) of the bucket holding the quantile; NaN if empty*/
+        public double percentile(double quantile){
+            long count = count();
+            if (count == 0)
+                return Double.NaN;
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += this.buckets[i].sum();
+                if (seen >= rank)
+                    return Math.min(Math.pow(2, i + 1), this.maxNanos.get());
+            }
+            return this.maxNanos.get();
+        }
+
+        private void reset(){
+            for (LongAdder bucket : this.buckets)
+                bucket.reset();
+            this.count.reset();
+            this.totalNanos.reset();
+            this.maxNanos.reset();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import java.util.Map;
+
+/**JMX view of GeneratorMetrics*/
+public interface GeneratorMetricsMXBean {
+    /**@return number of samples generated*/
+    long getSamples();
+
+    /**@return number of samples that failed and were skipped*/
+    long getFailedSamples();
+
+    /**@return generated samples per second since the metrics were reset*/
+    double getSamplesPerSecond();
+
+    /**@return number of measurements per stage*/
+    Map<String, Long> getStageCounts();
+
+    /**@return mean latency(microseconds) per stage*/
+    Map<String, Double> getStageMeanMicros();
+
+    /**@return 99th percentile latency(microseconds) per stage*/
+    Map<String, Double> getStageP99Micros();
+
+    /**@return path loss cache hit rate in [0, 1]; NaN if there was no lookup*/
+    double getCacheHitRate();
+
+    /**@return number of path loss cache lookups served from the cache*/
+    long getCacheHits();
+
+    /**@return number of path loss cache lookups that missed*/
+    long getCacheMisses();
+
+    /**resets all counters and histograms*/
+    void reset();
+}
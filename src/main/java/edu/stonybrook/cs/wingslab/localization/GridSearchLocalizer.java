@@ -0,0 +1,346 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import edu.stonybrook.cs.wingslab.commons.*;
+
+import java.util.Arrays;
+
+/**Baseline maximum-likelihood localizer over the cells of a gain table, for sanity-checking generated datasets.
+ * Received powers are explained one TX at a time (successive cancellation): the TX is the cell and power that
+ * minimize the squared dB error over the sensors that still hear something above the noise floor and the part
+ * already explained (log-normal shadowing makes this the single-TX maximum likelihood), its contribution is then
+ * subtracted in the linear domain and the search repeats until no sensor hears a residual or maxTxNum TXs are
+ * found. A search is anchored at the sensor with the strongest residual: only sensors and cells within
+ * searchRadius cells of it are considered, so sensors dominated by other TXs do not pull the estimate between
+ * TXs, and most of the field is never evaluated. For a cell the best power has a closed form (mean of reading
+ * minus gain, clipped to the power range), so a cell costs a pass over the strongest nearby sensors; cells are
+ * searched on a coarse grid first and only the neighborhoods of the best coarse cells are searched at full
+ * resolution. After every new TX the found TXs are searched again with all others subtracted. Gains are shared
+ * read-only, search buffers are per thread, so one localizer can be used by all threads of an evaluation.*/
+public class GridSearchLocalizer {
+    private static final int DEFAULT_SEARCH_SENSORS = 32;
+    private static final int DEFAULT_COARSE_STRIDE = 2;
+    private static final int DEFAULT_REFINED_CELLS = 8;
+
+    private final GainTable gainTable;      // mean linear gains; used to subtract found TXs
+    private final float[] gainsDb;          // the same gains in dB, [cell * sensorCount + sensor]
+    private final FieldGrid grid;
+    private final int sensorCount;
+    private final double[] sensorX;         // sensor locations in cells
+    private final double[] sensorY;
+    private final double noiseFloor;        // noise floor(dB) of the dataset
+    private final double minTxPower;        // power range(dB) of TXs; estimates are clipped to it
+    private final double maxTxPower;
+    private final int maxTxNum;             // maximum number of TXs of a sample
+    private final ThreadLocal<Search> searches;
+    private int searchSensors = DEFAULT_SEARCH_SENSORS;
+    // strongest hearing sensors a cell is evaluated on
+    private int coarseStride = DEFAULT_COARSE_STRIDE;
+    // cells of every coarseStride-th row and column are searched first; 1 searches every cell
+    private int refinedCells = DEFAULT_REFINED_CELLS;
+    // best coarse cells whose neighborhoods are searched at full resolution
+    private double detectionMargin = 1.0;
+    // dB above the noise floor a reading should be to be heard
+    private double shadowingTolerance = 3.0;
+    // dB; residuals within this much of the power already explained at a sensor are left to shadowing
+    private int minSensors = 3;
+    // a TX is only searched if at least this many sensors hear a residual
+    private int refinementRounds = 2;
+    // rounds of searching every found TX again with all others subtracted
+    private int searchRadius;
+    // cells; a TX is searched this close to its strongest sensor, by the sensors this close to it
+
+    /**GridSearchLocalizer constructor
+     * @param gainTable cell-to-sensor gain table of the dataset's sensors, built from the same propagation model
+     *                  and shape as the dataset (its mean gains are used; shadowing std is ignored)
+     * @param sss array of SpectrumSensor the gain table was built for
+     * @param noiseFloor noise floor(dB) of the dataset
+     * @param minTxPower minimum power(dB) of a TX
+     * @param maxTxPower maximum power(dB) of a TX
+     * @param maxTxNum maximum number of TXs of a sample*/
+    public GridSearchLocalizer(GainTable gainTable, SpectrumSensor[] sss, double noiseFloor, double minTxPower,
+                               double maxTxPower, int maxTxNum){
+        super();
+        if (minTxPower > maxTxPower || maxTxNum < 0)
+            throw new IllegalArgumentException("Invalid TX power range or number of TXs.");
+        if (sss.length != gainTable.getSensorCount())
+            throw new IllegalArgumentException("Gain table was built for a different set of sensors.");
+        this.gainTable = gainTable;
+        this.grid = gainTable.getGrid();
+        this.sensorCount = gainTable.getSensorCount();
+        this.noiseFloor = noiseFloor;
+        this.minTxPower = minTxPower;
+        this.maxTxPower = maxTxPower;
+        this.maxTxNum = maxTxNum;
+        this.sensorX = new double[this.sensorCount];
+        this.sensorY = new double[this.sensorCount];
+        for (int ssId = 0; ssId < this.sensorCount; ssId++){
+            this.sensorX[ssId] = sss[ssId].getRx().getElement().getLocation().getCartesian().getX();
+            this.sensorY[ssId] = sss[ssId].getRx().getElement().getLocation().getCartesian().getY();
+        }
+        // twice the mean spacing of sensors
+        this.searchRadius = (int) Math.ceil(2 * Math.sqrt((double) this.grid.cellCount() /
+                Math.max(this.sensorCount, 1)));
+        double[] gains = gainTable.gains();
+        this.gainsDb = new float[gains.length];
+        for (int i = 0; i < gains.length; i++)
+            this.gainsDb[i] = (float) WirelessTools.getDB(gains[i]);
+        this.searches = ThreadLocal.withInitial(Search::new);
+    }
+
+    /**GridSearchLocalizer constructor building its own gain table without shadowing.
+     * @param meanModel propagation model of the dataset giving the mean path loss
+     * @param sss array of SpectrumSensor of the dataset
+     * @param grid grid of the dataset's field
+     * @param cellSize cell size in square
+     * @param txHeight height of TXs
+     * @param noiseFloor noise floor(dB) of the dataset
+     * @param minTxPower minimum power(dB) of a TX
+     * @param maxTxPower maximum power(dB) of a TX
+     * @param maxTxNum maximum number of TXs of a sample*/
+    public GridSearchLocalizer(PropagationModel meanModel, SpectrumSensor[] sss, FieldGrid grid, int cellSize,
+                               double txHeight, double noiseFloor, double minTxPower, double maxTxPower,
+                               int maxTxNum){
+        this(new GainTable(meanModel, sss, grid, cellSize, txHeight, 0.0), sss, noiseFloor, minTxPower,
+                maxTxPower, maxTxNum);
+    }
+
+    /**Localizes the TXs of an object-based sample from its sensors' readings.
+     * @param sample a sample whose sensors are the gain table's sensors
+     * @param out estimated TXs are written here (cell x, y, cell index and power); needs capacity for maxTxNum
+     * @return number of TXs found*/
+    public int localize(LocalizationDatasetGenerator sample, SampleBuffer out){
+        SpectrumSensor[] sss = sample.getSss();
+        if (sss.length != this.sensorCount)
+            throw new IllegalArgumentException("Sample has a different set of sensors than the gain table.");
+        double[] readings = this.searches.get().readings;
+        for (int ssId = 0; ssId < sss.length; ssId++)
+            readings[ssId] = sss[ssId].getRx().getReceived_power();
+        return localize(readings, out);
+    }
+
+    /**Localizes the TXs of a primitive sample from its received powers.
+     * @param sample a sample whose sensors are the gain table's sensors
+     * @param out estimated TXs are written here; needs capacity for maxTxNum
+     * @return number of TXs found*/
+    public int localize(SampleBuffer sample, SampleBuffer out){
+        if (sample.getSensorCount() != this.sensorCount)
+            throw new IllegalArgumentException("Sample has a different set of sensors than the gain table.");
+        return localize(sample.receivedPower, out);
+    }
+
+    /**Localizes TXs from sensors' received powers.
+     * @param receivedPower received power(dB) of the gain table's sensors; -inf and NaN are read as silence
+     * @param out estimated TXs are written here; needs capacity for maxTxNum
+     * @return number of TXs found*/
+    public int localize(double[] receivedPower, SampleBuffer out){
+        Search search = this.searches.get();
+        double noise = WirelessTools.getDecimal(this.noiseFloor);
+        for (int ssId = 0; ssId < this.sensorCount; ssId++){
+            double reading = receivedPower[ssId];
+            search.excess[ssId] = Double.isNaN(reading) ? 0.0 :
+                    Math.max(WirelessTools.getDecimal(reading) - noise, 0.0);
+        }
+        int found = 0;
+        int limit = Math.min(this.maxTxNum, out.getMaxTxCount());
+        while (found < limit && search(search, out, found, found)){
+            found++;
+            for (int round = 0; round < this.refinementRounds && found > 1; round++)    // before the next TX
+                for (int txId = 0; txId < found; txId++)
+                    search(search, out, found, txId);
+        }
+        out.setTxCount(found);
+        return found;
+    }
+
+    // searches TX txId of out against the readings minus the other found TXs; false if too few sensors hear it
+    private boolean search(Search search, SampleBuffer out, int found, int txId){
+        double noise = WirelessTools.getDecimal(this.noiseFloor);
+        double heard = noise * (WirelessTools.getDecimal(this.detectionMargin) - 1);
+        double tolerance = WirelessTools.getDecimal(this.shadowingTolerance) - 1;
+        double[] gains = this.gainTable.gains();
+        System.arraycopy(search.excess, 0, search.residual, 0, this.sensorCount);
+        Arrays.fill(search.explained, 0, this.sensorCount, 0.0);
+        for (int other = 0; other < found; other++){
+            if (other == txId)
+                continue;
+            double txPower = WirelessTools.getDecimal(out.txPower[other]);
+            int offset = this.gainTable.rowOffset(out.txCell[other]);
+            for (int ssId = 0; ssId < this.sensorCount; ssId++){
+                double contribution = txPower * gains[offset + ssId];
+                search.residual[ssId] -= contribution;
+                search.explained[ssId] += contribution;
+            }
+        }
+        int anchor = search.strongestSensor(heard, tolerance);
+        if (anchor < 0)
+            return false;
+        int sensors = search.selectSensors(anchor, heard, tolerance);
+        if (sensors < this.minSensors)
+            return false;
+        int cell = search.bestCell(anchor, sensors);
+        out.txX[txId] = this.grid.x(cell);
+        out.txY[txId] = this.grid.y(cell);
+        out.txCell[txId] = cell;
+        out.txPower[txId] = search.bestPower;
+        return true;
+    }
+
+    // squared dB error of the best power of a cell over the selected sensors; sets the search's cellPower
+    private double cost(Search search, int cell, int sensors){
+        int offset = cell * this.sensorCount;
+        double sum = 0.0;
+        double sumSquared = 0.0;
+        for (int i = 0; i < sensors; i++){
+            double difference = search.readingsDb[i] - this.gainsDb[offset + search.sensorIds[i]];
+            sum += difference;
+            sumSquared += difference * difference;
+        }
+        double power = Math.max(this.minTxPower, Math.min(this.maxTxPower, sum / sensors));
+        search.cellPower = power;
+        return sumSquared - 2 * power * sum + sensors * power * power;
+    }
+
+    // buffers of one thread's searches
+    private class Search {
+        private final double[] readings = new double[sensorCount];     // scratch for object-based samples
+        private final double[] excess = new double[sensorCount];       // linear power above the noise floor
+        private final double[] residual = new double[sensorCount];     // excess not explained by other TXs
+        private final double[] explained = new double[sensorCount];    // linear power of the other TXs
+        private final int[] sensorIds = new int[Math.max(searchSensors, 1)];
+        private final double[] readingsDb = new double[sensorIds.length];  // residuals of sensorIds in dB
+        private final int[] candidateCells = new int[Math.max(refinedCells, 1)];
+        private final double[] candidateCosts = new double[candidateCells.length];
+        private double cellPower;       // best power of the last evaluated cell
+        private double bestPower;       // power of the last best cell
+
+        // whether a sensor hears a residual that is not left to shadowing
+        private boolean hears(int ssId, double heard, double tolerance){
+            double residual = this.residual[ssId];
+            return residual > heard + tolerance * this.explained[ssId] && residual > 0.0;
+        }
+
+        // the sensor hearing the strongest residual; -1 if no sensor hears one
+        private int strongestSensor(double heard, double tolerance){
+            int strongest = -1;
+            for (int ssId = 0; ssId < sensorCount; ssId++)
+                if (hears(ssId, heard, tolerance) && (strongest < 0 || this.residual[ssId] > this.residual[strongest]))
+                    strongest = ssId;
+            return strongest;
+        }
+
+        // the strongest sensors near the anchor that hear a residual, strongest first; returns how many
+        private int selectSensors(int anchor, double heard, double tolerance){
+            int capacity = Math.min(this.sensorIds.length, searchSensors);
+            double radiusSquared = (double) searchRadius * searchRadius;
+            int selected = 0;
+            for (int ssId = 0; ssId < sensorCount; ssId++){
+                double dx = sensorX[ssId] - sensorX[anchor];
+                double dy = sensorY[ssId] - sensorY[anchor];
+                if (dx * dx + dy * dy > radiusSquared || !hears(ssId, heard, tolerance))
+                    continue;
+                double residual = this.residual[ssId];
+                if (selected == capacity && residual <= this.residual[this.sensorIds[selected - 1]])
+                    continue;
+                int i = selected < capacity ? selected++ : capacity - 1;
+                for (; i > 0 && this.residual[this.sensorIds[i - 1]] < residual; i--)
+                    this.sensorIds[i] = this.sensorIds[i - 1];
+                this.sensorIds[i] = ssId;
+            }
+            for (int i = 0; i < selected; i++)
+                this.readingsDb[i] = WirelessTools.getDB(this.residual[this.sensorIds[i]]);
+            return selected;
+        }
+
+        // coarse search around the anchor, then full resolution around the best coarse cells; sets bestPower
+        private int bestCell(int anchor, int sensors){
+            int stride = Math.max(coarseStride, 1);
+            int candidates = 0;
+            int capacity = Math.min(this.candidateCells.length, refinedCells);
+            int anchorX = (int) Math.round(sensorX[anchor]);
+            int anchorY = (int) Math.round(sensorY[anchor]);
+            int endX = Math.min(anchorX + searchRadius + 1, grid.getWidth());
+            int endY = Math.min(anchorY + searchRadius + 1, grid.getLength());
+            for (int y = Math.max(anchorY - searchRadius, 0); y < endY; y += stride)
+                for (int x = Math.max(anchorX - searchRadius, 0); x < endX; x += stride)
+                    candidates = keep(grid.index(x, y), cost(this, grid.index(x, y), sensors), candidates,
+                            stride == 1 ? 1 : Math.max(capacity, 1));
+            if (stride == 1){
+                cost(this, this.candidateCells[0], sensors);
+                this.bestPower = this.cellPower;
+                return this.candidateCells[0];
+            }
+            int bestCell = this.candidateCells[0];
+            double bestCost = Double.POSITIVE_INFINITY;
+            for (int candidate = 0; candidate < candidates; candidate++){
+                int centerX = grid.x(this.candidateCells[candidate]);
+                int centerY = grid.y(this.candidateCells[candidate]);
+                for (int y = Math.max(centerY - stride + 1, 0); y < Math.min(centerY + stride, grid.getLength()); y++)
+                    for (int x = Math.max(centerX - stride + 1, 0); x < Math.min(centerX + stride, grid.getWidth());
+                         x++){
+                        int cell = grid.index(x, y);
+                        double cost = cost(this, cell, sensors);
+                        if (cost < bestCost){
+                            bestCost = cost;
+                            bestCell = cell;
+                            this.bestPower = this.cellPower;
+                        }
+                    }
+            }
+            return bestCell;
+        }
+
+        // keeping the lowest-cost cells sorted; returns the new number of candidates
+        private int keep(int cell, double cost, int candidates, int capacity){
+            if (candidates == capacity && cost >= this.candidateCosts[capacity - 1])
+                return candidates;
+            int i = candidates < capacity ? candidates++ : capacity - 1;
+            for (; i > 0 && this.candidateCosts[i - 1] > cost; i--){
+                this.candidateCosts[i] = this.candidateCosts[i - 1];
+                this.candidateCells[i] = this.candidateCells[i - 1];
+            }
+            this.candidateCosts[i] = cost;
+            this.candidateCells[i] = cell;
+            return candidates;
+        }
+    }
+
+    // **************************** Setter & Getter ******************************
+    // setters should be called before the localizer is used
+    public FieldGrid getGrid() { return grid; }
+
+    public int getSensorCount() { return sensorCount; }
+
+    public int getMaxTxNum() { return maxTxNum; }
+
+    public int getSearchSensors() { return searchSensors; }
+
+    public void setSearchSensors(int searchSensors) { this.searchSensors = searchSensors; }
+
+    public int getCoarseStride() { return coarseStride; }
+
+    public void setCoarseStride(int coarseStride) { this.coarseStride = coarseStride; }
+
+    public int getRefinedCells() { return refinedCells; }
+
+    public void setRefinedCells(int refinedCells) { this.refinedCells = refinedCells; }
+
+    public double getDetectionMargin() { return detectionMargin; }
+
+    public void setDetectionMargin(double detectionMargin) { this.detectionMargin = detectionMargin; }
+
+    public double getShadowingTolerance() { return shadowingTolerance; }
+
+    public void setShadowingTolerance(double shadowingTolerance) { this.shadowingTolerance = shadowingTolerance; }
+
+    public int getMinSensors() { return minSensors; }
+
+    public void setMinSensors(int minSensors) { this.minSensors = Math.max(minSensors, 1); }
+
+    public int getRefinementRounds() { return refinementRounds; }
+
+    public void setRefinementRounds(int refinementRounds) { this.refinementRounds = refinementRounds; }
+
+    public int getSearchRadius() { return searchRadius; }
+
+    public void setSearchRadius(int searchRadius) { this.searchRadius = Math.max(searchRadius, 1); }
+}
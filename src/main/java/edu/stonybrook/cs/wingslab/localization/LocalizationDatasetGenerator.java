@@ -2,7 +2,7 @@ package edu.stonybrook.cs.wingslab.localization;
 
 import edu.stonybrook.cs.wingslab.commons.*;
 
-import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**This class calculates sensor received power based on the set of sensors and transmitters*/
 public class LocalizationDatasetGenerator {
@@ -13,6 +13,8 @@ public class LocalizationDatasetGenerator {
     private final int cellSize;           // cell size of the field
     private final boolean sssLocation;    // if sensors location need to be written
     private final double noiseFloor;
+    private final GainTable gainTable;    // precomputed gains for fixed sensors; null if path loss is computed
+    private final PathLossFunction pathLoss;    // used instead of propagationModel if not null
 
     /**LocalizationDatasetGenerator constructor
      * @param txs array of TX
@@ -33,9 +35,59 @@ public class LocalizationDatasetGenerator {
         this.cellSize = cellSize;
         this.sssLocation = sssLocation;
         this.noiseFloor = noiseFloor;
+        this.gainTable = null;
+        this.pathLoss = null;
         computeSensorReceivedPower();
     }
 
+    /**LocalizationDatasetGenerator constructor using a primitive path loss function (e.g. a shared cache).
+     * @param txs array of TX
+     * @param sss array of SpectrumSensor
+     * @param shape Shape of field
+     * @param pathLoss path loss function
+     * @param cellSize cell size in square
+     * @param sssLocation if sensors' location be written
+     * @param noiseFloor noise floor*/
+    public LocalizationDatasetGenerator(TX[] txs, SpectrumSensor[] sss, Shape shape, PathLossFunction pathLoss,
+                                        int cellSize, boolean sssLocation, double noiseFloor){
+        super();
+        this.sss = sss;
+        this.txs = txs;
+        this.shape = shape;
+        this.propagationModel = null;
+        this.cellSize = cellSize;
+        this.sssLocation = sssLocation;
+        this.noiseFloor = noiseFloor;
+        this.gainTable = null;
+        this.pathLoss = pathLoss;
+        computeSensorReceivedPower();
+    }
+
+    /**LocalizationDatasetGenerator constructor using a precomputed gain table instead of the propagation model.
+     * @param txs array of TX
+     * @param sss array of SpectrumSensor; the same sensors the gain table was built for
+     * @param shape Shape of field
+     * @param gainTable cell-to-sensor gain table
+     * @param cellSize cell size in square
+     * @param sssLocation if sensors' location be written
+     * @param noiseFloor noise floor*/
+    public LocalizationDatasetGenerator(TX[] txs, SpectrumSensor[] sss, Shape shape, GainTable gainTable,
+                                        int cellSize, boolean sssLocation, double noiseFloor){
+        super();
+        if (sss != null && sss.length != gainTable.getSensorCount())
+            throw new IllegalArgumentException("Gain table was built for a different set of sensors.");
+        this.sss = sss;
+        this.txs = txs;
+        this.shape = shape;
+        this.propagationModel = null;
+        this.cellSize = cellSize;
+        this.sssLocation = sssLocation;
+        this.noiseFloor = noiseFloor;
+        this.gainTable = gainTable;
+        this.pathLoss = null;
+        computeSensorReceivedPowerFromTable();
+    }
+
     /**LocalizationDatasetGenerator constructor
      * @param txs array of TX
      * @param sss array of SpectrumSensor
@@ -51,30 +103,19 @@ public class LocalizationDatasetGenerator {
     private void computeSensorReceivedPower(){
         if (this.sss == null) // if there is no sensors
             return;
-        for (SpectrumSensor spectrumSensor : this.sss) {
-            spectrumSensor.getRx().setReceived_power(Double.NEGATIVE_INFINITY); // resetting for new computations
-            // add noise, creating tmp TX with noise_floor power at ss loc
-            spectrumSensor.getRx().setReceived_power(powerWithPathLoss(
-                    new TX(new Element(spectrumSensor.getRx().getElement().getLocation(),
-                            spectrumSensor.getRx().getElement().getHeight()), this.noiseFloor),
-                    spectrumSensor.getRx()));
-        }
-        for (SpectrumSensor spectrumSensor : this.sss) {
-            for (TX tx : this.txs) {
-                spectrumSensor.getRx().setReceived_power(powerWithPathLoss(tx,
-                        spectrumSensor.getRx()));
-            }
-        }
+        if (this.pathLoss != null)
+            ReceivedPowerKernel.forThread().compute(this.txs, this.sss, this.pathLoss, this.noiseFloor);
+        else
+            ReceivedPowerKernel.forThread().compute(this.txs, this.sss, this.propagationModel, this.cellSize,
+                    this.noiseFloor);
     }
 
-    // this method power value of receiver after transmitter effect. (return = rx_power + tx_power - path_loss)
-    private double powerWithPathLoss(TX tx, RX rx){
-        if (tx.getPower() == Double.NEGATIVE_INFINITY)
-            return rx.getReceived_power();
-        double loss = this.propagationModel.pathLoss(tx.getElement().mul(this.cellSize),
-                rx.getElement().mul(this.cellSize));
-        return WirelessTools.getDB(WirelessTools.getDecimal(tx.getPower() - loss) +
-                WirelessTools.getDecimal(rx.getReceived_power()));
+    // same as computeSensorReceivedPower() but with lookups in the gain table
+    private void computeSensorReceivedPowerFromTable(){
+        if (this.sss == null) // if there is no sensors
+            return;
+        ReceivedPowerKernel.forThread().compute(this.gainTable, this.txs, this.sss, this.noiseFloor,
+                ThreadLocalRandom.current());
     }
 
     private String txsInfo(){
@@ -95,7 +136,7 @@ public class LocalizationDatasetGenerator {
         return String.format("%1$d,%2$s", this.txs.length, puInformation);
     }
 
-    private String sssInfo(){
+    String sssInfo(){
         StringBuilder sssInformation = new StringBuilder("");
         if (sssLocation)
             sssInformation.append(String.format("%d,", sss.length));
@@ -121,7 +162,17 @@ public class LocalizationDatasetGenerator {
     private String strongest(){
         if (txs == null || txs.length == 0)
             return String.format("%.1f,%.1f,%.3f", 0.0, 0.0, this.noiseFloor);
+        int strongestIdx = strongestIndex();
+        return String.format("%.1f,%.1f,%.3f", txs[strongestIdx].getElement().getLocation().getCartesian().getX(),
+                txs[strongestIdx].getElement().getLocation().getCartesian().getY(),
+                txs[strongestIdx].getPower());
+    }
+
+    // index of the strongest TX; -1 if there is no TX
+    int strongestIndex(){
         int strongestIdx = -1;
+        if (txs == null)
+            return strongestIdx;
         double highestPower = Double.NEGATIVE_INFINITY;
         for (int i = 0; i < txs.length; i++){
             if (txs[i].getPower() > highestPower){
@@ -129,44 +180,31 @@ public class LocalizationDatasetGenerator {
                 strongestIdx = i;
             }
         }
-
-        return String.format("%.1f,%.1f,%.3f", txs[strongestIdx].getElement().getLocation().getCartesian().getX(),
-                txs[strongestIdx].getElement().getLocation().getCartesian().getY(),
-                txs[strongestIdx].getPower());
+        return strongestIdx;
     }
 
-    //finding the most isolated tX info as a String
-    private String mostIsolatedTx(){
+    //finding the most isolated tX info as a String; the TX whose nearest other TX is the farthest
+    String mostIsolatedTx(){
         if (txs == null || txs.length == 0)
             return String.format("%.1f,%.1f,%.3f", -1000.0, -1000.0, this.noiseFloor);
-        double[] distances = new double[txs.length];
-        //set MAX_VALUE for the minimum
-        Arrays.fill(distances, Double.MAX_VALUE);
-        // calculating distances of a tx to all other txs
-        for (int i = 0; i < txs.length; i++){
-            for (int j = 0; j < txs.length; j++){
-                if (i == j) continue;
-                // sum of distances to others
-//                distances[i] += txs[i].getElement().getLocation().mul(cellSize).distance(
-//                        txs[j].getElement().getLocation().mul(cellSize));
-                // minimum distance to another TX
-                distances[i] = Math.min(distances[i], txs[i].getElement().getLocation().mul(cellSize).distance(
-                        txs[j].getElement().getLocation().mul(cellSize)));
-            }
-        }
-
-        int mostIsolatedTxIdx = -1;     // the one that have the highest distances to others
-        double highestDistance = Double.NEGATIVE_INFINITY;
-        for (int i = 0; i < txs.length; i++){
-            if (distances[i] > highestDistance){
-                highestDistance = distances[i];
-                mostIsolatedTxIdx = i;
-            }
-        }
+        // distances are compared in cells; scaling all of them by cell size does not change the order
+        TxSpatialIndex index = TxSpatialIndex.forThread();
+        index.build(txs);
+        int mostIsolatedTxIdx = SampleLabel.mostIsolatedIndex(index);
         return String.format("%.1f,%.1f,%.3f", txs[mostIsolatedTxIdx].getElement().getLocation().getCartesian().getX(),
                 txs[mostIsolatedTxIdx].getElement().getLocation().getCartesian().getY(),
                 txs[mostIsolatedTxIdx].getPower());
     }
+    // **************************** Getter ******************************
+    // encoders read samples through these; returned arrays must not be modified
+    TX[] getTxs() { return txs; }
+
+    SpectrumSensor[] getSss() { return sss; }
+
+    double getNoiseFloor() { return noiseFloor; }
+
+    boolean isSssLocation() { return sssLocation; }
+
     @Override
     public String toString(){
         return String.format("%s,%s,%s", sssInfo(), strongest(), txsInfo());
@@ -3,20 +3,40 @@ package edu.stonybrook.cs.wingslab.localization;
 import edu.stonybrook.cs.wingslab.commons.*;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.concurrent.TimeUnit;
 
 public class LocalizationDatasetGeneratorApp implements Runnable {
     private static String DATA_DIR = "resources/data/";
     //directory where the results should be written
+    private static OutputFormat OUTPUT_FORMAT = OutputFormat.TEXT;
+    // format of the results
+    private static PathLossCache PATH_LOSS_CACHE = null;
+    // path loss cache shared by all apps of a run; null to call the propagation model directly
+    private static PathLossFunction SHARED_PATH_LOSS = null;
+    // thread-safe path loss shared by all apps (e.g. SplatExecutionService); takes precedence over the cache
+    private static FieldGrid FIELD_GRID = null;
+    // cells of the field; if set, samples are generated into primitive SampleBuffers instead of commons objects
+    private static LogDistanceKernel LOG_DISTANCE_KERNEL = null;
+    // kernel fitted to the apps' log-distance model; used for SampleBuffers instead of calling the model
+    private static Long RUN_SEED = null;
+    // if set, each sample's randomness is derived from (RUN_SEED, sample index); needs FIELD_GRID
+    private static List<SampleLabel> LABELS = List.of();
+    // labels appended to every sample by the encoders and writers of the run
+    private static OccupancyMapFormat OCCUPANCY_MAPS = null;
+    // if set, NPY writers also write every sample's TX occupancy map (and optionally its sensor image)
+    private static QuantizedSensorFormat QUANTIZED_SENSORS = null;
+    // if set, NPY writers write sensors' received power quantized into sensors.qsr instead of sensors.npy
     private final int sampleCount;
     // number of samples to be created. in case of SPLAT!, it might be less due to exceptions
     private static int threadNum = 0;
@@ -45,9 +65,32 @@ public class LocalizationDatasetGeneratorApp implements Runnable {
     private final double txHeight;
     // height of SU the class creates
     private final boolean changingSss;
-    // progress bar length
-    private final static int progressBarLength = 50;
+    // encoded text is written to the file once this many bytes are buffered
+    private final static int TEXT_FLUSH_BYTES = 1 << 20;
     private final double noiseFLoor;
+    private final GainTable gainTable;
+    // precomputed cell-to-sensor gains; used instead of propagationModel when sensors do not change
+    private final PathLossFunction pathLoss;
+    // shared path loss, or shared cache in front of this app's propagation model; null if neither is set
+    private final GeneratorMetrics metrics = GeneratorMetrics.global();
+    private final SampleBuffer sampleBuffer;
+    // reusable sample of this app; null if FIELD_GRID is not set
+    private final CellSampler cellSampler;
+    // draws TX and sensor cells for sampleBuffer
+    private final LogDistanceKernel logDistanceKernel;
+    // LOG_DISTANCE_KERNEL when this app was created; null if pathLoss is used
+    private final PathLossFunction modelPathLoss;
+    // propagationModel as a path loss function for sampleBuffer; null if gainTable, pathLoss or the kernel is used
+    private final Long runSeed;
+    // RUN_SEED when this app was created
+    private final SampleRandom sampleRandom;
+    // random of the current sample; null if there is no run seed
+    private long nextSampleIndex = 0;
+    // global index of the next sample this app generates
+    private final static double[] FIXED_TX_POWERS = {-15.0, -10.0, -5.0, 0.0};
+    // power(dB) of the i-th TX of a sample; later TXs draw theirs from [minTxPower, maxTxPower], see txPower()
+    private final DatasetStatistics statistics;
+    // statistics of the samples this app has written; merged with other apps' at the end
 
     /**
      * LocalizationDatasetGeneratorApp constructor.
@@ -71,6 +114,33 @@ public class LocalizationDatasetGeneratorApp implements Runnable {
                                            int cellSize, int minTxNum, int maxTxNum, double txHeight,
                                            double minTxPower, double maxTxPower, boolean changingSss,
                                            double noiseFloor){
+        this(sampleCount, fileAppendix, resultDict, propagationModel, sss, shape, cellSize, minTxNum, maxTxNum,
+                txHeight, minTxPower, maxTxPower, changingSss, noiseFloor, null);
+    }
+
+    /**
+     * LocalizationDatasetGeneratorApp constructor.
+     * @param sampleCount number of sample to be generated
+     * @param fileAppendix an appendix that will be added to results file if provided
+     * @param resultDict a hashMap that will be used to write statistics
+     * @param propagationModel propagation model
+     * @param sss array of SpectrumSensors
+     * @param shape shape of the target region
+     * @param cellSize size of square cells
+     * @param minTxNum minimum number of TXs for each sample
+     * @param maxTxNum maximum number of TXs for each sample
+     * @param minTxPower minimum power value of TXs for each sample
+     * @param maxTxPower maximum power value of TXs for each sample
+     * @param txHeight height of TXs
+     * @param changingSss whether sensors' location is changing
+     * @param noiseFloor noise floor
+     * @param gainTable gain table built for sss; ignored if changingSss is true. null to compute path loss*/
+    public LocalizationDatasetGeneratorApp(int sampleCount, String fileAppendix,
+                                           ConcurrentHashMap<Integer, HashMap<String, Double>> resultDict,
+                                           PropagationModel propagationModel, SpectrumSensor[] sss, Shape shape,
+                                           int cellSize, int minTxNum, int maxTxNum, double txHeight,
+                                           double minTxPower, double maxTxPower, boolean changingSss,
+                                           double noiseFloor, GainTable gainTable){
         super();
         this.sampleCount = sampleCount;
         this.threadId = LocalizationDatasetGeneratorApp.threadNum++;
@@ -87,6 +157,34 @@ public class LocalizationDatasetGeneratorApp implements Runnable {
         this.txHeight = txHeight;
         this.changingSss = changingSss;
         this.noiseFLoor = noiseFloor;
+        this.gainTable = changingSss ? null : gainTable;
+        this.statistics = new DatasetStatistics(sss.length, maxTxNum);
+        if (SHARED_PATH_LOSS != null)
+            this.pathLoss = SHARED_PATH_LOSS;
+        else if (PATH_LOSS_CACHE != null)
+            this.pathLoss = new CachedPathLoss(PATH_LOSS_CACHE, PathLossFunction.of(propagationModel, cellSize),
+                    cellSize);
+        else
+            this.pathLoss = null;
+        this.runSeed = RUN_SEED;
+        if (this.runSeed != null && FIELD_GRID == null)
+            throw new IllegalStateException(this.getClass().getSimpleName() + " needs a field grid for seeded runs; " +
+                    "object-based samples draw from commons' own randomness.");
+        this.sampleRandom = this.runSeed != null ? new SampleRandom() : null;
+        if (FIELD_GRID != null){
+            FieldGrid grid = this.gainTable != null ? this.gainTable.getGrid() : FIELD_GRID;
+            this.cellSampler = new CellSampler(grid, changingSss ? Math.max(maxTxNum, sss.length) : maxTxNum);
+            this.logDistanceKernel = this.pathLoss == null ? LOG_DISTANCE_KERNEL : null;
+            this.modelPathLoss = this.gainTable == null && this.pathLoss == null && this.logDistanceKernel == null ?
+                    PathLossFunction.of(propagationModel, cellSize) : null;
+            this.sampleBuffer = newSampleBuffer();
+        }
+        else {
+            this.sampleBuffer = null;
+            this.cellSampler = null;
+            this.logDistanceKernel = null;
+            this.modelPathLoss = null;
+        }
         //creating files and directory(if needed)
         Path dataPath = Paths.get(LocalizationDatasetGeneratorApp.DATA_DIR);
         if (!Files.isDirectory(dataPath)){
@@ -101,72 +199,257 @@ public class LocalizationDatasetGeneratorApp implements Runnable {
 
     @Override
     public void run(){
-        String fileNameFormat = String.format("_%1$s_%2$d.txt", fileAppendix != null ? fileAppendix : "", this.threadId);
+        switch (OUTPUT_FORMAT) {
+            case TEXT -> runText();
+            case NPY -> runNpy();
+        }
+    }
+
+    // writing samples as text lines
+    private void runText(){
+        String fileNameFormat = String.format("_%1$s_%2$d.txt", fileAppendix != null ? fileAppendix : "",
+                this.threadId);
         // this format would be added to file name
         File localizeFile = new File(LocalizationDatasetGeneratorApp.DATA_DIR +
                 "/localization" + fileNameFormat);  //
-        try(PrintWriter localizeWriter = new PrintWriter(localizeFile)) {
-            long beginTime = System.currentTimeMillis();
-            for (int sample = 1; sample < this.sampleCount + 1; sample++) {
-                try {
-                    localizeWriter.println(new LocalizationDatasetGenerator(createTXs(),
-                            changingSss ? createSSs() : this.sss,
-                            this.shape, this.propagationModel, this.cellSize, changingSss, noiseFLoor));
-                } catch (RuntimeException e) {
-                    e.printStackTrace();
+        try(FileChannel localizeChannel = FileChannel.open(localizeFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            CsvSampleEncoder encoder = new CsvSampleEncoder(LABELS);
+            ProgressReporter.Worker progress = ProgressReporter.global().newWorker("t" + this.threadId);
+            try {
+                for (int sample = 1; sample < this.sampleCount + 1; sample++) {
+                    progress.add(generate(1, encoder));
+                    if (encoder.size() >= TEXT_FLUSH_BYTES)
+                        writeTo(encoder, localizeChannel);
                 }
-                System.out.print(progressBar(sample, System.currentTimeMillis() - beginTime));
+                writeTo(encoder, localizeChannel);
+            } finally {
+                progress.finish();              // not lagging while other threads finish
             }
-
-        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
             e.printStackTrace();
             throw new RuntimeException(this.getClass().getSimpleName() + "Failed opening proper files");
         }
 
     }
 
+    /**Generates samples into an encoder instead of this app's own file; used when samples are scheduled in
+     * chunks. Samples that fail are skipped, as in run().
+     * @param count number of samples to be generated
+     * @param encoder encoder the samples are appended to
+     * @return number of samples appended*/
+    int generate(int count, CsvSampleEncoder encoder){
+        return generate(this.nextSampleIndex, count, encoder);
+    }
+
+    /**Same as generate(count, encoder) for samples firstIndex, firstIndex + 1, ... of the run; in a seeded run,
+     * the indices alone decide the samples.
+     * @param firstIndex global index of the first sample
+     * @param count number of samples to be generated
+     * @param encoder encoder the samples are appended to
+     * @return number of samples appended*/
+    int generate(long firstIndex, int count, CsvSampleEncoder encoder){
+        this.nextSampleIndex = firstIndex;
+        int generated = 0;
+        long beginTime = System.nanoTime();
+        for (int sample = 0; sample < count; sample++) {
+            try {
+                long encodeBeginTime;
+                if (this.sampleBuffer != null){
+                    createSample(this.sampleBuffer);
+                    encodeBeginTime = System.nanoTime();
+                    encoder.encode(this.sampleBuffer);
+                    this.statistics.record(this.sampleBuffer);
+                }
+                else {
+                    LocalizationDatasetGenerator localizationSample = createSample();
+                    encodeBeginTime = System.nanoTime();
+                    encoder.encode(localizationSample);
+                    this.statistics.record(localizationSample);
+                }
+                this.metrics.record(GeneratorMetrics.Stage.ENCODING, System.nanoTime() - encodeBeginTime);
+                generated++;
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        countSamples(generated, count - generated, System.nanoTime() - beginTime);
+        return generated;
+    }
+
+    // writing the encoded samples to the channel
+    private void writeTo(CsvSampleEncoder encoder, FileChannel channel) throws IOException {
+        long beginTime = System.nanoTime();
+        encoder.writeTo(channel);
+        this.metrics.record(GeneratorMetrics.Stage.IO, System.nanoTime() - beginTime);
+    }
+
+    // updating run metrics and this app's statistics in resultDict
+    private void countSamples(int generated, int failed, long nanos){
+        this.metrics.countSamples(generated, failed);
+        if (this.resultDict == null)
+            return;
+        HashMap<String, Double> threadInfo = this.resultDict.computeIfAbsent(this.threadId, id -> new HashMap<>());
+        threadInfo.merge("Samples", (double) generated, Double::sum);
+        threadInfo.merge("Failed Samples", (double) failed, Double::sum);
+        threadInfo.merge("Sample Time", nanos / 1e6, Double::sum);        // milliseconds
+    }
+
+    // creating a new sample; gain table is used if available
+    private LocalizationDatasetGenerator createSample(){
+        long beginTime = System.nanoTime();
+        this.nextSampleIndex++;
+        TX[] txs = createTXs();
+        long pathLossBeginTime = System.nanoTime();
+        this.metrics.record(GeneratorMetrics.Stage.TX_GENERATION, pathLossBeginTime - beginTime);
+        SpectrumSensor[] sampleSss = this.sss;
+        if (changingSss){
+            sampleSss = createSSs();
+            long sssTime = System.nanoTime();
+            this.metrics.record(GeneratorMetrics.Stage.SENSOR_GENERATION, sssTime - pathLossBeginTime);
+            pathLossBeginTime = sssTime;
+        }
+        LocalizationDatasetGenerator sample;
+        if (this.gainTable != null)
+            sample = new LocalizationDatasetGenerator(txs, sampleSss, this.shape, this.gainTable, this.cellSize,
+                    false, noiseFLoor);
+        else if (this.pathLoss != null)
+            sample = new LocalizationDatasetGenerator(txs, sampleSss, this.shape, this.pathLoss, this.cellSize,
+                    changingSss, noiseFLoor);
+        else
+            sample = new LocalizationDatasetGenerator(txs, sampleSss, this.shape, this.propagationModel,
+                    this.cellSize, changingSss, noiseFLoor);
+        this.metrics.record(GeneratorMetrics.Stage.PATH_LOSS, System.nanoTime() - pathLossBeginTime);
+        return sample;
+    }
+
+    /**Creates a buffer this app can generate samples into; requires the field grid to be set before the app is
+     * created.
+     * @return a new sample buffer with this app's sensors (if they do not change), noise floor and widths*/
+    public SampleBuffer newSampleBuffer(){
+        if (this.cellSampler == null)
+            throw new IllegalStateException(this.getClass().getSimpleName() + " was created without a field grid.");
+        SampleBuffer sample = new SampleBuffer(this.maxTxNum, this.sss.length);
+        sample.setSssLocation(this.changingSss);
+        sample.setNoiseFloor(this.noiseFLoor);
+        if (!this.changingSss)
+            sample.setSensors(this.sss);
+        return sample;
+    }
+
+    /**Generates one sample in place, e.g. for in-process consumers; the app itself is not thread-safe.
+     * @param sample a buffer created by newSampleBuffer() of this app*/
+    public void nextSample(SampleBuffer sample){
+        nextSample(sample, this.nextSampleIndex);
+    }
 
-    // method to return Progress Bar based on sample #
-    private String progressBar(int sampleNumber, long timeElapsedMilli){
-        int progress = (int)((float)sampleNumber/this.sampleCount * progressBarLength);  // number of = to be print
-        return "=".repeat(Math.max(0, progress)) +
-                " ".repeat(Math.max(0, LocalizationDatasetGeneratorApp.progressBarLength - progress)) +
-                "| " + (int)((double)sampleNumber / this.sampleCount * 100) + "% " +
-                timeFormat(sampleNumber, timeElapsedMilli) + "\r";
+    /**Generates the sample of the given index in place; in a seeded run, the index alone decides the sample.
+     * @param sample a buffer created by newSampleBuffer() of this app
+     * @param sampleIndex global index of the sample*/
+    public void nextSample(SampleBuffer sample, long sampleIndex){
+        this.nextSampleIndex = sampleIndex;
+        long beginTime = System.nanoTime();
+        try {
+            createSample(sample);
+        } catch (RuntimeException e) {
+            countSamples(0, 1, System.nanoTime() - beginTime);
+            throw e;
+        }
+        countSamples(1, 0, System.nanoTime() - beginTime);
     }
 
-    // based on elapsed time and sample number, a time format info will be returned
-    private String timeFormat(int sampleNumber, long timeElapseMilli){
-        int sampleRemaining = this.sampleCount - sampleNumber;  // remaining samples
-        long timeRemainingMilli = (long)(((double) sampleRemaining / sampleNumber) * timeElapseMilli); // remaining time
-        String extraInfo = (double)timeElapseMilli / (1000 * sampleNumber) > 1.0 ?
-                String.format("%.2fs/it", (double)timeElapseMilli / (1000 * sampleNumber)) :   // seconds per iteration
-                String.format("%.2fit/s", (double)(1000 * sampleNumber) / timeElapseMilli);    // iteration per seconds
-        return String.format("(%s / %s), %s", timeFormat(timeElapseMilli),
-                timeFormat(timeRemainingMilli), extraInfo);
+    // same as createSample() but into the primitive buffer; TXs and sensors are drawn from cellSampler's grid
+    private void createSample(SampleBuffer sample){
+        long beginTime = System.nanoTime();
+        Random random = this.sampleRandom != null ? this.sampleRandom.reset(this.runSeed, this.nextSampleIndex) :
+                ThreadLocalRandom.current();
+        this.nextSampleIndex++;
+        int txsNum = this.minTxNum + random.nextInt(this.maxTxNum - this.minTxNum + 1);
+        this.cellSampler.draw(txsNum, random, sample.txX, sample.txY, sample.txCell);
+        for (int txId = 0; txId < txsNum; txId++){
+            sample.txHeight[txId] = this.txHeight;
+            sample.txPower[txId] = txPower(txId, this.minTxPower, this.maxTXPower, random);
+        }
+        sample.setTxCount(txsNum);
+        long pathLossBeginTime = System.nanoTime();
+        this.metrics.record(GeneratorMetrics.Stage.TX_GENERATION, pathLossBeginTime - beginTime);
+        int ssCount = sample.getSensorCount();
+        if (changingSss){
+            this.cellSampler.draw(ssCount, random, sample.ssX, sample.ssY, null);
+            Arrays.fill(sample.ssHeight, 0, ssCount, this.sss[0].getRx().getElement().getHeight());
+            long sssTime = System.nanoTime();
+            this.metrics.record(GeneratorMetrics.Stage.SENSOR_GENERATION, sssTime - pathLossBeginTime);
+            pathLossBeginTime = sssTime;
+        }
+        ReceivedPowerKernel kernel = ReceivedPowerKernel.forThread();
+        if (this.gainTable != null)
+            kernel.compute(this.gainTable, sample.txCell, sample.txPower, txsNum, noiseFLoor, random,
+                    sample.receivedPower);
+        else if (this.logDistanceKernel != null)
+            this.logDistanceKernel.compute(sample.txX, sample.txY, sample.txHeight, sample.txPower, txsNum, sample.ssX,
+                    sample.ssY, sample.ssHeight, ssCount, noiseFLoor, random, sample.receivedPower);
+        else
+            kernel.compute(this.pathLoss != null ? this.pathLoss : this.modelPathLoss, sample.txX, sample.txY,
+                    sample.txHeight, sample.txPower, txsNum, sample.ssX, sample.ssY, sample.ssHeight, ssCount,
+                    noiseFLoor, sample.receivedPower);
+        this.metrics.record(GeneratorMetrics.Stage.PATH_LOSS, System.nanoTime() - pathLossBeginTime);
     }
 
-    // return time format (HH:mm:ss) for a milliseconds input
-    private String timeFormat(long millis){
-        return String.format("%d:%02d:%02d", TimeUnit.MILLISECONDS.toHours(millis),
-                TimeUnit.MILLISECONDS.toMinutes(millis) % TimeUnit.HOURS.toMinutes(1),
-                TimeUnit.MILLISECONDS.toSeconds(millis) % TimeUnit.MINUTES.toSeconds(1));
+    // writing samples as NumPy columns into a per-thread directory
+    private void runNpy(){
+        Path localizeDir = Paths.get(LocalizationDatasetGeneratorApp.DATA_DIR, String.format("localization_%1$s_%2$d",
+                fileAppendix != null ? fileAppendix : "", this.threadId));
+        try(NpyDatasetWriter localizeWriter = new NpyDatasetWriter(localizeDir, this.sss.length, this.maxTxNum,
+                changingSss, LABELS, OCCUPANCY_MAPS, QUANTIZED_SENSORS)) {
+            ProgressReporter.Worker progress = ProgressReporter.global().newWorker("t" + this.threadId);
+            for (int sample = 1; sample < this.sampleCount + 1; sample++) {
+                long sampleBeginTime = System.nanoTime();
+                boolean generated = false;
+                try {
+                    long encodeBeginTime;
+                    if (this.sampleBuffer != null){
+                        createSample(this.sampleBuffer);
+                        encodeBeginTime = System.nanoTime();
+                        localizeWriter.write(this.sampleBuffer);
+                        this.statistics.record(this.sampleBuffer);
+                    }
+                    else {
+                        LocalizationDatasetGenerator localizationSample = createSample();
+                        encodeBeginTime = System.nanoTime();
+                        localizeWriter.write(localizationSample);   // conversion and buffered writes
+                        this.statistics.record(localizationSample);
+                    }
+                    this.metrics.record(GeneratorMetrics.Stage.ENCODING, System.nanoTime() - encodeBeginTime);
+                    generated = true;
+                } catch (RuntimeException e) {
+                    if (localizeWriter.isFailed())
+                        throw e;                // columns are not aligned anymore; no later sample can be written
+                    e.printStackTrace();
+                }
+                countSamples(generated ? 1 : 0, generated ? 0 : 1, System.nanoTime() - sampleBeginTime);
+                progress.add(generated ? 1 : 0);
+            }
+            progress.finish();                  // rejected samples are skipped; only a failed writer leaves early
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new RuntimeException(this.getClass().getSimpleName() + "Failed writing npy columns");
+        }
     }
 
     // creating random sus
-    private TX[] createTXs(){
+    TX[] createTXs(){
         int txsNum = ThreadLocalRandom.current().nextInt(this.minTxNum, this.maxTxNum + 1);
-        double[] fixedPowers = {-15.0, -10.0, -5.0, 0.0};
         Point[] susPoint = this.shape.points(txsNum);
         TX[] txs = new TX[txsNum];
         for (int i = 0; i < txsNum; i++)
-            txs[i] = new TX(new Element(susPoint[i], this.txHeight), fixedPowers[i]);
+            txs[i] = new TX(new Element(susPoint[i], this.txHeight), txPower(i, this.minTxPower, this.maxTXPower,
+                    ThreadLocalRandom.current()));
 //                    ThreadLocalRandom.current().nextDouble(this.minTxPower, this.maxTXPower + Double.MIN_VALUE));
         return txs;
     }
 
     //creating random sensors
-    private SpectrumSensor[] createSSs(){
+    SpectrumSensor[] createSSs(){
         int n = this.sss.length;
         Point[] sssPoint = this.shape.points(n);
         double height = this.sss[0].getRx().getElement().getHeight();
@@ -178,14 +461,82 @@ public class LocalizationDatasetGeneratorApp implements Runnable {
         }
         return sss;
     }
+    /**@param txId index of a TX in its sample
+     * @param minTxPower minimum power(dB) of TXs past the fixed ones
+     * @param maxTxPower maximum power(dB) of TXs past the fixed ones
+     * @param random source of the powers past the fixed ones; not used for the first FIXED_TX_POWERS.length TXs
+     * @return power(dB) of the TX; fixed for the first TXs of a sample and drawn uniformly for the rest*/
+    static double txPower(int txId, double minTxPower, double maxTxPower, Random random){
+        if (txId < FIXED_TX_POWERS.length)
+            return FIXED_TX_POWERS[txId];
+        return minTxPower + random.nextDouble() * (maxTxPower - minTxPower);
+    }
+
     // **************************** Setter & Getter ******************************
     public static String getDataDir() { return DATA_DIR; }
 
     public static void setDataDir(String dataDir) { DATA_DIR = dataDir; }
 
-//    public static ConcurrentHashMap<Integer, HashMap<String, Double>> getResultDict() { return this.resultDict; }
+    public static OutputFormat getOutputFormat() { return OUTPUT_FORMAT; }
+
+    public static void setOutputFormat(OutputFormat outputFormat) { OUTPUT_FORMAT = outputFormat; }
+
+    public static PathLossCache getPathLossCache() { return PATH_LOSS_CACHE; }
 
-    public static void setResultDict(ConcurrentHashMap<Integer, HashMap<String, Double>> resultDict) {
-        resultDict = resultDict;
+    /**should be set before apps are created*/
+    public static void setPathLossCache(PathLossCache pathLossCache) { PATH_LOSS_CACHE = pathLossCache; }
+
+    public static PathLossFunction getSharedPathLoss() { return SHARED_PATH_LOSS; }
+
+    /**should be set before apps are created; the function should be thread-safe*/
+    public static void setSharedPathLoss(PathLossFunction sharedPathLoss) { SHARED_PATH_LOSS = sharedPathLoss; }
+
+    public static FieldGrid getFieldGrid() { return FIELD_GRID; }
+
+    /**should be set before apps are created; the grid should match the shape of the apps*/
+    public static void setFieldGrid(FieldGrid fieldGrid) { FIELD_GRID = fieldGrid; }
+
+    public static LogDistanceKernel getLogDistanceKernel() { return LOG_DISTANCE_KERNEL; }
+
+    /**should be set before apps are created; the kernel should be fitted to the apps' propagation model*/
+    public static void setLogDistanceKernel(LogDistanceKernel logDistanceKernel) {
+        LOG_DISTANCE_KERNEL = logDistanceKernel;
+    }
+
+    public static Long getRunSeed() { return RUN_SEED; }
+
+    /**should be set before apps are created; null draws samples from ThreadLocalRandom*/
+    public static void setRunSeed(Long runSeed) { RUN_SEED = runSeed; }
+
+    public static List<SampleLabel> getLabels() { return LABELS; }
+
+    /**should be set before apps run; empty for no labels*/
+    public static void setLabels(List<SampleLabel> labels) { LABELS = List.copyOf(labels); }
+
+    public static OccupancyMapFormat getOccupancyMaps() { return OCCUPANCY_MAPS; }
+
+    /**should be set before apps run; null for no occupancy maps*/
+    public static void setOccupancyMaps(OccupancyMapFormat occupancyMaps) { OCCUPANCY_MAPS = occupancyMaps; }
+
+    public static QuantizedSensorFormat getQuantizedSensors() { return QUANTIZED_SENSORS; }
+
+    /**should be set before apps run; null for float32 sensors*/
+    public static void setQuantizedSensors(QuantizedSensorFormat quantizedSensors) {
+        QUANTIZED_SENSORS = quantizedSensors;
+    }
+
+    public long getNextSampleIndex() { return nextSampleIndex; }
+
+    /**@return statistics of the samples this app has written to its file or encoder; should be read once the app
+     * is done*/
+    public DatasetStatistics getStatistics() { return statistics; }
+
+    /**@param nextSampleIndex global index of the next sample this app generates (e.g. the first of a thread)*/
+    public void setNextSampleIndex(long nextSampleIndex) { this.nextSampleIndex = nextSampleIndex; }
+
+    public ConcurrentHashMap<Integer, HashMap<String, Double>> getResultDict() { return this.resultDict; }
+
+    public void setResultDict(ConcurrentHashMap<Integer, HashMap<String, Double>> resultDict) {
+        this.resultDict = resultDict;
     }
 }
@@ -3,21 +3,28 @@ package edu.stonybrook.cs.wingslab.localization;
 import edu.stonybrook.cs.wingslab.commons.*;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Scanner;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 public class LocalizationDatasetGeneratorMain {
     public static void main(String... args) throws InterruptedException {
@@ -30,18 +37,26 @@ public class LocalizationDatasetGeneratorMain {
         double rxHeight =  15;                         // in meter
         Shape fieldShape = new Square(100);       // Square and Rectangle are supported for now.
         // in meter and originated in (0, 0). 1000 for log, 100 for splat
+        FieldGrid fieldGrid = new FieldGrid(100);   // cells of fieldShape; should match its dimensions
         int cellSize = 10;                               // in meter
 
         // ********************************** Propagation Model **********************************
         String propagationModel = "log";                // 'splat' or 'log'
-        double alpha = 3.5;                               // propagation model coeff.  2.0 for 4km, 3 for 1km, 4.9 for 200m.
-        // Applicable for log
+        double alpha = 3.5;                               // propagation model coeff.  2.0 for 4km, 3 for 1km,
+        // 4.9 for 200m. Applicable for log
         boolean noise = true;                           // std in dB.
         double std =  1.0;                              // Applicable for log
+        double shadowingCorrelation = 0.0;              // decorrelation distance(m) of shadowing over sensors'
+        // locations (Gudmundson); 0 for independent links. Needs a gain table (fixed sensors)
         GeographicPoint splat_left_upper_ref = new GeographicPoint(40.800595,
                 73.107507);                         // ISLIP lat and lon
         double noiseFloor = -90;                       // noise floor
         String splatFileName = "pl_map_array.json";            // splat saved file name
+        boolean splatBinaryCache = true;                // shared path loss cache backed by a binary store
+        String splatCacheFileName = "pl_map.bin";       // binary store; pl json is only read if it doesn't exist
+        int splat_processes = 4;                        // concurrent SPLAT! executions (needs binary cache);
+        // 0 to execute in generator threads
+        boolean splatPrefetch = false;                  // compute all missing (cell, sensor) links before sampling
 
         // ********************************** TXs **********************************
         int minTxNUmber = 0;                        // min number of pus all over the field
@@ -54,13 +69,87 @@ public class LocalizationDatasetGeneratorMain {
         // ********************************** SSs **********************************
         int number_sensors = 900;
         boolean changingSss = false;
+        boolean useGainTable = false;               // precompute cell-to-sensor gains once (not for changingSss)
+        boolean primitiveSamples = false;           // samples in reusable primitive buffers drawn from fieldGrid
+        // instead of fieldShape's points; seeds, shards, resumes and sweeps turn it on
+        boolean logDistanceKernel = false;          // log only: primitive (vectorized if available) kernel
+        // fitted to the model; used for gain tables and primitive samples. Seeded runs of a noisy model turn it on
+        boolean vectorizedKernel = false;           // the kernel on the Vector API if available; only within
+        // TOLERANCE_DB of the scalar one, so shards or resumes of a seed on machines with and without it may differ
 
         // ********************************** General **********************************
-        int number_of_process = 5;                      // number of process
+        int number_of_process = 5;                      // number of process (when chunkedScheduler is false)
+        boolean chunkedScheduler = false;               // small chunks on a work-stealing pool, written in order;
+        // resumes turn it on
+        int number_of_workers = Runtime.getRuntime().availableProcessors();     // threads of chunked scheduler
+        int chunkSize = ChunkedSampleScheduler.DEFAULT_CHUNK_SIZE;              // samples per chunk
+        boolean gzipOutput = false;                     // GZIP compressed text (chunked scheduler only)
+        long checkpointInterval = 300;                  // seconds between checkpoints of seeded chunked runs;
+        // 0 disables. The run can be resumed with --resume <output>.checkpoint
+        boolean quietProgress = false;                  // no progress line, e.g. when output goes to a log.
+        // --quiet overrides it
+        long progressInterval = ProgressReporter.DEFAULT_INTERVAL_MILLIS;   // milliseconds between progress lines
         //INTERPOLATION, CONSERVATIVE = False, False
         int n_samples = 150000;                            // number of samples
+        OutputFormat outputFormat = OutputFormat.TEXT;     // TEXT (one line per sample) or NPY (columns)
+        String labels = "";                             // extra labels of every sample, comma-separated, e.g.
+        // "most_isolated,nearest:3,within:500"; appended to text lines or label_*.npy columns. see SampleLabel
+        boolean occupancyMaps = false;                  // NPY only: sparse per-sample TX occupancy maps of fieldGrid
+        // (occupancy_*.npy, see OccupancyMapFormat). --occupancy overrides it
+        boolean sensorImages = false;                   // NPY only, with the occupancy maps: sensors' received power
+        // as a dense uint8 image quantized above noiseFloor (sensor_image.npy). --sensor-image overrides it
+        SensorEncoding sensorEncoding = SensorEncoding.FLOAT32; // NPY only: FLOAT32 (sensors.npy), INT16 (centi-dB)
+        // or UINT8 (noiseFloor to sensorCeiling) deflated into sensors.qsr. --sensor-encoding <name> overrides it
+        double sensorCeiling = 0.0;                     // highest received power(dB) of the UINT8 encoding
+
+        boolean writeRunReport = true;                  // JSON metrics report next to the output
+        boolean writeStatistics = true;                 // per-sensor statistics for normalization, computed while
+        // writing, in <output>.stats.json
+        String sweepFile = null;                        // datasets generated together, one per line (alpha, std,
+        // sensors, tx; see SweepConfiguration); the above are their defaults. --sweep <file> overrides it
+        String evaluateFile = null;                     // a generated text dataset to be localized with the
+        // grid-search baseline instead of generating (fixed sensors, the above labels). --evaluate <file> overrides it
+
+        // ********************************** Reproducibility **********************************
+        Long runSeed = null;                            // null draws a new seed (printed) if primitiveSamples
+        DatasetShard shard = DatasetShard.WHOLE;        // i-th of N disjoint sample ranges of the run
+        GenerationCheckpoint resumed = null;            // checkpoint of an interrupted run to be continued
+        for (int i = 0; i < args.length; i++) {         // --seed <long> and --shard <i>/<N> override the above
+            switch (args[i]) {
+                case "--seed" -> runSeed = Long.parseLong(args[++i]);
+                case "--shard" -> shard = DatasetShard.parse(args[++i]);
+                case "--sweep" -> sweepFile = args[++i];
+                case "--evaluate" -> evaluateFile = args[++i];
+                case "--quiet" -> quietProgress = true;
+                case "--occupancy" -> occupancyMaps = true;
+                case "--sensor-image" -> sensorImages = true;
+                case "--sensor-encoding" -> sensorEncoding = SensorEncoding.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                case "--resume" -> {                    // seed and shard are taken from the checkpoint
+                    try {
+                        resumed = GenerationCheckpoint.load(Paths.get(args[++i]),
+                                TimeUnit.SECONDS.toMillis(checkpointInterval));
+                    } catch (IOException e) {
+                        throw new IllegalArgumentException("Checkpoint could not be read: " + args[i], e);
+                    }
+                }
+                default -> throw new IllegalArgumentException("Unknown argument: " + args[i]);
+            }
+        }
+        if (evaluateFile != null && (sweepFile != null || resumed != null))
+            throw new IllegalArgumentException("--evaluate can't be combined with --sweep or --resume.");
+        if (resumed != null) {
+            runSeed = resumed.getRunSeed();
+            shard = resumed.getShard();
+            chunkedScheduler = true;                    // only seeded chunked runs are checkpointed
+        }
+        if (runSeed != null || shard.isSharded() || resumed != null || sweepFile != null)
+            primitiveSamples = true;                    // reproducible draws need the primitive samples
+        if (primitiveSamples && noise && propagationModel.equals("log"))
+            logDistanceKernel = true;                   // LogDistancePM draws shadowing from commons' own random
 
         long beginTime = System.currentTimeMillis();
+        GeneratorMetrics metrics = GeneratorMetrics.global();
+        metrics.registerMBean();                        // live view through JMX (e.g. jconsole)
         String sensorPath = String.format("%s%s/%d/sensors.txt", SENSOR_PATH, fieldShape.toString(),
                 number_sensors);
 
@@ -73,7 +162,8 @@ public class LocalizationDatasetGeneratorMain {
                 pm = new LogDistancePM(alpha);
         else if (propagationModel.equals("splat")) {
             pm = new Splat(splat_left_upper_ref);
-            Splat.readPlDictFromJson(SPLAT_DIR + "pl_map/" + splatFileName);
+            if (!splatBinaryCache || !Files.exists(Paths.get(SPLAT_DIR + "pl_map/" + splatCacheFileName)))
+                Splat.readPlDictFromJson(SPLAT_DIR + "pl_map/" + splatFileName);
             Splat.setSdfDir(SPLAT_DIR + "sdf/");
         }
 
@@ -85,77 +175,445 @@ public class LocalizationDatasetGeneratorMain {
             e.printStackTrace();
         }
 
+        // path loss cache shared by all threads
+        PathLossCache pathLossCache = null;
+        if (pm instanceof Splat && splatBinaryCache) {
+            try {
+                long cacheBeginTime = System.currentTimeMillis();
+                pathLossCache = new PathLossCache(Paths.get(SPLAT_DIR + "pl_map/" + splatCacheFileName), cellSize,
+                        txHeight, rxHeight);
+                if (sss != null)
+                    pathLossCache.checkHeights(sss, txHeight);  // otherwise every lookup would bypass the cache
+                System.out.println(String.format("Path loss cache: %,d entries loaded in %dms", pathLossCache.size(),
+                        System.currentTimeMillis() - cacheBeginTime));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        LocalizationDatasetGeneratorApp.setPathLossCache(pathLossCache);
+        metrics.setPathLossCache(pathLossCache);
+        SplatExecutionService splatService = null;
+        if (pathLossCache != null && splat_processes > 0) {
+            Splat splatPm = (Splat) pm;
+            splatService = new SplatExecutionService(pathLossCache,
+                    () -> PathLossFunction.of(new Splat(splatPm), cellSize), splat_processes);
+            LocalizationDatasetGeneratorApp.setSharedPathLoss(splatService);
+            // gain tables are filled from a single thread; prefetching first runs their links on the whole pool
+            boolean gainTableLinks = (useGainTable || evaluateFile != null) && sweepFile == null;
+            if ((splatPrefetch || gainTableLinks) && !changingSss && sss != null) {
+                long prefetchBeginTime = System.currentTimeMillis();
+                long prefetched = splatService.prefetch(fieldGrid, sss, txHeight);
+                System.out.println(String.format("Prefetch: %,d links computed in %dms", prefetched,
+                        System.currentTimeMillis() - prefetchBeginTime));
+            }
+        }
+
+        // log-distance kernel; vectorized if built with the vector profile and run with jdk.incubator.vector
+        LogDistanceKernel logKernel = null;
+        if (logDistanceKernel && pm instanceof LogDistancePM) {
+            logKernel = LogDistanceKernel.fit(new LogDistancePM(alpha), alpha, noise ? std : 0.0, cellSize,
+                    fieldGrid, txHeight, rxHeight, vectorizedKernel);
+            if (logKernel == null) {
+                Logger logger = Logger.getLogger(LogDistanceKernel.class.getName());
+                logger.warning("Log-distance kernel does not match the propagation model. The model is used.");
+            }
+            else
+                System.out.println(String.format("Log-distance kernel: %s", logKernel.isVectorized() ?
+                        "vectorized" : "scalar"));
+        }
+        LocalizationDatasetGeneratorApp.setLogDistanceKernel(logKernel);
+
+        // cell-to-sensor gain table, shared (read-only) by all threads
+        GainTable gainTable = null;
+        if ((useGainTable || evaluateFile != null) && !changingSss && sss != null &&
+                sweepFile == null) {                    // sweeps build their own
+            long tableBeginTime = System.currentTimeMillis();
+            if (logKernel != null)
+                gainTable = new GainTable(logKernel, sss, fieldGrid, txHeight, noise ? std : 0.0);
+            else if (pm instanceof LogDistancePM)
+                gainTable = new GainTable(new LogDistancePM(alpha), sss, fieldGrid, cellSize, txHeight,
+                        noise ? std : 0.0);     // mean path loss is cached; shadowing is drawn per sample
+            else if (splatService != null)
+                gainTable = new GainTable(splatService, sss, fieldGrid, txHeight, 0.0);
+            else if (pathLossCache != null)
+                gainTable = new GainTable(new CachedPathLoss(pathLossCache, PathLossFunction.of(pm, cellSize),
+                        cellSize), sss, fieldGrid, txHeight, 0.0);
+            else
+                gainTable = new GainTable(pm, sss, fieldGrid, cellSize, txHeight, 0.0);
+            System.out.println(String.format("Gain table (%s cells x %d sensors) computed in %dms",
+                    fieldGrid, sss.length, System.currentTimeMillis() - tableBeginTime));
+        }
+        if (primitiveSamples && noise && pm instanceof LogDistancePM && logKernel == null && gainTable == null &&
+                sweepFile == null)                      // sweeps build their own tables
+            throw new IllegalStateException("Seeded runs of a noisy log-distance model need the log-distance kernel " +
+                    "or a gain table (useGainTable, fixed sensors); the model's own shadowing is not reproducible.");
+        boolean correlated = noise && shadowingCorrelation > 0 && pm instanceof LogDistancePM;
+        // samples computed by the vectorized kernel differ slightly from scalar ones; recorded in manifests and
+        // checkpoints so they are not mixed. Gain tables only use the kernel's scalar path loss
+        boolean vectorizedRun = logKernel != null && logKernel.isVectorized() && gainTable == null;
+        if (correlated && gainTable == null && sweepFile == null)
+            throw new IllegalStateException("Correlated shadowing needs a gain table (useGainTable, fixed sensors).");
+        if (correlated && gainTable != null) {
+            long shadowingBeginTime = System.currentTimeMillis();
+            gainTable = gainTable.correlated(new CorrelatedShadowing(sss, cellSize, shadowingCorrelation));
+            System.out.println(String.format("Shadowing correlation (%.0fm) computed in %dms", shadowingCorrelation,
+                    System.currentTimeMillis() - shadowingBeginTime));
+        }
+
+        // localizing a generated dataset with the same sensors and model instead of generating
+        if (evaluateFile != null) {
+            if (gainTable == null)
+                throw new IllegalStateException("Evaluation needs fixed sensors (changingSss false) and their " +
+                        "sensors file.");
+            GridSearchLocalizer localizer = new GridSearchLocalizer(gainTable, sss, noiseFloor, minTxPower,
+                    maxTxPower, maxTxNumber);
+            try {
+                LocalizationEvaluator.Report report = new LocalizationEvaluator(localizer, cellSize,
+                        number_of_workers, SampleLabel.parseList(labels, cellSize)).evaluate(Paths.get(evaluateFile));
+                System.out.println(String.format("Grid-search localization of %s:%n%s", evaluateFile, report));
+            } catch (IOException e) {
+                Logger logger = Logger.getLogger(LocalizationEvaluator.class.getName());
+                logger.warning("Evaluation failed: " + e.getMessage());
+            }
+            if (splatService != null)
+                splatService.close();
+            if (pathLossCache != null) {
+                try {
+                    pathLossCache.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            return;
+        }
+
         // ****************************** creating threads ************************
+        LocalizationDatasetGeneratorApp.setOutputFormat(outputFormat);
+        LocalizationDatasetGeneratorApp.setLabels(SampleLabel.parseList(labels, cellSize));
+        LocalizationDatasetGeneratorApp.setFieldGrid(primitiveSamples ? fieldGrid : null);
+        if ((occupancyMaps || sensorImages) && outputFormat != OutputFormat.NPY)
+            Logger.getLogger(LocalizationDatasetGeneratorMain.class.getName())
+                    .warning("Occupancy maps and sensor images are only written in NPY format.");
+        LocalizationDatasetGeneratorApp.setOccupancyMaps((occupancyMaps || sensorImages) &&
+                outputFormat == OutputFormat.NPY ?
+                new OccupancyMapFormat(fieldGrid, sensorImages, noiseFloor) : null);
+        if (sensorEncoding != SensorEncoding.FLOAT32 && outputFormat != OutputFormat.NPY)
+            Logger.getLogger(LocalizationDatasetGeneratorMain.class.getName())
+                    .warning("Quantized sensors are only written in NPY format.");
+        LocalizationDatasetGeneratorApp.setQuantizedSensors(outputFormat == OutputFormat.NPY ?
+                QuantizedSensorFormat.of(sensorEncoding, noiseFloor, sensorCeiling) : null);
+        if (primitiveSamples) {
+            if (runSeed == null)
+                runSeed = SampleRandom.newRunSeed();
+            System.out.println(String.format("Run seed: %d, shard %s", runSeed, shard));
+        }
+        LocalizationDatasetGeneratorApp.setRunSeed(runSeed);
+        long firstSample = shard.firstSample(n_samples);          // samples of this shard are
+        int shardSamples = (int) shard.sampleCount(n_samples);      // firstSample, firstSample + 1, ...
         ConcurrentHashMap<Integer, HashMap<String, Double>> resultDict = new ConcurrentHashMap<>();
         int[] threadSampleNum = new int[number_of_process];
         for (int i = 0; i < number_of_process; i++)
-            threadSampleNum[i] = n_samples / number_of_process;         // equally distributed among threads
-        threadSampleNum[0] += n_samples - (n_samples / number_of_process) * number_of_process;
+            threadSampleNum[i] = shardSamples / number_of_process;         // equally distributed among threads
+        threadSampleNum[0] += shardSamples - (shardSamples / number_of_process) * number_of_process;
         // remaining will be assigned to the first one
-        int fileAppendix =
-                ThreadLocalRandom.current().nextInt(100000);      // a random value will be used to distinguish
-        // created file by different run
-        Thread[] threads = new Thread[number_of_process];               // threads
-
-        for (int i = 0; i < number_of_process; i++){
-            // creating new thread
-
-            SpectrumSensor[] threadCopySss = new SpectrumSensor[sss.length];
-            for (int ssId = 0; ssId < sss.length; ssId++)
-                threadCopySss[ssId] = new SpectrumSensor(sss[ssId]);
-
-            PropagationModel threadPM;
-            if (pm instanceof LogDistancePM logDistancePM)
-                threadPM = new LogDistancePM(logDistancePM);
-            else if (pm instanceof Splat splat)
-                threadPM = new Splat(splat);
-            else
-                throw new IllegalArgumentException("Constructor is not valid.");
+        String fileAppendix = runSeed != null ? String.format("%x_%d", runSeed, shard.getIndex()) :
+                Integer.toString(ThreadLocalRandom.current().nextInt(100000));
+        // a random value will be used to distinguish created file by different run
+        // chunked scheduler writes text samples straight into the final file; npy columns are written per thread
+        boolean chunked = chunkedScheduler && outputFormat == OutputFormat.TEXT;
+        String output_format = outputName(n_samples, minTxNUmber, maxTxNumber, number_sensors, fieldShape,
+                propagationModel, alpha, noise, std, correlated ? shadowingCorrelation : 0.0, outputFormat, runSeed,
+                shard) + (chunked && gzipOutput ? ".gz" : "");
+        // checkpoints of seeded chunked runs; the output name covers most of the configuration a resumed run
+        // should share with the interrupted one
+        GenerationCheckpoint checkpoint = null;
+        if (resumed != null) {
+            if (!chunked || runSeed == null || sweepFile != null)
+                throw new IllegalStateException("Only seeded runs of the chunked scheduler with TEXT output can be " +
+                        "resumed.");
+            if (!resumed.getOutput().equals(output_format) || resumed.getTotalSamples() != n_samples ||
+                    resumed.getChunkSize() != chunkSize || resumed.isGzip() != gzipOutput ||
+                    resumed.isVectorizedKernel() != vectorizedRun)
+                throw new IllegalStateException(String.format("Checkpoint was saved by a run with another " +
+                        "configuration (%s, chunks of %d samples).", resumed.getOutput(), resumed.getChunkSize()));
+            checkpoint = resumed;
+            System.out.println(String.format("Resuming %s: %,d of %,d samples written", output_format,
+                    resumed.getWrittenSamples(), shardSamples));
+        }
+        else if (sweepFile != null)
+            checkpoint = null;                          // sweeps are not checkpointed
+        else if (chunked && runSeed != null && checkpointInterval > 0)
+            checkpoint = new GenerationCheckpoint(Paths.get(LocalizationDatasetGeneratorApp.getDataDir(),
+                    output_format + ".checkpoint"), output_format, runSeed, shard, n_samples, chunkSize, gzipOutput,
+                    vectorizedRun, TimeUnit.SECONDS.toMillis(checkpointInterval));
+        else if (checkpointInterval > 0 && chunkedScheduler) {
+            Logger logger = Logger.getLogger(GenerationCheckpoint.class.getName());
+            logger.warning("Checkpoints need a seeded run of the chunked scheduler with TEXT output. " +
+                    "The run cannot be resumed.");
+        }
+        if (checkpoint != null && pathLossCache != null)
+            checkpoint.addHook(pathLossCache::force);   // links learned so far are on disk before every checkpoint
 
-            Shape threadShape;
-            if (fieldShape instanceof Rectangle rectangle)
-                threadShape = new Rectangle(rectangle);
-            else if (fieldShape instanceof Square square)
-                threadShape = new Square(square);
-            else
-                throw new IllegalArgumentException("Shape is not valid.");
-            threads[i] = new Thread(new LocalizationDatasetGeneratorApp(threadSampleNum[i], Integer.toString(fileAppendix),
-                    resultDict, threadPM, threadCopySss, threadShape, cellSize,
-                    minTxNUmber, maxTxNumber, txHeight, minTxPower, maxTxPower, changingSss, noiseFloor));
-            threads[i].start();
+        // one progress line for all workers, rendered by its own thread
+        ProgressReporter progress = ProgressReporter.global();
+        progress.start(shardSamples, progressInterval, quietProgress);
+        long chunkedWritten = 0;                        // including samples written before a resumed checkpoint
+        List<DatasetStatistics> statistics = new ArrayList<>();      // one accumulator per app
+        if (sweepFile != null) {
+            // datasets of the sweep share TX draws, sensors (smaller sets are columns of larger ones) and tables
+            if (!primitiveSamples || changingSss || outputFormat != OutputFormat.TEXT)
+                throw new IllegalStateException("Sweeps need primitiveSamples, fixed sensors and TEXT output.");
+            List<SweepConfiguration> configurations;
+            try {
+                configurations = SweepConfiguration.read(Paths.get(sweepFile), new SweepConfiguration(alpha,
+                        noise ? std : 0.0, number_sensors, minTxNUmber, maxTxNumber));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Sweep file could not be read: " + sweepFile, e);
+            }
+            DatasetSweep sweep = new DatasetSweep(configurations, count -> readSensors(String.format(
+                    "%s%s/%d/sensors.txt", SENSOR_PATH, fieldShape.toString(), count)), fieldGrid, txHeight,
+                    minTxPower, maxTxPower, noiseFloor, runSeed);
+            long tableBeginTime = System.currentTimeMillis();
+            int tables;
+            if (pm instanceof LogDistancePM) {
+                List<DistanceTable> distanceTables = new ArrayList<>();     // shared by all alphas
+                boolean kernels = logDistanceKernel;
+                CorrelatedShadowing shadowing = shadowingCorrelation > 0 ? new CorrelatedShadowing(
+                        sweep.getSensors(), cellSize, shadowingCorrelation) : null;   // shared by all alphas and stds
+                Function<SweepConfiguration, GainTable> meanTables = configuration -> {
+                    LogDistancePM meanModel = new LogDistancePM(configuration.getAlpha());
+                    LogDistanceKernel kernel = kernels ? LogDistanceKernel.fit(meanModel, configuration.getAlpha(),
+                            0.0, cellSize, fieldGrid, txHeight, rxHeight, vectorizedKernel) : null;
+                    if (kernel == null)
+                        return new GainTable(meanModel, sweep.getSensors(), fieldGrid, cellSize, txHeight,
+                                configuration.getStd());
+                    DistanceTable distances = distanceTables.stream().filter(table -> table.matches(kernel))
+                            .findFirst().orElse(null);
+                    if (distances == null) {
+                        distances = new DistanceTable(sweep.getSensors(), fieldGrid, cellSize, txHeight,
+                                kernel.isHeights(), kernel.getMinDistance());
+                        distanceTables.add(distances);
+                    }
+                    return new GainTable(kernel, distances, configuration.getStd());
+                };
+                tables = sweep.buildGainTables(configuration -> {
+                    GainTable table = meanTables.apply(configuration);
+                    return shadowing != null && configuration.getStd() > 0 ? table.correlated(shadowing) : table;
+                });
+            }
+            else {                                      // SPLAT! path loss does not depend on alpha or std
+                GainTable splatTable;
+                if (pathLossCache != null)
+                    pathLossCache.checkHeights(sweep.getSensors(), txHeight);
+                if (splatService != null) {
+                    long prefetched = splatService.prefetch(fieldGrid, sweep.getSensors(), txHeight);
+                    System.out.println(String.format("Prefetch: %,d links computed", prefetched));
+                    splatTable = new GainTable(splatService, sweep.getSensors(), fieldGrid, txHeight, 0.0);
+                }
+                else if (pathLossCache != null)
+                    splatTable = new GainTable(new CachedPathLoss(pathLossCache, PathLossFunction.of(pm, cellSize),
+                            cellSize), sweep.getSensors(), fieldGrid, txHeight, 0.0);
+                else
+                    splatTable = new GainTable(pm, sweep.getSensors(), fieldGrid, cellSize, txHeight, 0.0);
+                tables = sweep.buildGainTables(configuration -> splatTable);
+            }
+            System.out.println(String.format("Sweep: %d datasets, %d sensors, %d TX draws and %d gain tables per " +
+                            "sample (tables computed in %dms)", configurations.size(), sweep.getSensors().length,
+                    sweep.getDrawGroupCount(), tables, System.currentTimeMillis() - tableBeginTime));
+            String[] sweepOutputs = new String[configurations.size()];
+            Path[] sweepPaths = new Path[configurations.size()];
+            for (int dataset = 0; dataset < configurations.size(); dataset++) {
+                SweepConfiguration configuration = configurations.get(dataset);
+                sweepOutputs[dataset] = outputName(n_samples, configuration.getMinTxNum(),
+                        configuration.getMaxTxNum(), configuration.getSensorCount(), fieldShape, propagationModel,
+                        configuration.getAlpha(), configuration.getStd() > 0, configuration.getStd(),
+                        pm instanceof LogDistancePM ? shadowingCorrelation : 0.0, outputFormat, runSeed, shard) +
+                        (gzipOutput ? ".gz" : "");
+                sweepPaths[dataset] = Paths.get(LocalizationDatasetGeneratorApp.getDataDir(), sweepOutputs[dataset]);
+                if (Arrays.asList(sweepOutputs).subList(0, dataset).contains(sweepOutputs[dataset]))
+                    throw new IllegalArgumentException("Sweep has the same dataset twice: " + configuration);
+            }
+            try {
+                chunkedWritten = sweep.run(sweepPaths, firstSample, shardSamples, chunkSize, number_of_workers,
+                        gzipOutput);
+                progress.stop();
+                for (int dataset = 0; dataset < configurations.size(); dataset++) {
+                    System.out.println("File " + sweepOutputs[dataset] + " saved at: " +
+                            LocalizationDatasetGeneratorApp.getDataDir());
+                    shard.writeManifest(Paths.get(LocalizationDatasetGeneratorApp.getDataDir(),
+                            sweepOutputs[dataset] + ".manifest.json"), sweepOutputs[dataset], outputFormat, runSeed,
+                            n_samples, chunkedWritten, false);       // tables only use the scalar path loss
+                    if (writeStatistics)
+                        sweep.getStatistics(dataset).writeJson(Paths.get(LocalizationDatasetGeneratorApp.getDataDir(),
+                                sweepOutputs[dataset] + ".stats.json"), sweepOutputs[dataset]);
+                }
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+            output_format = Paths.get(sweepFile).getFileName() + "_seed" + Long.toUnsignedString(runSeed) +
+                    (shard.isSharded() ? "_shard" + shard.getIndex() + "of" + shard.getCount() : "");
+            // names the run report
+        }
+        else if (chunked) {
+            LocalizationDatasetGeneratorApp[] workers = new LocalizationDatasetGeneratorApp[number_of_workers];
+            for (int i = 0; i < number_of_workers; i++)
+                workers[i] = new LocalizationDatasetGeneratorApp(0, fileAppendix,
+                        resultDict, copyPropagationModel(pm), copySensors(sss), copyShape(fieldShape), cellSize,
+                        minTxNUmber, maxTxNumber, txHeight, minTxPower, maxTxPower, changingSss, noiseFloor,
+                        gainTable);
+            for (LocalizationDatasetGeneratorApp worker : workers)
+                statistics.add(worker.getStatistics());
+            try {
+                chunkedWritten = new ChunkedSampleScheduler(firstSample, shardSamples, chunkSize, number_of_workers)
+                        .run(workers, Paths.get(LocalizationDatasetGeneratorApp.getDataDir(), output_format),
+                                gzipOutput, checkpoint);
+                progress.stop();
+                if (chunkedWritten < shardSamples)
+                    System.out.println(String.format("%,d samples failed and were skipped",
+                            shardSamples - chunkedWritten));
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                if (checkpoint != null && Files.exists(checkpoint.getFile()))
+                    System.out.println("The run can be resumed with --resume " + checkpoint.getFile());
+                checkpoint = null;      // kept for resuming
+            }
+        }
+        else {
+            Thread[] threads = new Thread[number_of_process];               // threads
+            long threadFirstSample = firstSample;                           // threads take consecutive ranges
+
+            for (int i = 0; i < number_of_process; i++){
+                // creating new thread
+                LocalizationDatasetGeneratorApp app = new LocalizationDatasetGeneratorApp(threadSampleNum[i],
+                        fileAppendix, resultDict, copyPropagationModel(pm), copySensors(sss),
+                        copyShape(fieldShape), cellSize, minTxNUmber, maxTxNumber, txHeight, minTxPower, maxTxPower,
+                        changingSss, noiseFloor, gainTable);
+                app.setNextSampleIndex(threadFirstSample);
+                statistics.add(app.getStatistics());
+                threadFirstSample += threadSampleNum[i];
+                threads[i] = new Thread(app);
+                threads[i].start();
+            }
+
+            // waiting for all the threads to finish their jobs
+            for (Thread thread : threads)
+                thread.join();
         }
+        progress.stop();                                // also if a run above failed; stopping again does nothing
 
-        // waiting for all the threads to finish their jobs
-        for (Thread thread : threads)
-            thread.join();
+        // statistics of the threads
+        double samplesDone = 0;
+        double samplesFailed = 0;
+        for (HashMap<String, Double> threadInfo : resultDict.values()) {
+            samplesDone += threadInfo.getOrDefault("Samples", 0.0);
+            samplesFailed += threadInfo.getOrDefault("Failed Samples", 0.0);
+        }
+        if (sweepFile == null)
+            System.out.println(String.format("\n%,.0f samples generated by %d workers (%,.0f failed)", samplesDone,
+                    resultDict.size(), samplesFailed));
+        System.out.println(metrics.summary());
 
         // more for splat
         if (propagationModel.contains("splat")){
-            long fetchNum = 0;           // number of using hash map
-            long execNum = 0;            // number of executing splat command line
-            long fetchTime = 0;          // duration(milliseconds) of fetching
-            long execTime = 0;           // duration(milliseconds) of executing
-            for (HashMap<String, Double> threadInfo : resultDict.values()) {
-                if (threadInfo.containsKey("Fetch Number"))
-                    fetchNum += threadInfo.get("Fetch Number").longValue();
-                if (threadInfo.containsKey("Execution Number"))
-                    execNum += threadInfo.get("Execution Number").longValue();
-                if (threadInfo.containsKey("Fetch Time"))
-                    fetchTime += threadInfo.get("Fetch Time").longValue();
-                if (threadInfo.containsKey("Execution Time"))
-                    execTime += threadInfo.get("Execution Time").longValue();
-            }
-            System.out.println(String.format("Fetching: %,d times (%fms per each)\n" +
-                            "Execution Time: %,d times (%.2fms per each)",
-                    fetchNum, (double) fetchTime / fetchNum, execNum, (double) execTime / execNum));
-
+            if (splatService != null) {
+                System.out.println(String.format("SPLAT! service: %,d executions (%.2fms per each), " +
+                                "%,d requests shared an in-flight execution",
+                        splatService.getExecutions(), splatService.getExecutionNanos() / 1e6 /
+                                Math.max(1, splatService.getExecutions()), splatService.getSharedWaits()));
+                splatService.close();
+            }
             // saving new pl map
-            Splat.writePlDictToJson(SPLAT_DIR + "pl_map/" + splatFileName + ".new");
+            if (pathLossCache != null) {
+                System.out.println(String.format("Path loss cache: %,d entries, %,d hits, %,d misses",
+                        pathLossCache.size(), pathLossCache.getHits(), pathLossCache.getMisses()));
+                try {
+                    pathLossCache.close();      // entries have been appended to the store during the run
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            else
+                Splat.writePlDictToJson(SPLAT_DIR + "pl_map/" + splatFileName + ".new");
+        }
+
+        // merging result file generated by threads into one; chunked scheduler has already written one file
+        if (chunked || sweepFile != null)
+            System.out.println("Samples were written in order; no merge needed");
+        else if (outputFormat == OutputFormat.NPY)
+            mergeNpyDirs(LocalizationDatasetGeneratorApp.getDataDir(), "localization_" + fileAppendix + "_",
+                    LocalizationDatasetGeneratorApp.getDataDir(), output_format, number_sensors, maxTxNumber,
+                    changingSss, LocalizationDatasetGeneratorApp.getLabels(),
+                    LocalizationDatasetGeneratorApp.getOccupancyMaps(),
+                    LocalizationDatasetGeneratorApp.getQuantizedSensors());
+        else
+            mergeFiles(LocalizationDatasetGeneratorApp.getDataDir(), "localization_" + fileAppendix + "_",
+                    LocalizationDatasetGeneratorApp.getDataDir(), output_format);    // merging pu related files
+        if (sweepFile == null)
+            System.out.println("File "  + output_format + " saved at: " +
+                    LocalizationDatasetGeneratorApp.getDataDir());
+        if (runSeed != null && sweepFile == null) {         // sweeps write one manifest per dataset
+            try {
+                shard.writeManifest(Paths.get(LocalizationDatasetGeneratorApp.getDataDir(),
+                        output_format + ".manifest.json"), output_format, outputFormat, runSeed, n_samples,
+                        chunked ? chunkedWritten : (long) samplesDone, vectorizedRun);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (writeStatistics && sweepFile == null) {     // sweeps write one statistics file per dataset
+            if (resumed != null) {
+                Logger logger = Logger.getLogger(DatasetStatistics.class.getName());
+                logger.warning("Statistics of a resumed run would only cover samples generated after the checkpoint." +
+                        " They are not written.");
+            }
+            else {
+                try {
+                    DatasetStatistics.merged(statistics).writeJson(Paths.get(
+                            LocalizationDatasetGeneratorApp.getDataDir(), output_format + ".stats.json"),
+                            output_format);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        if (checkpoint != null) {
+            try {
+                Files.deleteIfExists(checkpoint.getFile());     // the run is complete
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (writeRunReport) {
+            Map<String, Number> configuration = new LinkedHashMap<>();
+            configuration.put("requested_samples", shardSamples);
+            if (runSeed != null)
+                configuration.put("run_seed", runSeed);
+            configuration.put("workers", chunked ? number_of_workers : number_of_process);
+            configuration.put("sensors", number_sensors);
+            configuration.put("splat_processes", splatService != null ? splat_processes : 0);
+            try {
+                metrics.writeReport(Paths.get(LocalizationDatasetGeneratorApp.getDataDir(),
+                        output_format + ".report.json"), configuration);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
 
-        // merging result file generated by threads into one
-        String date = new SimpleDateFormat("_yyyy_MM_dd_HH_mm").format(new Date());
-        String output_format = n_samples + "_" +
+        long duration = System.currentTimeMillis() - beginTime;
+        System.out.println(String.format("Duration = %d:%02d:%02d", TimeUnit.MILLISECONDS.toHours(duration),
+                TimeUnit.MILLISECONDS.toMinutes(duration) % TimeUnit.HOURS.toMinutes(1),
+                TimeUnit.MILLISECONDS.toSeconds(duration) % TimeUnit.MINUTES.toSeconds(1)));
+    }
+
+    // name of the output file (or directory for npy) based on the run's parameters
+    private static String outputName(int n_samples, int minTxNUmber, int maxTxNumber, int number_sensors,
+                                     Shape fieldShape, String propagationModel, double alpha, boolean noise,
+                                     double std, double shadowingCorrelation, OutputFormat outputFormat,
+                                     Long runSeed, DatasetShard shard){
+        // seeded runs are named after the seed, so every shard of a run (on any machine) has a predictable name
+        String date = runSeed != null ? "_seed" + Long.toUnsignedString(runSeed) :
+                new SimpleDateFormat("_yyyy_MM_dd_HH_mm").format(new Date());
+        return n_samples + "_" +
                 (minTxNUmber != maxTxNumber ?
                         "min" + minTxNUmber + "_max" + maxTxNumber :
                         maxTxNumber) + "TXs" + "_" +
@@ -164,18 +622,85 @@ public class LocalizationDatasetGeneratorMain {
                 (propagationModel.toLowerCase().contains("log") ?
                         "_alpha" + alpha : "") +
                 (noise && propagationModel.contains("log") ?
-                        "_noisy_std" + std:"")
-                + date + ".txt";
+                        "_noisy_std" + std:"") +
+                (noise && shadowingCorrelation > 0 ? "_corr" + shadowingCorrelation : "")
+                + date + (shard.isSharded() ? "_shard" + shard.getIndex() + "of" + shard.getCount() : "") +
+                (outputFormat == OutputFormat.TEXT ? ".txt" : "_npy");
+    }
+
+    // sensors of a file; null if it can't be read
+    private static SpectrumSensor[] readSensors(String sensorPath){
+        try {
+            return SpectrumSensor.SensorReader(sensorPath);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
 
-        mergeFiles(LocalizationDatasetGeneratorApp.getDataDir(), "localization_" + fileAppendix, // merging pu related files
-                LocalizationDatasetGeneratorApp.getDataDir(), output_format);
-        System.out.println("File "  + output_format + " saved at: " +
-                LocalizationDatasetGeneratorApp.getDataDir());
+    // a copy of sensors for a thread
+    private static SpectrumSensor[] copySensors(SpectrumSensor[] sss){
+        SpectrumSensor[] threadCopySss = new SpectrumSensor[sss.length];
+        for (int ssId = 0; ssId < sss.length; ssId++)
+            threadCopySss[ssId] = new SpectrumSensor(sss[ssId]);
+        return threadCopySss;
+    }
 
-        long duration = System.currentTimeMillis() - beginTime;
-        System.out.println(String.format("Duration = %d:%02d:%02d", TimeUnit.MILLISECONDS.toHours(duration),
-                TimeUnit.MILLISECONDS.toMinutes(duration) % TimeUnit.HOURS.toMinutes(1),
-                TimeUnit.MILLISECONDS.toSeconds(duration) % TimeUnit.MINUTES.toSeconds(1)));
+    // a copy of propagation model for a thread
+    private static PropagationModel copyPropagationModel(PropagationModel pm){
+        if (pm instanceof LogDistancePM logDistancePM)
+            return new LogDistancePM(logDistancePM);
+        else if (pm instanceof Splat splat)
+            return new Splat(splat);
+        else
+            throw new IllegalArgumentException("Constructor is not valid.");
+    }
+
+    // a copy of shape for a thread
+    private static Shape copyShape(Shape fieldShape){
+        if (fieldShape instanceof Rectangle rectangle)
+            return new Rectangle(rectangle);
+        else if (fieldShape instanceof Square square)
+            return new Square(square);
+        else
+            throw new IllegalArgumentException("Shape is not valid.");
+    }
+
+    // thread id of a per-thread output, i.e. the number after the last '_'; names alone sort _10 before _2
+    private static int threadId(File file){
+        String name = file.getName();
+        int end = name.lastIndexOf('.') > name.lastIndexOf('_') ? name.lastIndexOf('.') : name.length();
+        return Integer.parseInt(name.substring(name.lastIndexOf('_') + 1, end));
+    }
+
+    // merging npy datasets from multiple threads
+    private static void mergeNpyDirs(String srcPath, String pattern, String destPath, String dirName,
+                                     int sensorCount, int maxTxNum, boolean sssLocation,
+                                     List<SampleLabel> labels, OccupancyMapFormat occupancy,
+                                     QuantizedSensorFormat quantizedSensors){
+        File dir = new File(srcPath);
+        File[] parts = dir.listFiles((d, name) -> name.startsWith(pattern) && new File(d, name).isDirectory());
+        if (parts == null || parts.length == 0){
+            Logger logger = Logger.getLogger(SpectrumSensor.class.getName());
+            logger.warning("Merging outputs: No such directories was found");
+            return;
+        }
+        Arrays.sort(parts, Comparator.comparingInt(LocalizationDatasetGeneratorMain::threadId)); // in thread order
+        try {
+            NpyDatasetWriter.merge(Arrays.stream(parts).map(File::toPath).collect(Collectors.toList()),
+                    Paths.get(destPath, dirName), sensorCount, maxTxNum, sssLocation, labels, occupancy,
+                    quantizedSensors);
+            for (File part : parts) {
+                File[] partFiles = part.listFiles();
+                if (partFiles != null)
+                    for (File partFile : partFiles)
+                        partFile.delete();
+                part.delete();
+            }
+        } catch (IOException e) {
+            Logger logger = Logger.getLogger(SpectrumSensor.class.getName());
+            logger.warning("Merging npy outputs failed due to I/O error: " + Arrays.toString(e.getStackTrace()));
+        }
     }
 
     // merging results from multiple threads
@@ -200,18 +725,21 @@ public class LocalizationDatasetGeneratorMain {
             logger.warning("Merging outputs: No such files was found");
             return;
         }
-        Arrays.sort(files); // sorting files to avid misplacement
-        // merging files
+        Arrays.sort(files, Comparator.comparingInt(LocalizationDatasetGeneratorMain::threadId)); // in thread order
+        // merging files; contents are concatenated as is with FileChannel.transferTo
         File outputFile = new File(destPath + fileName);
-        try(PrintWriter printWriter = new PrintWriter(outputFile)){
+        try(FileChannel outputChannel = FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
             for (File file : files){
-                Scanner fileScanner = new Scanner(file);
-                while (fileScanner.hasNextLine())
-                    printWriter.println(fileScanner.nextLine());
-                fileScanner.close();
+                try(FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+                    long position = 0;
+                    long size = fileChannel.size();
+                    while (position < size)
+                        position += fileChannel.transferTo(position, size - position, outputChannel);
+                }
                 file.delete();
             }
-        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
             Logger logger = Logger.getLogger(SpectrumSensor.class.getName());
             logger.warning("Merging output failed due to I/O error creating the file: " +
                     Arrays.toString(e.getStackTrace()));
@@ -0,0 +1,275 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collector;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+
+/**Localizes every sample of a generated text dataset (optionally GZIP compressed) with a GridSearchLocalizer and
+ * reports how far the estimates are from the true TXs. Lines are read in batches and localized in parallel on a
+ * dedicated pool. The dataset should have been written with fixed sensors (no sensor locations in the lines)
+ * matching the localizer's gain table and with the given labels, whose columns after the TX list are skipped; a line
+ * of any other length fails the evaluation. Estimated and true TXs are paired greedily, closest pair first; the rest
+ * are misses and false alarms.*/
+public class LocalizationEvaluator {
+    private static final int BATCH_LINES = 4096;
+
+    private final GridSearchLocalizer localizer;
+    private final int cellSize;             // cell size in square; errors are reported in meter
+    private final int parallelism;          // threads localizing a batch
+    private final int labelWidth;           // values of the labels appended to every line
+    private final ThreadLocal<Scratch> scratches = ThreadLocal.withInitial(Scratch::new);
+
+    /**LocalizationEvaluator constructor
+     * @param localizer localizer built for the dataset's sensors and propagation model
+     * @param cellSize cell size in square
+     * @param parallelism number of threads
+     * @param labels labels the dataset was written with; empty for none*/
+    public LocalizationEvaluator(GridSearchLocalizer localizer, int cellSize, int parallelism,
+                                 List<SampleLabel> labels){
+        super();
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("Parallelism should be positive.");
+        this.localizer = localizer;
+        this.cellSize = cellSize;
+        this.parallelism = parallelism;
+        this.labelWidth = labels.isEmpty() ? 0 : new SampleLabeler(labels).width(localizer.getSensorCount());
+    }
+
+    /**LocalizationEvaluator constructor for a dataset without labels
+     * @param localizer localizer built for the dataset's sensors and propagation model
+     * @param cellSize cell size in square
+     * @param parallelism number of threads*/
+    public LocalizationEvaluator(GridSearchLocalizer localizer, int cellSize, int parallelism){
+        this(localizer, cellSize, parallelism, List.of());
+    }
+
+    /**Evaluates a dataset file; files ending with .gz are decompressed.
+     * @param dataset dataset file written by this generator
+     * @return localization errors of all samples*/
+    public Report evaluate(Path dataset) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+        long beginTime = System.nanoTime();
+        Report report = new Report();
+        try (InputStream in = dataset.toString().endsWith(".gz") ?
+                new GZIPInputStream(Files.newInputStream(dataset), 1 << 16) : Files.newInputStream(dataset);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, Charset.defaultCharset()),
+                     1 << 20)) {
+            List<String> batch = new ArrayList<>(BATCH_LINES);
+            long lineNumber = 0;
+            String line;
+            while (true) {
+                line = reader.readLine();
+                if (line != null && !line.isBlank()) {
+                    batch.add(line);
+                    if (batch.size() < BATCH_LINES)
+                        continue;
+                }
+                if (!batch.isEmpty()) {
+                    report.merge(evaluate(pool, batch, lineNumber));
+                    lineNumber += batch.size();
+                    batch.clear();
+                }
+                if (line == null)
+                    break;
+            }
+        } finally {
+            pool.shutdown();
+        }
+        report.nanos = System.nanoTime() - beginTime;
+        return report;
+    }
+
+    // localizing a batch of lines in parallel
+    private Report evaluate(ForkJoinPool pool, List<String> batch, long firstLine) throws IOException {
+        try {
+            return pool.submit(() -> IntStream.range(0, batch.size()).parallel().boxed().collect(Collector.of(
+                    Report::new, (report, i) -> report.add(batch.get(i), firstLine + i + 1),
+                    (left, right) -> { left.merge(right); return left; }))).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Evaluation was interrupted.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IllegalArgumentException)
+                throw new IOException(e.getCause().getMessage(), e.getCause());
+            throw new IOException("Evaluation failed.", e.getCause());
+        }
+    }
+
+    /**Localization errors of a set of samples. Errors are in meter and powers in dB.*/
+    public class Report {
+        private long samples;
+        private long exactCount;            // samples whose number of TXs was estimated right
+        private long trueTxs;
+        private long estimatedTxs;
+        private double[] errors = new double[256];      // distance of every matched pair
+        private int matched;
+        private double powerErrorSum;       // sum of absolute power errors of matched pairs
+        private long nanos;                 // wall time of the evaluation
+
+        private Report(){ }
+
+        // localizing the sample of a line
+        private void add(String line, long lineNumber){
+            int sensorCount = localizer.getSensorCount();
+            String[] values = line.split(",");
+            if (values.length < sensorCount + 4)
+                throw new IllegalArgumentException(String.format("Line %d has %d values; %d sensors expected.",
+                        lineNumber, values.length, sensorCount));
+            Scratch scratch = scratches.get();
+            for (int ssId = 0; ssId < sensorCount; ssId++)
+                scratch.readings[ssId] = values[ssId].equals("-inf") ? Double.NEGATIVE_INFINITY :
+                        Double.parseDouble(values[ssId]);
+            int txCount = Integer.parseInt(values[sensorCount + 3]);
+            // sensors, strongest TX, TX count, TXs and labels; lines with sensor locations or other labels differ
+            if (txCount < 0 || values.length != sensorCount + 4 + 3 * txCount + labelWidth)
+                throw new IllegalArgumentException(String.format("Line %d has %d values; %d sensors, %d TXs and " +
+                        "%d label values expected.", lineNumber, values.length, sensorCount, txCount, labelWidth));
+            if (scratch.trueX.length < txCount){
+                scratch.trueX = new double[txCount];
+                scratch.trueY = new double[txCount];
+                scratch.truePower = new double[txCount];
+                scratch.paired = new boolean[txCount];
+            }
+            for (int txId = 0; txId < txCount; txId++){
+                int offset = sensorCount + 4 + 3 * txId;
+                scratch.trueX[txId] = Double.parseDouble(values[offset]);
+                scratch.trueY[txId] = Double.parseDouble(values[offset + 1]);
+                scratch.truePower[txId] = Double.parseDouble(values[offset + 2]);
+            }
+            int estimated = localizer.localize(scratch.readings, scratch.estimate);
+            this.samples++;
+            this.trueTxs += txCount;
+            this.estimatedTxs += estimated;
+            if (estimated == txCount)
+                this.exactCount++;
+            match(scratch, txCount, estimated);
+        }
+
+        // pairing true and estimated TXs greedily, closest pair first
+        private void match(Scratch scratch, int txCount, int estimated){
+            SampleBuffer estimate = scratch.estimate;
+            Arrays.fill(scratch.paired, 0, txCount, false);
+            Arrays.fill(scratch.used, 0, estimated, false);
+            for (int pair = 0; pair < Math.min(txCount, estimated); pair++){
+                double best = Double.POSITIVE_INFINITY;
+                int bestTrue = -1, bestEstimate = -1;
+                for (int txId = 0; txId < txCount; txId++){
+                    if (scratch.paired[txId])
+                        continue;
+                    for (int estimateId = 0; estimateId < estimated; estimateId++){
+                        if (scratch.used[estimateId])
+                            continue;
+                        double dx = scratch.trueX[txId] - estimate.txX[estimateId];
+                        double dy = scratch.trueY[txId] - estimate.txY[estimateId];
+                        double distance = dx * dx + dy * dy;
+                        if (distance < best){
+                            best = distance;
+                            bestTrue = txId;
+                            bestEstimate = estimateId;
+                        }
+                    }
+                }
+                scratch.paired[bestTrue] = true;
+                scratch.used[bestEstimate] = true;
+                addError(Math.sqrt(best) * cellSize,
+                        Math.abs(scratch.truePower[bestTrue] - estimate.txPower[bestEstimate]));
+            }
+        }
+
+        private void addError(double error, double powerError){
+            if (this.matched == this.errors.length)
+                this.errors = Arrays.copyOf(this.errors, this.errors.length * 2);
+            this.errors[this.matched++] = error;
+            this.powerErrorSum += powerError;
+        }
+
+        private void merge(Report other){
+            this.samples += other.samples;
+            this.exactCount += other.exactCount;
+            this.trueTxs += other.trueTxs;
+            this.estimatedTxs += other.estimatedTxs;
+            this.powerErrorSum += other.powerErrorSum;
+            for (int i = 0; i < other.matched; i++)
+                addError(other.errors[i], 0.0);
+        }
+
+        /**@param quantile between 0 and 1
+         * @return the quantile of matched TXs' errors in meter; NaN if no TX was matched*/
+        public double errorQuantile(double quantile){
+            if (this.matched == 0)
+                return Double.NaN;
+            double[] sorted = Arrays.copyOf(this.errors, this.matched);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.min(this.matched - 1, Math.floor(quantile * this.matched))];
+        }
+
+        /**@return mean error of matched TXs in meter; NaN if no TX was matched*/
+        public double meanError(){
+            double sum = 0.0;
+            for (int i = 0; i < this.matched; i++)
+                sum += this.errors[i];
+            return this.matched == 0 ? Double.NaN : sum / this.matched;
+        }
+
+        public long getSamples() { return samples; }
+
+        public long getTrueTxs() { return trueTxs; }
+
+        public long getEstimatedTxs() { return estimatedTxs; }
+
+        public int getMatched() { return matched; }
+
+        /**@return true TXs without an estimate*/
+        public long getMisses() { return this.trueTxs - this.matched; }
+
+        /**@return estimates without a true TX*/
+        public long getFalseAlarms() { return this.estimatedTxs - this.matched; }
+
+        /**@return fraction of samples whose number of TXs was estimated right*/
+        public double getCountAccuracy() {
+            return this.samples == 0 ? Double.NaN : (double) this.exactCount / this.samples;
+        }
+
+        /**@return mean absolute power error of matched TXs in dB*/
+        public double getMeanPowerError() {
+            return this.matched == 0 ? Double.NaN : this.powerErrorSum / this.matched;
+        }
+
+        /**@return samples localized per second*/
+        public double getSamplesPerSecond() { return this.nanos == 0 ? Double.NaN : this.samples * 1e9 / this.nanos; }
+
+        @Override
+        public String toString(){
+            return String.format(Locale.ROOT, "%,d samples (%.0f samples/s): %,d TXs, %,d estimated, %,d matched, " +
+                            "%,d misses, %,d false alarms, TX count right in %.1f%%%n" +
+                            "error(m) mean %.2f, median %.2f, 90th percentile %.2f; mean power error %.2fdB",
+                    this.samples, getSamplesPerSecond(), this.trueTxs, this.estimatedTxs, this.matched, getMisses(),
+                    getFalseAlarms(), getCountAccuracy() * 100, meanError(), errorQuantile(0.5), errorQuantile(0.9),
+                    getMeanPowerError());
+        }
+    }
+
+    // buffers of a pool thread
+    private class Scratch {
+        private final double[] readings = new double[localizer.getSensorCount()];
+        private final SampleBuffer estimate = new SampleBuffer(localizer.getMaxTxNum(), 0);
+        private double[] trueX = new double[0];
+        private double[] trueY = new double[0];
+        private double[] truePower = new double[0];
+        private boolean[] paired = new boolean[0];                         // true TXs already paired
+        private final boolean[] used = new boolean[localizer.getMaxTxNum()];  // estimates already paired
+    }
+}
@@ -0,0 +1,232 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import edu.stonybrook.cs.wingslab.commons.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**Received power of all sensors of a sample under the log-distance model, computed from primitive arrays.
+ * Path loss is referenceLoss + 10 * alpha * log10(d) with d in meter (at least minDistance), so the linear gain of a
+ * link is 10^(-referenceLoss / 10) * (d^2)^(-alpha / 2) and no log10 is needed per link. Shadowing, if any, is a
+ * Gaussian in dB drawn per link, as LogDistancePM does.
+ * create() returns the vectorized implementation (src/vector/java, built with the vector profile and run with
+ * --add-modules jdk.incubator.vector) if it is asked for and can be loaded, and this scalar one otherwise. Both agree
+ * with the PropagationModel they were fitted to within TOLERANCE_DB, but not bit for bit, so samples of a seeded run
+ * only repeat on another machine with the same kind of kernel; use fit() to get a kernel checked against a model.
+ * Kernels keep no per-sample state and are thread-safe. As a PathLossFunction, a kernel gives the mean path loss
+ * (e.g. to build a GainTable).*/
+public class LogDistanceKernel implements PathLossFunction {
+    public static final double TOLERANCE_DB = 1e-6;
+    // maximum difference between a kernel's mean received power(dB) and the propagation model's
+    private static final String VECTOR_KERNEL = "edu.stonybrook.cs.wingslab.localization.VectorLogDistanceKernel";
+    private static final int FIT_TXS = 8;
+    private static final int FIT_LINKS = 256;
+    // a kernel is checked against the propagation model on FIT_TXS random TX cells x FIT_LINKS random rx cells
+    protected final double alpha;
+    // propagation model coeff.
+    protected final double referenceLoss;
+    // path loss(dB) at 1 meter
+    protected final double std;
+    // shadowing std in dB; 0 for none
+    protected final int cellSize;
+    // cell size in square
+    protected final boolean heights;
+    // whether heights are included in the distance
+    protected final double minDistance;
+    // shorter distances (e.g. a TX in a sensor's cell) are clamped to this, in meter; fit() derives it from the
+    // model's loss at zero distance
+
+    /**LogDistanceKernel constructor
+     * @param alpha propagation model coeff.
+     * @param referenceLoss path loss(dB) at 1 meter
+     * @param std shadowing std in dB; 0 for none
+     * @param cellSize cell size in square
+     * @param heights whether heights are included in the distance
+     * @param minDistance minimum distance in meter*/
+    public LogDistanceKernel(double alpha, double referenceLoss, double std, int cellSize, boolean heights,
+                             double minDistance){
+        super();
+        if (!(minDistance > 0))
+            throw new IllegalArgumentException("Minimum distance should be positive.");
+        this.alpha = alpha;
+        this.referenceLoss = referenceLoss;
+        this.std = std;
+        this.cellSize = cellSize;
+        this.heights = heights;
+        this.minDistance = minDistance;
+    }
+
+    /**@param vectorized whether the vectorized kernel should be used if available; see the constructor for the
+     * other parameters
+     * @return the vectorized kernel if asked for and available, else a scalar one*/
+    public static LogDistanceKernel create(double alpha, double referenceLoss, double std, int cellSize,
+                                           boolean heights, double minDistance, boolean vectorized){
+        LogDistanceKernel scalar = new LogDistanceKernel(alpha, referenceLoss, std, cellSize, heights, minDistance);
+        if (!vectorized)
+            return scalar;
+        try {
+            LogDistanceKernel vector = (LogDistanceKernel) Class.forName(VECTOR_KERNEL)
+                    .getConstructor(double.class, double.class, double.class, int.class, boolean.class,
+                            double.class)
+                    .newInstance(alpha, referenceLoss, std, cellSize, heights, minDistance);
+            // linking jdk.incubator.vector happens on first use; a tiny sample makes it fail here instead
+            double[] out = new double[1];
+            vector.compute(new double[]{0}, new double[]{0}, new double[]{0}, new double[]{0}, 1,
+                    new double[]{1}, new double[]{1}, new double[]{0}, 1, Double.NEGATIVE_INFINITY, new Random(0), out);
+            return vector;
+        } catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+            return scalar;
+        }
+    }
+
+    /**Builds a kernel for a log-distance model and checks it against the model's mean path loss on random links of
+     * the grid. The reference loss and whether heights are part of the distance are taken from the model.
+     * @param meanModel propagation model without shadowing, e.g. new LogDistancePM(alpha)
+     * @param alpha propagation model coeff. of meanModel
+     * @param std shadowing std in dB the kernel should draw; 0 for none
+     * @param cellSize cell size in square
+     * @param grid grid of the field
+     * @param txHeight height of TXs
+     * @param rxHeight height of sensors
+     * @param vectorized whether the vectorized kernel should be used if available
+     * @return a kernel within TOLERANCE_DB of meanModel, including links of a TX in a sensor's cell, or null if the
+     * model is not log-distance in this sense*/
+    public static LogDistanceKernel fit(PropagationModel meanModel, double alpha, double std, int cellSize,
+                                        FieldGrid grid, double txHeight, double rxHeight, boolean vectorized){
+        if (grid.cellCount() < 2)
+            return null;
+        PathLossFunction model = PathLossFunction.of(meanModel, cellSize);
+        Random random = new Random(grid.cellCount());       // same links for every run
+        int[] txCells = new int[FIT_TXS];
+        int[] rxCells = new int[FIT_LINKS + FIT_TXS];
+        for (int txId = 0; txId < FIT_TXS; txId++)
+            txCells[txId] = random.nextInt(grid.cellCount());
+        for (int ssId = 0; ssId < FIT_LINKS; ssId++){
+            do {
+                rxCells[ssId] = random.nextInt(grid.cellCount());
+            } while (rxCells[ssId] == txCells[0]);      // the reference loss is taken from the first link
+        }
+        // every TX is also checked against a sensor in its own cell; TXs often fall in sensors' cells
+        System.arraycopy(txCells, 0, rxCells, FIT_LINKS, FIT_TXS);
+        for (boolean heights : new boolean[]{false, true}){
+            LogDistanceKernel candidate = new LogDistanceKernel(alpha, 0.0, 0.0, cellSize, heights, 1.0);
+            double referenceLoss = model.pathLoss(grid.x(txCells[0]), grid.y(txCells[0]), txHeight,
+                    grid.x(rxCells[0]), grid.y(rxCells[0]), rxHeight) - candidate.pathLoss(grid.x(txCells[0]),
+                    grid.y(txCells[0]), txHeight, grid.x(rxCells[0]), grid.y(rxCells[0]), rxHeight);
+            if (!Double.isFinite(referenceLoss))
+                return null;
+            double minDistance = minDistance(model, alpha, referenceLoss, heights, grid.x(txCells[0]),
+                    grid.y(txCells[0]), txHeight, rxHeight);
+            if (!(minDistance > 0) || !Double.isFinite(minDistance))
+                continue;
+            LogDistanceKernel kernel = create(alpha, referenceLoss, 0.0, cellSize, heights, minDistance, vectorized);
+            if (agrees(kernel, model, grid, txCells, rxCells, txHeight, rxHeight))
+                return std == 0.0 ? kernel : create(alpha, referenceLoss, std, cellSize, heights, minDistance,
+                        vectorized);
+        }
+        return null;
+    }
+
+    // clamp distance(m) reproducing the model's loss of a co-located link; 1 meter if such a link is not clamped,
+    // i.e. heights keep it at least 1 meter long. NaN or infinite if the model's loss can't be reproduced
+    private static double minDistance(PathLossFunction model, double alpha, double referenceLoss, boolean heights,
+                                      double x, double y, double txHeight, double rxHeight){
+        double height = heights ? txHeight - rxHeight : 0.0;
+        if (height * height >= 1.0)
+            return 1.0;
+        double colocatedLoss = model.pathLoss(x, y, txHeight, x, y, rxHeight);
+        return Math.pow(10, (colocatedLoss - referenceLoss) / (10 * alpha));
+    }
+
+    // comparing received power of 0dB TXs, as computed by the kernel, with the model's path loss to all rx cells
+    private static boolean agrees(LogDistanceKernel kernel, PathLossFunction model, FieldGrid grid, int[] txCells,
+                                  int[] rxCells, double txHeight, double rxHeight){
+        double[] ssX = new double[rxCells.length];
+        double[] ssY = new double[rxCells.length];
+        double[] ssHeights = new double[rxCells.length];
+        double[] out = new double[rxCells.length];
+        for (int ssId = 0; ssId < rxCells.length; ssId++){
+            ssX[ssId] = grid.x(rxCells[ssId]);
+            ssY[ssId] = grid.y(rxCells[ssId]);
+        }
+        Arrays.fill(ssHeights, rxHeight);
+        for (int txCell : txCells){
+            double txX = grid.x(txCell);
+            double txY = grid.y(txCell);
+            kernel.compute(new double[]{txX}, new double[]{txY}, new double[]{txHeight}, new double[]{0.0}, 1,
+                    ssX, ssY, ssHeights, rxCells.length, Double.NEGATIVE_INFINITY, null, out);
+            for (int ssId = 0; ssId < rxCells.length; ssId++){
+                double expected = -model.pathLoss(txX, txY, txHeight, ssX[ssId], ssY[ssId], rxHeight);
+                if (!(Math.abs(out[ssId] - expected) <= TOLERANCE_DB))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**@return mean path loss(dB) of a link, i.e. without shadowing*/
+    @Override
+    public double pathLoss(double txX, double txY, double txHeight, double rxX, double rxY, double rxHeight){
+        return this.referenceLoss + 5 * this.alpha * Math.log10(distanceSquared(txX, txY, txHeight, rxX, rxY,
+                rxHeight));
+    }
+
+    /**Computes sensors' received power.
+     * @param txX cell x of TXs
+     * @param txY cell y of TXs
+     * @param txHeights height of TXs
+     * @param txPowers power(dB) of TXs
+     * @param txCount number of TXs to be used from the arrays
+     * @param ssX cell x of sensors
+     * @param ssY cell y of sensors
+     * @param ssHeights height of sensors
+     * @param ssCount number of sensors to be used from the arrays
+     * @param noiseFloor noise floor(dB)
+     * @param random source of shadowing; only used if std is positive
+     * @param out received power(dB) of sensors will be written here; also used as the linear accumulator*/
+    public void compute(double[] txX, double[] txY, double[] txHeights, double[] txPowers, int txCount,
+                        double[] ssX, double[] ssY, double[] ssHeights, int ssCount, double noiseFloor,
+                        Random random, double[] out){
+        Arrays.fill(out, 0, ssCount, WirelessTools.getDecimal(noiseFloor));
+        double exponent = -this.alpha / 2;
+        for (int txId = 0; txId < txCount; txId++){
+            if (txPowers[txId] == Double.NEGATIVE_INFINITY)
+                continue;
+            double txPower = WirelessTools.getDecimal(txPowers[txId] - this.referenceLoss);
+            for (int ssId = 0; ssId < ssCount; ssId++){
+                double gain = Math.pow(distanceSquared(txX[txId], txY[txId], txHeights[txId], ssX[ssId],
+                        ssY[ssId], ssHeights[ssId]), exponent);
+                if (this.std > 0.0)
+                    gain *= WirelessTools.getDecimal(random.nextGaussian() * this.std);
+                out[ssId] += txPower * gain;
+            }
+        }
+        for (int ssId = 0; ssId < ssCount; ssId++)
+            out[ssId] = WirelessTools.getDB(out[ssId]);
+    }
+
+    // squared distance in meter, clamped to minDistance
+    private double distanceSquared(double txX, double txY, double txHeight, double rxX, double rxY,
+                                   double rxHeight){
+        double dx = (txX - rxX) * this.cellSize;
+        double dy = (txY - rxY) * this.cellSize;
+        double dz = this.heights ? txHeight - rxHeight : 0.0;
+        return Math.max(dx * dx + dy * dy + dz * dz, this.minDistance * this.minDistance);
+    }
+
+    /**@return whether this kernel uses the Vector API*/
+    public boolean isVectorized(){ return false; }
+
+    // **************************** Setter & Getter ******************************
+    public double getAlpha() { return alpha; }
+
+    public double getReferenceLoss() { return referenceLoss; }
+
+    public double getStd() { return std; }
+
+    public int getCellSize() { return cellSize; }
+
+    public boolean isHeights() { return heights; }
+
+    public double getMinDistance() { return minDistance; }
+}
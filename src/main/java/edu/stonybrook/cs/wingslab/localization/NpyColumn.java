@@ -0,0 +1,180 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**One fixed-width column of a dataset written as a NumPy .npy (version 1.0) file. Rows are buffered in a
+ * direct little-endian buffer and written through a FileChannel; the header has a fixed size so the number of
+ * rows can be patched in when the column is closed.*/
+class NpyColumn implements Closeable {
+    static final int HEADER_SIZE = 128;                 // magic + version + header length + padded dictionary
+    private static final byte[] MAGIC = {(byte) 0x93, 'N', 'U', 'M', 'P', 'Y', 1, 0};
+    private static final int BUFFERED_ROWS = 256;       // rows kept in memory before a write
+
+    private final Path path;
+    private final String dtype;                         // '<f4', '<i4', '<i8' or '|u1'
+    private final int[] rowShape;                       // shape of one row; e.g. {900} or {4, 3}
+    private final int rowElements;                      // number of values in a row
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private long rows;                                  // number of completed rows
+    private int rowValues;                              // values put in the current row
+
+    /**NpyColumn constructor; creates (or truncates) the file
+     * @param path file path
+     * @param dtype numpy dtype descriptor; '<f4', '<i4', '<i8' or '|u1'
+     * @param rowShape shape of one row*/
+    NpyColumn(Path path, String dtype, int... rowShape) throws IOException {
+        super();
+        this.path = path;
+        this.dtype = dtype;
+        this.rowShape = rowShape.clone();
+        this.rowElements = rowElements(rowShape);
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.channel.position(HEADER_SIZE);
+        this.buffer = ByteBuffer.allocateDirect(this.rowElements * elementSize(dtype) * BUFFERED_ROWS)
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    void putFloat(float value) throws IOException {
+        if (!this.buffer.hasRemaining())
+            flush();
+        this.buffer.putFloat(value);
+        this.rowValues++;
+    }
+
+    void putInt(int value) throws IOException {
+        if (!this.buffer.hasRemaining())
+            flush();
+        this.buffer.putInt(value);
+        this.rowValues++;
+    }
+
+    void putLong(long value) throws IOException {
+        if (!this.buffer.hasRemaining())
+            flush();
+        this.buffer.putLong(value);
+        this.rowValues++;
+    }
+
+    /**@param value an unsigned byte, 0 to 255*/
+    void putByte(int value) throws IOException {
+        if (!this.buffer.hasRemaining())
+            flush();
+        this.buffer.put((byte) value);
+        this.rowValues++;
+    }
+
+    /**marks the end of a row; the number of values put since the previous row should match the row shape*/
+    void endRow(){
+        if (this.rowValues != this.rowElements)
+            throw new IllegalStateException(this.path + ": row does not match the column shape.");
+        this.rowValues = 0;
+        this.rows++;
+    }
+
+    private void flush() throws IOException {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining())
+            this.channel.write(this.buffer);
+        this.buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            this.channel.write(header(this.dtype, this.rows, this.rowShape), 0);
+        } finally {
+            this.channel.close();
+        }
+    }
+
+    // **************************** Setter & Getter ******************************
+    long getRows() { return rows; }
+
+    String getDtype() { return dtype; }
+
+    int[] getRowShape() { return rowShape.clone(); }
+
+    /**Concatenates .npy parts with the same dtype and row shape along the first axis. Data sections are copied
+     * with FileChannel.transferTo.
+     * @param parts files to be concatenated, in order
+     * @param dest destination file
+     * @param dtype dtype of the parts
+     * @param rowShape row shape of the parts
+     * @return number of rows written*/
+    static long concat(List<Path> parts, Path dest, String dtype, int... rowShape) throws IOException {
+        long rowBytes = rowElements(rowShape) * (long) elementSize(dtype);
+        long rows = 0;
+        try (FileChannel out = FileChannel.open(dest, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.position(HEADER_SIZE);
+            for (Path part : parts) {
+                try (FileChannel in = FileChannel.open(part, StandardOpenOption.READ)) {
+                    long size = in.size() - HEADER_SIZE;
+                    long position = HEADER_SIZE;
+                    while (position < in.size())
+                        position += in.transferTo(position, in.size() - position, out);
+                    rows += rowBytes == 0 ? headerRows(in) : size / rowBytes;   // zero-width rows have no data
+                }
+            }
+            out.write(header(dtype, rows, rowShape), 0);
+        }
+        return rows;
+    }
+
+    // .npy header padded with spaces to HEADER_SIZE bytes
+    static ByteBuffer header(String dtype, long rows, int[] rowShape){
+        String shape = rows + (rowShape.length == 0 ? "," : ", " + Arrays.stream(rowShape)
+                .mapToObj(Integer::toString).collect(Collectors.joining(", ")));
+        String dictionary = String.format("{'descr': '%s', 'fortran_order': False, 'shape': (%s), }",
+                dtype, shape);
+        int dictionaryLength = HEADER_SIZE - MAGIC.length - 2;
+        if (dictionary.length() + 1 > dictionaryLength)
+            throw new IllegalArgumentException("Row shape is too large for the npy header.");
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC).putShort((short) dictionaryLength)
+                .put(dictionary.getBytes(StandardCharsets.US_ASCII));
+        while (header.position() < HEADER_SIZE - 1)
+            header.put((byte) ' ');
+        header.put((byte) '\n');
+        return header.flip();
+    }
+
+    // number of rows in the header written by header()
+    private static long headerRows(FileChannel in) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && in.read(header, header.position()) > 0);
+        String dictionary = new String(header.array(), MAGIC.length + 2, HEADER_SIZE - MAGIC.length - 2,
+                StandardCharsets.US_ASCII);
+        int begin = dictionary.indexOf("'shape': (") + "'shape': (".length();
+        int end = dictionary.indexOf(',', begin);
+        if (begin < "'shape': (".length() || end < 0)
+            throw new IOException("Not an npy header written by NpyColumn.");
+        return Long.parseLong(dictionary.substring(begin, end).trim());
+    }
+
+    /**@param dtype numpy dtype descriptor, e.g. '<f4'
+     * @return bytes of one value*/
+    static int elementSize(String dtype){
+        return Integer.parseInt(dtype.substring(2));
+    }
+
+    static int rowElements(int[] rowShape){
+        int elements = 1;
+        for (int dimension : rowShape)
+            elements *= dimension;
+        return elements;
+    }
+}
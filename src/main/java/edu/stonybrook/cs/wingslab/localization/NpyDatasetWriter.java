@@ -0,0 +1,294 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**Writes samples into a directory of fixed-width NumPy columns plus a manifest.json describing them:
+ * sensors.npy (float32 [n, sensors], -inf kept), sensor_locations.npy (float32 [n, sensors, 2], only if
+ * sensors' location is written), strongest.npy (float32 [n, 3]: x, y, power), tx_count.npy (int32 [n]) and
+ * txs.npy (float32 [n, maxTxNum, 3]: x, y, power; unused rows are NaN). Every selected label (see SampleLabel) adds
+ * label_<name>.npy with the label's values as a flat row (int32 if all of them are integers, float32 otherwise).
+ * With an OccupancyMapFormat, every sample's TX occupancy map (and optionally its sensor image) is written too; see
+ * OccupancyMapFormat for its files and the manifest's "occupancy" entry. With a QuantizedSensorFormat, sensors'
+ * received power is written quantized into deflated blocks, sensors.qsr, instead of sensors.npy; see the manifest's
+ * "quantized_sensors" entry.*/
+public class NpyDatasetWriter implements Closeable {
+    public static final String MANIFEST = "manifest.json";
+
+    private final Path dir;
+    private final int sensorCount;
+    private final int maxTxNum;
+    private final boolean sssLocation;
+    private final List<ColumnSpec> specs;
+    private final NpyColumn[] columns;      // in the order of specs
+    private final SampleBuffer scratch;     // object-based samples are copied here to be written
+    private final SampleLabeler labeler;    // null if no label is written
+    private final OccupancyMapWriter occupancy;     // null if no occupancy map is written
+    private final QuantizedSensorWriter quantizedSensors;   // null if sensors are written to sensors.npy
+    private long rows;
+    private Exception failure;              // failure of a row written halfway; columns may differ in rows since
+
+    /**NpyDatasetWriter constructor; creates the directory if needed
+     * @param dir output directory
+     * @param sensorCount number of sensors of each sample
+     * @param maxTxNum maximum number of TXs of a sample
+     * @param sssLocation if sensors' location be written
+     * @param labels labels written as extra columns; empty for none
+     * @param occupancy layout of the occupancy maps written with the columns; null for none
+     * @param quantizedSensors encoding of sensors.qsr; null for float32 sensors.npy*/
+    public NpyDatasetWriter(Path dir, int sensorCount, int maxTxNum, boolean sssLocation, List<SampleLabel> labels,
+                            OccupancyMapFormat occupancy, QuantizedSensorFormat quantizedSensors)
+            throws IOException {
+        super();
+        this.dir = dir;
+        this.sensorCount = sensorCount;
+        this.maxTxNum = maxTxNum;
+        this.sssLocation = sssLocation;
+        this.specs = columnSpecs(sensorCount, maxTxNum, sssLocation, labels, quantizedSensors != null);
+        this.labeler = labels.isEmpty() ? null : new SampleLabeler(labels);
+        this.scratch = new SampleBuffer(maxTxNum, sensorCount);
+        Files.createDirectories(dir);
+        this.columns = new NpyColumn[this.specs.size()];
+        for (int i = 0; i < this.columns.length; i++)
+            this.columns[i] = new NpyColumn(dir.resolve(this.specs.get(i).file()), this.specs.get(i).dtype,
+                    this.specs.get(i).rowShape);
+        this.occupancy = occupancy != null ? new OccupancyMapWriter(dir, occupancy) : null;
+        this.quantizedSensors = quantizedSensors != null ?
+                new QuantizedSensorWriter(dir.resolve(QuantizedSensorFormat.FILE), quantizedSensors, sensorCount) :
+                null;
+    }
+
+    /**@param sample a sample whose sensors' received power is computed*/
+    public void write(LocalizationDatasetGenerator sample) throws IOException {
+        if (sample.getSss().length != this.sensorCount)
+            throw new IllegalArgumentException("Number of sensors does not match the dataset.");
+        if (sample.getTxs().length > this.maxTxNum)
+            throw new IllegalArgumentException("Number of TXs is more than the dataset width.");
+        this.scratch.set(sample);
+        write(this.scratch);
+    }
+
+    /**Writes a sample as one row of every column. Everything that can reject the sample (labels, occupancy cells)
+     * is computed before any column is written, so a rejected sample leaves the dataset as it is. If writing the row
+     * fails halfway (e.g. an IOException), the writer fails: later samples are rejected and close() throws without
+     * writing the manifest.
+     * @param sample a sample buffer whose received powers are computed*/
+    public void write(SampleBuffer sample) throws IOException {
+        if (this.failure != null)
+            throw new IllegalStateException("A previous sample was written halfway; columns are not aligned.",
+                    this.failure);
+        int txCount = sample.getTxCount();
+        if (sample.getSensorCount() != this.sensorCount)
+            throw new IllegalArgumentException("Number of sensors does not match the dataset.");
+        if (txCount > this.maxTxNum)
+            throw new IllegalArgumentException("Number of TXs is more than the dataset width.");
+        int strongestIdx = txCount == 0 ? -1 : sample.strongestIndex();
+        if (txCount > 0 && strongestIdx < 0)
+            throw new IllegalArgumentException("Strongest TX is undefined; TX powers are NaN.");
+        if (this.labeler != null)
+            this.labeler.label(sample);
+        if (this.occupancy != null)
+            this.occupancy.prepare(sample);
+        try {
+            writeRow(sample, strongestIdx);
+        } catch (IOException | RuntimeException e) {
+            this.failure = e;
+            throw e;
+        }
+        this.rows++;
+    }
+
+    // writing a validated sample whose labels and occupancy map are computed
+    private void writeRow(SampleBuffer sample, int strongestIdx) throws IOException {
+        int txCount = sample.getTxCount();
+        int column = 0;
+        if (this.quantizedSensors != null)
+            this.quantizedSensors.write(sample.receivedPower);
+        else {
+            NpyColumn sensors = this.columns[column++];
+            for (int ssId = 0; ssId < this.sensorCount; ssId++)
+                sensors.putFloat((float) sample.receivedPower[ssId]);
+            sensors.endRow();
+        }
+        if (this.sssLocation){
+            NpyColumn locations = this.columns[column++];
+            for (int ssId = 0; ssId < this.sensorCount; ssId++){
+                locations.putFloat((float) sample.ssX[ssId]);
+                locations.putFloat((float) sample.ssY[ssId]);
+            }
+            locations.endRow();
+        }
+        NpyColumn strongest = this.columns[column++];
+        if (txCount == 0)
+            putTx(strongest, 0.0, 0.0, sample.getNoiseFloor());
+        else
+            putTx(strongest, sample.txX[strongestIdx], sample.txY[strongestIdx], sample.txPower[strongestIdx]);
+        strongest.endRow();
+        NpyColumn txCountColumn = this.columns[column++];
+        txCountColumn.putInt(txCount);
+        txCountColumn.endRow();
+        NpyColumn txsColumn = this.columns[column++];
+        for (int txId = 0; txId < txCount; txId++)
+            putTx(txsColumn, sample.txX[txId], sample.txY[txId], sample.txPower[txId]);
+        for (int i = txCount; i < this.maxTxNum; i++)
+            putTx(txsColumn, Double.NaN, Double.NaN, Double.NaN);
+        txsColumn.endRow();
+        if (this.labeler != null){
+            double[] values = this.labeler.getValues();
+            int offset = 0;
+            for (int labelId = 0; labelId < this.labeler.getLabels().size(); labelId++){
+                ColumnSpec spec = this.specs.get(column);
+                NpyColumn labelColumn = this.columns[column++];
+                for (int i = 0; i < spec.rowShape[0]; i++, offset++){
+                    if (spec.integer)
+                        labelColumn.putInt((int) values[offset]);
+                    else
+                        labelColumn.putFloat((float) values[offset]);
+                }
+                labelColumn.endRow();
+            }
+        }
+        if (this.occupancy != null)
+            this.occupancy.writePrepared();
+    }
+
+    private static void putTx(NpyColumn column, double x, double y, double power) throws IOException {
+        column.putFloat((float) x);
+        column.putFloat((float) y);
+        column.putFloat((float) power);
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+        for (NpyColumn column : this.columns) {
+            try {
+                column.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        for (Closeable writer : new Closeable[]{this.occupancy, this.quantizedSensors}) {
+            try {
+                if (writer != null)
+                    writer.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        if (exception == null && this.failure != null)
+            exception = new IOException("Dataset " + this.dir + " is incomplete; a sample was written halfway.",
+                    this.failure);
+        if (exception != null)
+            throw exception;
+        writeManifest(this.dir, this.specs, this.rows, this.sensorCount, this.maxTxNum,
+                this.occupancy != null ? this.occupancy.getFormat() : null,
+                this.occupancy != null ? this.occupancy.getEntries() : 0,
+                this.quantizedSensors != null ? this.quantizedSensors.getFormat() : null);
+    }
+
+    /**Concatenates datasets written by several writers (e.g. one per thread) into one.
+     * @param parts dataset directories, in order
+     * @param dest destination directory
+     * @param sensorCount number of sensors of each sample
+     * @param maxTxNum maximum number of TXs of a sample
+     * @param sssLocation if sensors' location was written
+     * @param labels labels the writers were created with
+     * @param occupancy layout of the occupancy maps the writers were created with; null for none
+     * @param quantizedSensors encoding of the writers' sensors.qsr; null for sensors.npy
+     * @return number of samples of the merged dataset*/
+    public static long merge(List<Path> parts, Path dest, int sensorCount, int maxTxNum, boolean sssLocation,
+                             List<SampleLabel> labels, OccupancyMapFormat occupancy,
+                             QuantizedSensorFormat quantizedSensors) throws IOException {
+        Files.createDirectories(dest);
+        List<ColumnSpec> specs = columnSpecs(sensorCount, maxTxNum, sssLocation, labels, quantizedSensors != null);
+        long rows = 0;
+        for (ColumnSpec spec : specs)
+            rows = NpyColumn.concat(parts.stream().map(part -> part.resolve(spec.file()))
+                            .collect(Collectors.toList()), dest.resolve(spec.file()), spec.dtype, spec.rowShape);
+        long entries = occupancy != null ? OccupancyMapWriter.merge(parts, dest, occupancy) : 0;
+        if (quantizedSensors != null)
+            QuantizedSensorWriter.merge(parts.stream().map(part -> part.resolve(QuantizedSensorFormat.FILE))
+                    .collect(Collectors.toList()), dest.resolve(QuantizedSensorFormat.FILE));
+        writeManifest(dest, specs, rows, sensorCount, maxTxNum, occupancy, entries, quantizedSensors);
+        return rows;
+    }
+
+    private static void writeManifest(Path dir, List<ColumnSpec> specs, long rows, int sensorCount, int maxTxNum,
+                                      OccupancyMapFormat occupancy, long entries,
+                                      QuantizedSensorFormat quantizedSensors) throws IOException {
+        StringBuilder manifest = new StringBuilder();
+        manifest.append("{\n  \"format\": \"npy\",\n  \"samples\": ").append(rows)
+                .append(",\n  \"sensors\": ").append(sensorCount)
+                .append(",\n  \"max_txs\": ").append(maxTxNum)
+                .append(",\n  \"columns\": {\n");
+        for (int i = 0; i < specs.size(); i++) {
+            ColumnSpec spec = specs.get(i);
+            manifest.append(String.format(Locale.ROOT,
+                    "    \"%s\": {\"file\": \"%s\", \"dtype\": \"%s\", \"shape\": [%d%s]}%s\n",
+                    spec.name, spec.file(), spec.dtype, rows, Arrays.stream(spec.rowShape)
+                            .mapToObj(dimension -> ", " + dimension).collect(Collectors.joining()),
+                    i < specs.size() - 1 ? "," : ""));
+        }
+        manifest.append("  }");
+        if (quantizedSensors != null)
+            manifest.append(",\n  \"quantized_sensors\": ").append(quantizedSensors.toJson(rows, sensorCount));
+        if (occupancy != null)
+            manifest.append(",\n  \"occupancy\": ").append(occupancy.toJson(entries));
+        manifest.append("\n}\n");
+        Files.writeString(dir.resolve(MANIFEST), manifest, StandardCharsets.UTF_8);
+    }
+
+    private static List<ColumnSpec> columnSpecs(int sensorCount, int maxTxNum, boolean sssLocation,
+                                                List<SampleLabel> labels, boolean quantizedSensors){
+        List<ColumnSpec> specs = new ArrayList<>();
+        if (!quantizedSensors)
+            specs.add(new ColumnSpec("sensors", "<f4", sensorCount));
+        if (sssLocation)
+            specs.add(new ColumnSpec("sensor_locations", "<f4", sensorCount, 2));
+        specs.add(new ColumnSpec("strongest", "<f4", 3));
+        specs.add(new ColumnSpec("tx_count", "<i4"));
+        specs.add(new ColumnSpec("txs", "<f4", maxTxNum, 3));
+        for (SampleLabel label : labels) {
+            int width = label.width(sensorCount);
+            boolean integer = true;
+            for (int column = 0; column < width; column++)
+                integer &= label.decimals(column) == 0;
+            specs.add(new ColumnSpec("label_" + label.getName(), integer ? "<i4" : "<f4", width));
+        }
+        return specs;
+    }
+
+    // name, dtype and row shape of a column
+    private static class ColumnSpec {
+        private final String name;
+        private final String dtype;
+        private final int[] rowShape;
+        private final boolean integer;      // whether values are written by putInt
+
+        private ColumnSpec(String name, String dtype, int... rowShape){
+            this.name = name;
+            this.dtype = dtype;
+            this.rowShape = rowShape;
+            this.integer = dtype.startsWith("<i");
+        }
+
+        private String file(){ return this.name + ".npy"; }
+    }
+
+    // **************************** Setter & Getter ******************************
+    public long getRows() { return rows; }
+
+    /**@return whether a sample was written halfway, so no further sample can be written*/
+    public boolean isFailed() { return failure != null; }
+
+    public Path getDir() { return dir; }
+}
@@ -0,0 +1,75 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import java.util.Locale;
+
+/**Layout of the per-sample TX occupancy maps written next to a dataset's NPY columns. The map of a sample has the
+ * power(dB) of its TXs at their cells of the grid and nothing elsewhere, so it is kept sparse, CSR-style:
+ * occupancy_offsets.npy (int64 [n + 1]) delimits every sample's entries in occupancy_cells.npy (int32 [entries],
+ * row-major cell index, ascending within a sample) and occupancy_powers.npy (float32 [entries], dB). TXs sharing a
+ * cell make one entry with their total power. Optionally, sensors' received power is written as a dense image too,
+ * sensor_image.npy (uint8 [n, length, width]): 0 where there is no sensor, otherwise the power quantized in
+ * IMAGE_STEP dB levels above imageFloor (see quantize()); the strongest sensor of a cell is kept.
+ * OccupancyMapLoader expands both into dense batches.*/
+public class OccupancyMapFormat {
+    public static final String OFFSETS = "occupancy_offsets.npy";
+    public static final String CELLS = "occupancy_cells.npy";
+    public static final String POWERS = "occupancy_powers.npy";
+    public static final String SENSOR_IMAGE = "sensor_image.npy";
+    public static final double IMAGE_STEP = 0.5;        // dB per quantization level of the sensor image
+    private static final int MAX_LEVEL = 255;
+
+    private final FieldGrid grid;
+    private final boolean sensorImage;      // if sensors' received power be written as a dense image
+    private final double imageFloor;        // power(dB) of level 1 of the image, e.g. the noise floor
+
+    /**OccupancyMapFormat constructor
+     * @param grid cells of the field; TX and sensor locations are cells of it
+     * @param sensorImage if sensors' received power be written as a quantized dense image
+     * @param imageFloor power(dB) of the image's lowest level, e.g. the noise floor; lower powers are clamped*/
+    public OccupancyMapFormat(FieldGrid grid, boolean sensorImage, double imageFloor){
+        super();
+        if (!Double.isFinite(imageFloor))
+            throw new IllegalArgumentException("Image floor should be finite.");
+        this.grid = grid;
+        this.sensorImage = sensorImage;
+        this.imageFloor = imageFloor;
+    }
+
+    /**OccupancyMapFormat constructor without the sensor image
+     * @param grid cells of the field; TX locations are cells of it*/
+    public OccupancyMapFormat(FieldGrid grid){
+        this(grid, false, 0.0);
+    }
+
+    /**@param power received power(dB); -inf is allowed
+     * @return image level of the power, 1 (imageFloor or lower) to 255 (imageFloor + 127dB or higher)*/
+    public int quantize(double power){
+        double level = Math.rint((power - this.imageFloor) / IMAGE_STEP);
+        return 1 + (int) Math.max(0.0, Math.min(MAX_LEVEL - 1, level));
+    }
+
+    /**@param level image level, 1 to 255
+     * @return power(dB) of the level; within IMAGE_STEP / 2 of the quantized power unless it was clamped*/
+    public double dequantize(int level){
+        return this.imageFloor + (level - 1) * IMAGE_STEP;
+    }
+
+    /**@param entries number of entries of the maps
+     * @return JSON object describing the maps, as written into a dataset's manifest*/
+    String toJson(long entries){
+        StringBuilder json = new StringBuilder(String.format(Locale.ROOT, "{\"grid\": [%d, %d], \"entries\": %d, " +
+                        "\"offsets\": \"%s\", \"cells\": \"%s\", \"powers\": \"%s\"", this.grid.getLength(),
+                this.grid.getWidth(), entries, OFFSETS, CELLS, POWERS));
+        if (this.sensorImage)
+            json.append(String.format(Locale.ROOT, ", \"sensor_image\": {\"file\": \"%s\", \"floor_db\": %s, " +
+                    "\"step_db\": %s, \"empty\": 0}", SENSOR_IMAGE, this.imageFloor, IMAGE_STEP));
+        return json.append('}').toString();
+    }
+
+    // **************************** Setter & Getter ******************************
+    public FieldGrid getGrid() { return grid; }
+
+    public boolean isSensorImage() { return sensorImage; }
+
+    public double getImageFloor() { return imageFloor; }
+}
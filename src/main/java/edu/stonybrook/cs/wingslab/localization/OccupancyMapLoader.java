@@ -0,0 +1,142 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**Reads the occupancy maps (and sensor images) of a dataset written with an OccupancyMapFormat and expands a range
+ * of samples into a dense batch on demand, so the dense maps never have to be stored. Only the offsets, entries and
+ * images of the requested samples are read. Not thread-safe; every loading thread should open its own loader.*/
+public class OccupancyMapLoader implements Closeable {
+    private final OccupancyMapFormat format;
+    private final FileChannel offsets;
+    private final FileChannel cells;
+    private final FileChannel powers;
+    private final FileChannel image;        // null if the dataset has no sensor image
+    private final long offsetsData;         // position of the data of each file, after its header
+    private final long cellsData;
+    private final long powersData;
+    private final long imageData;
+    private final long samples;
+    private ByteBuffer buffer = ByteBuffer.allocate(0).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**OccupancyMapLoader constructor
+     * @param dir dataset directory
+     * @param format layout the dataset was written with*/
+    public OccupancyMapLoader(Path dir, OccupancyMapFormat format) throws IOException {
+        super();
+        this.format = format;
+        this.offsets = FileChannel.open(dir.resolve(OccupancyMapFormat.OFFSETS), StandardOpenOption.READ);
+        try {
+            this.cells = FileChannel.open(dir.resolve(OccupancyMapFormat.CELLS), StandardOpenOption.READ);
+            this.powers = FileChannel.open(dir.resolve(OccupancyMapFormat.POWERS), StandardOpenOption.READ);
+            this.image = format.isSensorImage() ? FileChannel.open(dir.resolve(OccupancyMapFormat.SENSOR_IMAGE),
+                    StandardOpenOption.READ) : null;
+            this.offsetsData = dataPosition(this.offsets);
+            this.cellsData = dataPosition(this.cells);
+            this.powersData = dataPosition(this.powers);
+            this.imageData = this.image != null ? dataPosition(this.image) : 0;
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        this.samples = (this.offsets.size() - this.offsetsData) / Long.BYTES - 1;
+    }
+
+    /**Expands the occupancy maps of samples [first, first + count).
+     * @param first first sample
+     * @param count number of samples
+     * @param empty value of cells without a TX, e.g. NaN or the noise floor (0 would hide 0dB TXs)
+     * @param out batch [count, length, width] flattened row-major; null or too small to allocate a new one
+     * @return the batch; TX cells hold the power(dB) of their TXs*/
+    public float[] occupancy(long first, int count, float empty, float[] out) throws IOException {
+        int cellCount = this.format.getGrid().cellCount();
+        float[] batch = batch(first, count, cellCount, out);
+        Arrays.fill(batch, 0, count * cellCount, empty);
+        ByteBuffer sampleOffsets = read(this.offsets, this.offsetsData + first * Long.BYTES,
+                (count + 1) * Long.BYTES);
+        long[] bounds = new long[count + 1];
+        for (int i = 0; i <= count; i++)
+            bounds[i] = sampleOffsets.getLong();
+        int entries = Math.toIntExact(bounds[count] - bounds[0]);
+        int[] entryCells = new int[entries];
+        read(this.cells, this.cellsData + bounds[0] * Integer.BYTES, entries * Integer.BYTES).asIntBuffer()
+                .get(entryCells);
+        ByteBuffer entryPowers = read(this.powers, this.powersData + bounds[0] * Float.BYTES,
+                entries * Float.BYTES);
+        for (int i = 0; i < count; i++)
+            for (long entry = bounds[i]; entry < bounds[i + 1]; entry++)
+                batch[i * cellCount + entryCells[(int) (entry - bounds[0])]] = entryPowers.getFloat();
+        return batch;
+    }
+
+    /**Expands the sensor images of samples [first, first + count); the dataset should have them.
+     * @param first first sample
+     * @param count number of samples
+     * @param empty value of cells without a sensor
+     * @param out batch [count, length, width] flattened row-major; null or too small to allocate a new one
+     * @return the batch; sensor cells hold the dequantized received power(dB)*/
+    public float[] sensorImage(long first, int count, float empty, float[] out) throws IOException {
+        if (this.image == null)
+            throw new IllegalStateException("The dataset has no sensor image.");
+        int cellCount = this.format.getGrid().cellCount();
+        float[] batch = batch(first, count, cellCount, out);
+        ByteBuffer levels = read(this.image, this.imageData + first * cellCount, count * cellCount);
+        for (int i = 0; i < count * cellCount; i++){
+            int level = Byte.toUnsignedInt(levels.get());
+            batch[i] = level == 0 ? empty : (float) this.format.dequantize(level);
+        }
+        return batch;
+    }
+
+    private float[] batch(long first, int count, int cellCount, float[] out){
+        if (first < 0 || count < 0 || first + count > this.samples)
+            throw new IndexOutOfBoundsException(String.format("Samples [%d, %d) are out of the %d samples.",
+                    first, first + count, this.samples));
+        long size = (long) count * cellCount;
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Batch is too large.");
+        return out != null && out.length >= size ? out : new float[(int) size];
+    }
+
+    // reading bytes at a position into the reused buffer
+    private ByteBuffer read(FileChannel channel, long position, int bytes) throws IOException {
+        if (this.buffer.capacity() < bytes)
+            this.buffer = ByteBuffer.allocate(Math.max(bytes, 2 * this.buffer.capacity()))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        this.buffer.clear().limit(bytes);
+        while (this.buffer.hasRemaining())
+            if (channel.read(this.buffer, position + this.buffer.position()) < 0)
+                throw new EOFException("Occupancy map file is shorter than its offsets.");
+        return this.buffer.flip();
+    }
+
+    // position after the .npy (version 1.0) header
+    private static long dataPosition(FileChannel channel) throws IOException {
+        ByteBuffer preamble = ByteBuffer.allocate(10).order(ByteOrder.LITTLE_ENDIAN);
+        while (preamble.hasRemaining())
+            if (channel.read(preamble, preamble.position()) < 0)
+                throw new EOFException("Not an npy file.");
+        if (preamble.get(0) != (byte) 0x93 || preamble.get(6) != 1)
+            throw new IOException("Not an npy version 1.0 file.");
+        return 10 + Short.toUnsignedInt(preamble.getShort(8));
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (FileChannel channel : new FileChannel[]{this.offsets, this.cells, this.powers, this.image})
+            if (channel != null)
+                channel.close();
+    }
+
+    // **************************** Setter & Getter ******************************
+    public long getSamples() { return samples; }
+
+    public OccupancyMapFormat getFormat() { return format; }
+}
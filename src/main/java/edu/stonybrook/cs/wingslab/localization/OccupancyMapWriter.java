@@ -0,0 +1,180 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**Writes samples' TX occupancy maps, and optionally their sensor image, into a directory as described by
+ * OccupancyMapFormat. Used by NpyDatasetWriter; not thread-safe.*/
+class OccupancyMapWriter implements Closeable {
+    private static final int MERGE_BUFFER = 1 << 16;    // bytes of offsets read at once while merging
+
+    private final OccupancyMapFormat format;
+    private final NpyColumn offsets;
+    private final NpyColumn cells;
+    private final NpyColumn powers;
+    private final NpyColumn image;          // null if no sensor image is written
+    private final byte[] levels;            // image of the current sample
+    private int[] sampleCells = new int[8]; // entries of the current sample, ascending cells
+    private double[] sampleMilliwatts = new double[8];
+    private int sampleEntries;              // entries of the prepared sample
+    private long rows;
+    private long entries;
+
+    /**OccupancyMapWriter constructor
+     * @param dir output directory; should exist
+     * @param format layout of the maps*/
+    OccupancyMapWriter(Path dir, OccupancyMapFormat format) throws IOException {
+        super();
+        this.format = format;
+        FieldGrid grid = format.getGrid();
+        this.offsets = new NpyColumn(dir.resolve(OccupancyMapFormat.OFFSETS), "<i8");
+        this.cells = new NpyColumn(dir.resolve(OccupancyMapFormat.CELLS), "<i4");
+        this.powers = new NpyColumn(dir.resolve(OccupancyMapFormat.POWERS), "<f4");
+        this.image = format.isSensorImage() ? new NpyColumn(dir.resolve(OccupancyMapFormat.SENSOR_IMAGE), "|u1",
+                grid.getLength(), grid.getWidth()) : null;
+        this.levels = format.isSensorImage() ? new byte[grid.cellCount()] : null;
+        this.offsets.putLong(0);
+        this.offsets.endRow();
+    }
+
+    /**@param sample a sample buffer whose received powers are computed*/
+    void write(SampleBuffer sample) throws IOException {
+        prepare(sample);
+        writePrepared();
+    }
+
+    /**Computes the entries (and image) of a sample without writing anything, so a sample out of the grid leaves
+     * the files as they are.
+     * @param sample a sample buffer whose received powers are computed*/
+    void prepare(SampleBuffer sample){
+        FieldGrid grid = this.format.getGrid();
+        int txCount = sample.getTxCount();
+        if (this.sampleCells.length < txCount){
+            this.sampleCells = new int[txCount];
+            this.sampleMilliwatts = new double[txCount];
+        }
+        int count = 0;
+        for (int txId = 0; txId < txCount; txId++){       // insertion by cell; TXs sharing a cell are summed
+            int cell = grid.index((int) sample.txX[txId], (int) sample.txY[txId]);
+            double milliwatts = Math.pow(10, sample.txPower[txId] / 10);
+            int i = count;
+            while (i > 0 && this.sampleCells[i - 1] > cell)
+                i--;
+            if (i > 0 && this.sampleCells[i - 1] == cell){
+                this.sampleMilliwatts[i - 1] += milliwatts;
+                continue;
+            }
+            System.arraycopy(this.sampleCells, i, this.sampleCells, i + 1, count - i);
+            System.arraycopy(this.sampleMilliwatts, i, this.sampleMilliwatts, i + 1, count - i);
+            this.sampleCells[i] = cell;
+            this.sampleMilliwatts[i] = milliwatts;
+            count++;
+        }
+        if (this.levels != null){
+            Arrays.fill(this.levels, (byte) 0);
+            for (int ssId = 0; ssId < sample.getSensorCount(); ssId++){
+                int cell = grid.index((int) sample.ssX[ssId], (int) sample.ssY[ssId]);
+                int level = this.format.quantize(sample.receivedPower[ssId]);
+                if (level > Byte.toUnsignedInt(this.levels[cell]))
+                    this.levels[cell] = (byte) level;
+            }
+        }
+        this.sampleEntries = count;
+    }
+
+    /**Writes the sample of the last prepare().*/
+    void writePrepared() throws IOException {
+        int count = this.sampleEntries;
+        for (int i = 0; i < count; i++){
+            this.cells.putInt(this.sampleCells[i]);
+            this.cells.endRow();
+            this.powers.putFloat((float) (10 * Math.log10(this.sampleMilliwatts[i])));
+            this.powers.endRow();
+        }
+        this.entries += count;
+        this.offsets.putLong(this.entries);
+        this.offsets.endRow();
+        if (this.image != null){
+            for (byte level : this.levels)
+                this.image.putByte(level);
+            this.image.endRow();
+        }
+        this.rows++;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+        for (NpyColumn column : new NpyColumn[]{this.offsets, this.cells, this.powers, this.image}) {
+            try {
+                if (column != null)
+                    column.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        if (exception != null)
+            throw exception;
+    }
+
+    /**Concatenates the maps of several dataset directories; every part's offsets are shifted by the entries of the
+     * parts before it.
+     * @param parts dataset directories, in order
+     * @param dest destination directory; should exist
+     * @param format layout the parts were written with
+     * @return number of entries of the merged maps*/
+    static long merge(List<Path> parts, Path dest, OccupancyMapFormat format) throws IOException {
+        long entries = 0;
+        try (NpyColumn offsets = new NpyColumn(dest.resolve(OccupancyMapFormat.OFFSETS), "<i8")) {
+            offsets.putLong(0);
+            offsets.endRow();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(MERGE_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+            for (Path part : parts) {
+                long base = entries;
+                try (FileChannel in = FileChannel.open(part.resolve(OccupancyMapFormat.OFFSETS),
+                        StandardOpenOption.READ)) {
+                    long position = NpyColumn.HEADER_SIZE + Long.BYTES;     // the part's leading 0 is skipped
+                    while (position < in.size()) {
+                        buffer.clear();
+                        int read = in.read(buffer, position);
+                        if (read < 0)
+                            break;
+                        position += read - read % Long.BYTES;
+                        buffer.flip();
+                        while (buffer.remaining() >= Long.BYTES) {
+                            entries = base + buffer.getLong();
+                            offsets.putLong(entries);
+                            offsets.endRow();
+                        }
+                    }
+                }
+            }
+        }
+        NpyColumn.concat(paths(parts, OccupancyMapFormat.CELLS), dest.resolve(OccupancyMapFormat.CELLS), "<i4");
+        NpyColumn.concat(paths(parts, OccupancyMapFormat.POWERS), dest.resolve(OccupancyMapFormat.POWERS), "<f4");
+        if (format.isSensorImage())
+            NpyColumn.concat(paths(parts, OccupancyMapFormat.SENSOR_IMAGE),
+                    dest.resolve(OccupancyMapFormat.SENSOR_IMAGE), "|u1", format.getGrid().getLength(),
+                    format.getGrid().getWidth());
+        return entries;
+    }
+
+    private static List<Path> paths(List<Path> parts, String file){
+        return parts.stream().map(part -> part.resolve(file)).collect(Collectors.toList());
+    }
+
+    // **************************** Setter & Getter ******************************
+    long getRows() { return rows; }
+
+    long getEntries() { return entries; }
+
+    OccupancyMapFormat getFormat() { return format; }
+}
@@ -0,0 +1,9 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+/**Format of generated datasets*/
+public enum OutputFormat {
+    /**one comma separated line per sample (LocalizationDatasetGenerator.toString())*/
+    TEXT,
+    /**fixed-width float32/int32 NumPy columns; see NpyDatasetWriter*/
+    NPY
+}
@@ -0,0 +1,300 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import edu.stonybrook.cs.wingslab.commons.SpectrumSensor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**Path loss cache shared by all workers of a run. Entries are keyed by a packed (tx cell, rx cell) long and kept
+ * in lock-striped open-addressing tables of primitives. The cache is bound to one tx height, rx height and cell
+ * size, since those are not part of the key.
+ * If backed by a file, every new entry is also appended to a compact binary store (16 bytes per entry) through
+ * memory-mapped buffers, so the cache survives the run and loads with a single sequential scan.*/
+public class PathLossCache implements Closeable {
+    public static final long MAX_CELL = 0xFFFE;                     // largest cell coordinate that can be packed
+    private static final long EMPTY = -1L;                          // not a valid key; all coordinates 0xFFFF
+    private static final int STRIPES = 64;                          // power of two
+    private static final int MAGIC = 0x504C4331;                    // "PLC1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 16;                      // key(long), path loss(double)
+    private static final int REGION_RECORDS = 1 << 20;             // records mapped per region (16MB)
+
+    private final Segment[] segments = new Segment[STRIPES];
+    private final int cellSize;
+    private final double txHeight;
+    private final double rxHeight;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    // persistent store; null for an in-memory cache
+    private final FileChannel storeChannel;
+    private final MappedByteBuffer storeHeader;
+    private final List<MappedByteBuffer> storeRegions = new ArrayList<>();
+    private long storedRecords;                                     // guarded by storeRegions
+
+    /**In-memory PathLossCache constructor
+     * @param cellSize cell size in square
+     * @param txHeight height of TXs
+     * @param rxHeight height of sensors*/
+    public PathLossCache(int cellSize, double txHeight, double rxHeight){
+        super();
+        this.cellSize = cellSize;
+        this.txHeight = txHeight;
+        this.rxHeight = rxHeight;
+        for (int i = 0; i < STRIPES; i++)
+            this.segments[i] = new Segment();
+        this.storeChannel = null;
+        this.storeHeader = null;
+    }
+
+    /**PathLossCache constructor backed by a binary store. Entries of an existing store are loaded; a new store
+     * is created otherwise.
+     * @param store path of the binary store
+     * @param cellSize cell size in square
+     * @param txHeight height of TXs
+     * @param rxHeight height of sensors*/
+    public PathLossCache(Path store, int cellSize, double txHeight, double rxHeight) throws IOException {
+        super();
+        this.cellSize = cellSize;
+        this.txHeight = txHeight;
+        this.rxHeight = rxHeight;
+        for (int i = 0; i < STRIPES; i++)
+            this.segments[i] = new Segment();
+        boolean exists = Files.exists(store) && Files.size(store) >= HEADER_SIZE;
+        this.storeChannel = FileChannel.open(store, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            this.storeHeader = this.storeChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            this.storeHeader.order(ByteOrder.LITTLE_ENDIAN);
+            if (exists)
+                load(store);
+            else
+                this.storeHeader.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, cellSize)
+                        .putDouble(16, txHeight).putDouble(24, rxHeight).putLong(32, 0L);
+        } catch (IOException | RuntimeException e) {
+            this.storeChannel.close();
+            throw e;
+        }
+    }
+
+    // validating the header and loading all records of the store
+    private void load(Path store) throws IOException {
+        if (this.storeHeader.getInt(0) != MAGIC || this.storeHeader.getInt(4) != VERSION)
+            throw new IOException(store + " is not a path loss store.");
+        if (this.storeHeader.getInt(8) != this.cellSize || this.storeHeader.getDouble(16) != this.txHeight ||
+                this.storeHeader.getDouble(24) != this.rxHeight)
+            throw new IOException(String.format("%s was created for cell size %d, tx height %.1f and rx height %.1f.",
+                    store, this.storeHeader.getInt(8), this.storeHeader.getDouble(16),
+                    this.storeHeader.getDouble(24)));
+        long records = this.storeHeader.getLong(32);
+        for (long record = 0; record < records; record++) {
+            MappedByteBuffer region = region(record);
+            int offset = (int) (record % REGION_RECORDS) * RECORD_SIZE;
+            long key = region.getLong(offset);
+            segment(key).put(key, region.getDouble(offset + 8));
+        }
+        this.storedRecords = records;
+    }
+
+    /**@param txX tx cell x
+     * @param txY tx cell y
+     * @param rxX rx cell x
+     * @param rxY rx cell y
+     * @return packed key, or -1 if a coordinate is not an integer in [0, MAX_CELL]*/
+    public static long key(double txX, double txY, double rxX, double rxY){
+        if (!packable(txX) || !packable(txY) || !packable(rxX) || !packable(rxY))
+            return EMPTY;
+        return ((long) txX << 48) | ((long) txY << 32) | ((long) rxX << 16) | (long) rxY;
+    }
+
+    private static boolean packable(double coordinate){
+        return coordinate >= 0 && coordinate <= MAX_CELL && coordinate == Math.rint(coordinate);
+    }
+
+    /**@param key packed key
+     * @return cached path loss, or NaN if not cached*/
+    public double get(long key){
+        double value = key == EMPTY ? Double.NaN : segment(key).get(key);
+        if (Double.isNaN(value))
+            this.misses.increment();
+        else
+            this.hits.increment();
+        return value;
+    }
+
+    /**Caches a path loss; it is appended to the store if it is new.
+     * @param key packed key
+     * @param pathLoss path loss in dB; NaN is not cached*/
+    public void put(long key, double pathLoss) throws IOException {
+        if (key == EMPTY || Double.isNaN(pathLoss))
+            return;
+        if (segment(key).put(key, pathLoss) && this.storeChannel != null)
+            append(key, pathLoss);
+    }
+
+    private void append(long key, double pathLoss) throws IOException {
+        synchronized (this.storeRegions) {
+            long record = this.storedRecords;
+            MappedByteBuffer region = region(record);
+            int offset = (int) (record % REGION_RECORDS) * RECORD_SIZE;
+            region.putLong(offset, key).putDouble(offset + 8, pathLoss);
+            this.storedRecords = record + 1;
+            this.storeHeader.putLong(32, this.storedRecords);  // records after the count are ignored on load
+        }
+    }
+
+    // mapped region holding a record; regions are mapped (and the file extended) as needed
+    private MappedByteBuffer region(long record) throws IOException {
+        int regionId = (int) (record / REGION_RECORDS);
+        synchronized (this.storeRegions) {
+            while (this.storeRegions.size() <= regionId) {
+                long position = HEADER_SIZE + (long) this.storeRegions.size() * REGION_RECORDS * RECORD_SIZE;
+                MappedByteBuffer region = this.storeChannel.map(FileChannel.MapMode.READ_WRITE, position,
+                        (long) REGION_RECORDS * RECORD_SIZE);
+                region.order(ByteOrder.LITTLE_ENDIAN);
+                this.storeRegions.add(region);
+            }
+            return this.storeRegions.get(regionId);
+        }
+    }
+
+    /**Flushes the store to disk; no-op for an in-memory cache.*/
+    public void force(){
+        if (this.storeChannel == null)
+            return;
+        synchronized (this.storeRegions) {
+            for (MappedByteBuffer region : this.storeRegions)
+                region.force();
+            this.storeHeader.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.storeChannel == null)
+            return;
+        force();
+        this.storeChannel.close();
+    }
+
+    /**@return number of cached entries*/
+    public long size(){
+        long size = 0;
+        for (Segment segment : this.segments)
+            size += segment.size();
+        return size;
+    }
+
+    /**Checks once, e.g. at startup, that links of the sensors can be cached; lookups of other heights silently
+     * bypass the cache.
+     * @param sss sensors of the run
+     * @param txHeight height of TXs
+     * @throws IllegalArgumentException if a height differs from the ones the cache was created for*/
+    public void checkHeights(SpectrumSensor[] sss, double txHeight){
+        if (txHeight != this.txHeight)
+            throw new IllegalArgumentException(String.format("Path loss cache was created for TXs at %sm, not %sm.",
+                    this.txHeight, txHeight));
+        for (SpectrumSensor ss : sss){
+            double rxHeight = ss.getRx().getElement().getHeight();
+            if (rxHeight != this.rxHeight)
+                throw new IllegalArgumentException(String.format("Path loss cache was created for sensors at %sm, " +
+                        "but a sensor is at %sm.", this.rxHeight, rxHeight));
+        }
+    }
+
+    /**@return true if the heights match the ones the cache was created for*/
+    boolean accepts(double txHeight, double rxHeight){
+        return txHeight == this.txHeight && rxHeight == this.rxHeight;
+    }
+
+    private Segment segment(long key){
+        long hash = mix(key);
+        return this.segments[(int) (hash >>> 58) & (STRIPES - 1)];
+    }
+
+    // murmur3 finalizer
+    static long mix(long key){
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    // **************************** Setter & Getter ******************************
+    public long getHits() { return hits.sum(); }
+
+    public long getMisses() { return misses.sum(); }
+
+    public int getCellSize() { return cellSize; }
+
+    public double getTxHeight() { return txHeight; }
+
+    public double getRxHeight() { return rxHeight; }
+
+    // one stripe: open-addressing table with linear probing
+    private static final class Segment {
+        private long[] keys = newKeys(64);
+        private double[] values = new double[64];
+        private int size;
+
+        private static long[] newKeys(int capacity){
+            long[] keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            return keys;
+        }
+
+        private synchronized double get(long key){
+            int mask = this.keys.length - 1;
+            for (int slot = (int) mix(key) & mask; ; slot = (slot + 1) & mask) {
+                if (this.keys[slot] == key)
+                    return this.values[slot];
+                if (this.keys[slot] == EMPTY)
+                    return Double.NaN;
+            }
+        }
+
+        // returns true if the key was new
+        private synchronized boolean put(long key, double value){
+            if (this.size * 2 >= this.keys.length)
+                resize();
+            int mask = this.keys.length - 1;
+            for (int slot = (int) mix(key) & mask; ; slot = (slot + 1) & mask) {
+                if (this.keys[slot] == key){
+                    this.values[slot] = value;
+                    return false;
+                }
+                if (this.keys[slot] == EMPTY){
+                    this.keys[slot] = key;
+                    this.values[slot] = value;
+                    this.size++;
+                    return true;
+                }
+            }
+        }
+
+        private void resize(){
+            long[] oldKeys = this.keys;
+            double[] oldValues = this.values;
+            this.keys = newKeys(oldKeys.length * 2);
+            this.values = new double[oldKeys.length * 2];
+            this.size = 0;
+            for (int slot = 0; slot < oldKeys.length; slot++)
+                if (oldKeys[slot] != EMPTY)
+                    put(oldKeys[slot], oldValues[slot]);
+        }
+
+        private synchronized int size(){ return this.size; }
+    }
+}
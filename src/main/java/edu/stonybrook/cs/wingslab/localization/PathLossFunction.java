@@ -0,0 +1,30 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import edu.stonybrook.cs.wingslab.commons.Element;
+import edu.stonybrook.cs.wingslab.commons.Point;
+import edu.stonybrook.cs.wingslab.commons.PropagationModel;
+
+/**Path loss between two locations given as primitives. Locations are in cells (not multiplied by cell size)
+ * and heights are in meter.*/
+@FunctionalInterface
+public interface PathLossFunction {
+    /**@param txX tx cell x
+     * @param txY tx cell y
+     * @param txHeight tx height
+     * @param rxX rx cell x
+     * @param rxY rx cell y
+     * @param rxHeight rx height
+     * @return path loss in dB*/
+    double pathLoss(double txX, double txY, double txHeight, double rxX, double rxY, double rxHeight);
+
+    /**Adapts a PropagationModel. Elements are created for every call, so this is meant for models whose own
+     * cost dwarfs the allocation (e.g. Splat); primitive implementations should be preferred otherwise.
+     * @param propagationModel propagation model
+     * @param cellSize cell size in square
+     * @return path loss function backed by the model*/
+    static PathLossFunction of(PropagationModel propagationModel, int cellSize){
+        return (txX, txY, txHeight, rxX, rxY, rxHeight) -> propagationModel.pathLoss(
+                new Element(new Point((int) txX, (int) txY), txHeight).mul(cellSize),
+                new Element(new Point((int) rxX, (int) rxY), rxHeight).mul(cellSize));
+    }
+}
@@ -0,0 +1,186 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**Progress of a generation run on one console line. Workers only add to a LongAdder and to their own counter, so
+ * they never format strings or contend on the console's lock; a single scheduled thread renders the progress bar,
+ * aggregate throughput, ETA and the lag of busy workers that have not reported for a while (e.g. stuck in SPLAT!) at
+ * a fixed interval; finished and idle workers are never lagging. In quiet mode nothing is rendered. One instance
+ * is shared by the whole run (see global()).*/
+public class ProgressReporter {
+    public static final long DEFAULT_INTERVAL_MILLIS = 500;
+    private static final ProgressReporter GLOBAL = new ProgressReporter(System.out);
+    private static final int BAR_LENGTH = 30;
+    private static final int SHOWN_LAGS = 4;            // most lagging workers shown
+    private static final long LAG_NANOS = 1_000_000_000L;      // workers are lagging after this long without a report
+
+    private final PrintStream out;
+    private final LongAdder samples = new LongAdder();
+    private final List<Worker> workers = new CopyOnWriteArrayList<>();
+    private volatile long target;               // samples of the run, including resumed ones
+    private volatile long resumed;              // samples written before a resumed checkpoint
+    private volatile long beginNanos = System.nanoTime();
+    private ScheduledExecutorService renderer;  // null if not rendering; guarded by this
+    private long lastRenderNanos;               // renderer thread only
+    private long lastRenderSamples;
+    private int lastLineLength;
+
+    /**ProgressReporter constructor
+     * @param out stream the progress line is rendered to*/
+    public ProgressReporter(PrintStream out){
+        super();
+        this.out = out;
+    }
+
+    /**@return progress of the run*/
+    public static ProgressReporter global(){
+        return GLOBAL;
+    }
+
+    /**@param name name shown in lags, e.g. the thread's
+     * @return a new worker of the run*/
+    public Worker newWorker(String name){
+        Worker worker = new Worker(name);
+        this.workers.add(worker);
+        return worker;
+    }
+
+    /**Starts a run: counters are reset and, unless quiet, the progress line is rendered every interval.
+     * @param target number of samples of the run
+     * @param intervalMillis milliseconds between renders
+     * @param quiet if nothing should be rendered*/
+    public synchronized void start(long target, long intervalMillis, boolean quiet){
+        stopRendering();
+        this.target = target;
+        this.resumed = 0;
+        this.samples.reset();
+        this.workers.clear();
+        this.beginNanos = System.nanoTime();
+        this.lastRenderNanos = this.beginNanos;
+        this.lastRenderSamples = 0;
+        this.lastLineLength = 0;
+        if (quiet)
+            return;
+        this.renderer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "progress-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.renderer.scheduleAtFixedRate(() -> this.out.print(render(false)), intervalMillis, intervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**Counts samples written before a resumed checkpoint as done; they are not part of the throughput.
+     * @param samples samples already written*/
+    public void resumeFrom(long samples){
+        this.resumed = samples;
+    }
+
+    /**Stops rendering; the last line is rendered once more, with the mean throughput, and ended.*/
+    public synchronized void stop(){
+        if (stopRendering())
+            this.out.println(render(true));
+    }
+
+    // true if it was rendering
+    private boolean stopRendering(){
+        if (this.renderer == null)
+            return false;
+        this.renderer.shutdown();
+        try {
+            this.renderer.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.renderer = null;
+        return true;
+    }
+
+    /**@param last if the run is over; the mean throughput is shown instead of the last interval's
+     * @return the progress line, starting with a carriage return and padded over the previous one*/
+    String render(boolean last){
+        long now = System.nanoTime();
+        long generated = getSamples();
+        long done = generated + this.resumed;
+        double rate = (generated - this.lastRenderSamples) / Math.max(1e-9, (now - this.lastRenderNanos) / 1e9);
+        double meanRate = generated / Math.max(1e-9, (now - this.beginNanos) / 1e9);
+        this.lastRenderNanos = now;
+        this.lastRenderSamples = generated;
+        long target = Math.max(this.target, done);
+        int filled = target == 0 ? BAR_LENGTH : (int) (BAR_LENGTH * done / target);
+        StringBuilder line = new StringBuilder("\r[").append("=".repeat(filled))
+                .append(" ".repeat(BAR_LENGTH - filled)).append("] ")
+                .append(String.format(Locale.ROOT, "%3d%% %,d/%,d | %,.0f samples/s | ETA %s",
+                        target == 0 ? 100 : 100 * done / target, done, target, last ? meanRate : rate,
+                        meanRate > 0 ? timeFormat((long) ((target - done) / meanRate)) : "-"));
+        List<Worker> lagging = new ArrayList<>();
+        for (Worker worker : this.workers)
+            if (!last && worker.busy && now - worker.lastNanos > LAG_NANOS)
+                lagging.add(worker);
+        lagging.sort(Comparator.comparingLong(worker -> worker.lastNanos));
+        for (int i = 0; i < Math.min(SHOWN_LAGS, lagging.size()); i++)
+            line.append(i == 0 ? " | lag " : ", ").append(lagging.get(i).name).append(String.format(Locale.ROOT,
+                    " %.1fs", (now - lagging.get(i).lastNanos) / 1e9));
+        int length = line.length();
+        line.append(" ".repeat(Math.max(0, this.lastLineLength - length)));
+        this.lastLineLength = length;
+        return line.toString();
+    }
+
+    // H:mm:ss
+    private static String timeFormat(long seconds){
+        return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
+    /**@return samples generated since the run started*/
+    public long getSamples(){ return this.samples.sum(); }
+
+    public long getTarget() { return target; }
+
+    /**Progress of one worker. A worker is updated by one thread at a time (it may be handed between threads, as
+     * the chunked scheduler's workers are). A new worker is busy until finish() is called; begin() makes it busy
+     * again, e.g. when an idle worker gets the next chunk.*/
+    public class Worker {
+        private final String name;
+        private volatile long samples;          // single writer
+        private volatile long lastNanos = System.nanoTime();  // when it last reported
+        private volatile boolean busy = true;   // holds work; only busy workers can lag
+
+        private Worker(String name){
+            this.name = name;
+        }
+
+        /**@param count samples the worker has just generated*/
+        public void add(long count){
+            ProgressReporter.this.samples.add(count);
+            this.samples = this.samples + count;
+            this.lastNanos = System.nanoTime();
+        }
+
+        /**the worker holds work again; its lag is counted from now*/
+        public void begin(){
+            this.lastNanos = System.nanoTime();
+            this.busy = true;
+        }
+
+        /**the worker is done or idle and is not shown as lagging until begin()*/
+        public void finish(){
+            this.busy = false;
+        }
+
+        public String getName() { return name; }
+
+        public long getSamples() { return samples; }
+
+        public boolean isBusy() { return busy; }
+    }
+}
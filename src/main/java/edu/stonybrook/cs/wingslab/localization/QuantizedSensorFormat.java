@@ -0,0 +1,142 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+
+/**Quantized encoding of sensors' received power, written instead of sensors.npy as sensors.qsr. The file starts
+ * with a HEADER_SIZE-byte little-endian header (magic, encoding, number of sensors, floor and step) followed by
+ * independently deflated blocks, each an int sample count, an int compressed length and the compressed values of
+ * its samples, sample by sample. Every value is one code:
+ * INT16: centi-dB, round(power * 100) clamped to +-327.67dB, Short.MIN_VALUE for -inf. The low bytes of a block's
+ * codes are stored before their high bytes, which deflate compresses much better than interleaved shorts.
+ * UINT8: 1 + round((power - floor) / step) clamped to 1..255, where floor is e.g. the noise floor and
+ * floor + 254 * step the ceiling of the range; 0 for -inf.
+ * Blocks are self-contained, so the files of several writers are merged by appending their blocks.*/
+public class QuantizedSensorFormat {
+    public static final String FILE = "sensors.qsr";
+    static final int HEADER_SIZE = 32;
+    static final int BLOCK_HEADER_SIZE = 8;             // sample count and compressed length
+    private static final int MAGIC = 0x31525351;        // "QSR1"
+    private static final double CENTI_DB = 0.01;
+    private static final int MAX_LEVEL = 255;
+
+    private final SensorEncoding encoding;
+    private final double floor;             // power(dB) of code 1 (UINT8) or 0 (INT16)
+    private final double step;              // dB between consecutive codes
+    private final float[] levels;           // power(dB) of every UINT8 code; null for INT16
+
+    private QuantizedSensorFormat(SensorEncoding encoding, double floor, double step){
+        super();
+        if (encoding == SensorEncoding.FLOAT32)
+            throw new IllegalArgumentException("FLOAT32 sensors are not quantized.");
+        if (!(step > 0) || !Double.isFinite(floor))
+            throw new IllegalArgumentException("Step should be positive and the floor finite.");
+        this.encoding = encoding;
+        this.floor = floor;
+        this.step = step;
+        if (encoding == SensorEncoding.UINT8){
+            this.levels = new float[MAX_LEVEL + 1];
+            this.levels[0] = Float.NEGATIVE_INFINITY;
+            for (int code = 1; code <= MAX_LEVEL; code++)
+                this.levels[code] = (float) (floor + (code - 1) * step);
+        }
+        else
+            this.levels = null;
+    }
+
+    /**@return int16 centi-dB encoding*/
+    public static QuantizedSensorFormat int16(){
+        return new QuantizedSensorFormat(SensorEncoding.INT16, 0.0, CENTI_DB);
+    }
+
+    /**@param floor lowest power(dB) of the range, e.g. the noise floor; lower powers are clamped
+     * @param ceiling highest power(dB) of the range; higher powers are clamped
+     * @return uint8 encoding of the range in 254 steps*/
+    public static QuantizedSensorFormat uint8(double floor, double ceiling){
+        if (!(ceiling > floor))
+            throw new IllegalArgumentException("Ceiling should be above the floor.");
+        return new QuantizedSensorFormat(SensorEncoding.UINT8, floor, (ceiling - floor) / (MAX_LEVEL - 1));
+    }
+
+    /**@param encoding encoding of the sensors
+     * @param floor lowest power(dB) of a UINT8 range
+     * @param ceiling highest power(dB) of a UINT8 range
+     * @return the format of the encoding; null for FLOAT32*/
+    public static QuantizedSensorFormat of(SensorEncoding encoding, double floor, double ceiling){
+        return switch (encoding) {
+            case FLOAT32 -> null;
+            case INT16 -> int16();
+            case UINT8 -> uint8(floor, ceiling);
+        };
+    }
+
+    /**@return bytes of one code*/
+    public int bytesPerValue(){
+        return this.encoding == SensorEncoding.INT16 ? 2 : 1;
+    }
+
+    /**@param power received power(dB); -inf is allowed
+     * @return code of the power*/
+    public int quantize(double power){
+        if (power == Double.NEGATIVE_INFINITY)
+            return this.encoding == SensorEncoding.INT16 ? Short.MIN_VALUE : 0;
+        double code = Math.rint((power - this.floor) / this.step);
+        if (this.encoding == SensorEncoding.INT16)
+            return (int) Math.max(-Short.MAX_VALUE, Math.min(Short.MAX_VALUE, code));
+        return 1 + (int) Math.max(0.0, Math.min(MAX_LEVEL - 1, code));
+    }
+
+    /**@param code a code of this format
+     * @return power(dB) of the code; within step / 2 of the quantized power unless it was clamped*/
+    public float dequantize(int code){
+        if (this.encoding == SensorEncoding.UINT8)
+            return this.levels[code];
+        return code == Short.MIN_VALUE ? Float.NEGATIVE_INFINITY : (float) (code * CENTI_DB);
+    }
+
+    /**@param sensorCount number of sensors of each sample
+     * @return file header*/
+    ByteBuffer header(int sensorCount){
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(this.encoding.ordinal()).putInt(sensorCount).putDouble(this.floor)
+                .putDouble(this.step);
+        return header.position(HEADER_SIZE).flip();
+    }
+
+    /**@param header HEADER_SIZE bytes of a file header, little-endian
+     * @return the format of the file; the number of sensors is sensorCount(header)*/
+    static QuantizedSensorFormat fromHeader(ByteBuffer header) throws IOException {
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC)
+            throw new IOException("Not a quantized sensor file.");
+        int encoding = header.getInt();
+        if (encoding <= 0 || encoding >= SensorEncoding.values().length)
+            throw new IOException("Unknown sensor encoding " + encoding + ".");
+        header.getInt();
+        return new QuantizedSensorFormat(SensorEncoding.values()[encoding], header.getDouble(), header.getDouble());
+    }
+
+    /**@param header a file header, little-endian
+     * @return number of sensors of each sample of the file*/
+    static int sensorCount(ByteBuffer header){
+        return header.getInt(2 * Integer.BYTES);
+    }
+
+    /**@param samples number of samples of the file
+     * @param sensorCount number of sensors of each sample
+     * @return JSON object describing the file, as written into a dataset's manifest*/
+    String toJson(long samples, int sensorCount){
+        return String.format(Locale.ROOT, "{\"file\": \"%s\", \"encoding\": \"%s\", \"shape\": [%d, %d], " +
+                        "\"floor_db\": %s, \"step_db\": %s, \"negative_infinity\": %d}", FILE,
+                this.encoding.name().toLowerCase(Locale.ROOT), samples, sensorCount, this.floor, this.step,
+                quantize(Double.NEGATIVE_INFINITY));
+    }
+
+    // **************************** Setter & Getter ******************************
+    public SensorEncoding getEncoding() { return encoding; }
+
+    public double getFloor() { return floor; }
+
+    public double getStep() { return step; }
+}
@@ -0,0 +1,170 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**Decodes a sensors.qsr file (see QuantizedSensorFormat) into float batches. Block headers are indexed when the
+ * reader is opened; a batch inflates only the blocks it overlaps, and the last inflated block is kept for the next
+ * batch, so reading a file in order inflates every block once. Not thread-safe; every loading thread should open
+ * its own reader.*/
+public class QuantizedSensorReader implements Closeable {
+    private final FileChannel channel;
+    private final QuantizedSensorFormat format;
+    private final int sensorCount;          // sensors of each sample
+    private final Inflater inflater = new Inflater();
+    private long[] blockPositions = new long[64];   // position of every block's compressed bytes
+    private int[] blockLengths = new int[64];       // compressed length of every block
+    private long[] blockFirsts = new long[65];      // first sample of every block; the last one is the sample count
+    private int blocks;
+    private byte[] compressed = new byte[0];
+    private byte[] codes = new byte[0];             // codes of the cached block
+    private int cachedBlock = -1;
+
+    /**QuantizedSensorReader constructor
+     * @param path a sensors.qsr file*/
+    public QuantizedSensorReader(Path path) throws IOException {
+        super();
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = read(0, QuantizedSensorFormat.HEADER_SIZE);
+            this.format = QuantizedSensorFormat.fromHeader(header);
+            this.sensorCount = QuantizedSensorFormat.sensorCount(header);
+            long position = QuantizedSensorFormat.HEADER_SIZE;
+            while (position < this.channel.size()){
+                ByteBuffer blockHeader = read(position, QuantizedSensorFormat.BLOCK_HEADER_SIZE);
+                int samples = blockHeader.getInt();
+                int length = blockHeader.getInt();
+                if (this.blocks == this.blockPositions.length){
+                    this.blockPositions = Arrays.copyOf(this.blockPositions, 2 * this.blocks);
+                    this.blockLengths = Arrays.copyOf(this.blockLengths, 2 * this.blocks);
+                    this.blockFirsts = Arrays.copyOf(this.blockFirsts, 2 * this.blocks + 1);
+                }
+                position += QuantizedSensorFormat.BLOCK_HEADER_SIZE;
+                this.blockPositions[this.blocks] = position;
+                this.blockLengths[this.blocks] = length;
+                this.blockFirsts[this.blocks + 1] = this.blockFirsts[this.blocks] + samples;
+                this.blocks++;
+                position += length;
+            }
+            if (position != this.channel.size())
+                throw new EOFException("Last block of " + path + " is truncated.");
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**Decodes samples [first, first + count).
+     * @param first first sample
+     * @param count number of samples
+     * @param out batch [count, sensors] flattened row-major; null or too small to allocate a new one
+     * @return the batch; -inf readings are Float.NEGATIVE_INFINITY*/
+    public float[] read(long first, int count, float[] out) throws IOException {
+        if (first < 0 || count < 0 || first + count > getSamples())
+            throw new IndexOutOfBoundsException(String.format("Samples [%d, %d) are out of the %d samples.",
+                    first, first + count, getSamples()));
+        int sensorCount = this.sensorCount;
+        long size = (long) count * sensorCount;
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Batch is too large.");
+        float[] batch = out != null && out.length >= size ? out : new float[(int) size];
+        int block = Arrays.binarySearch(this.blockFirsts, 0, this.blocks + 1, first);
+        block = block >= 0 ? block : -block - 2;
+        int done = 0;
+        while (done < count){
+            while (this.blockFirsts[block + 1] == this.blockFirsts[block])     // empty blocks
+                block++;
+            inflate(block);
+            int blockSamples = (int) (this.blockFirsts[block + 1] - this.blockFirsts[block]);
+            int from = (int) (first + done - this.blockFirsts[block]);
+            int samples = Math.min(count - done, blockSamples - from);
+            decode(blockSamples, from, samples, batch, done * sensorCount);
+            done += samples;
+            block++;
+        }
+        return batch;
+    }
+
+    // decoding samples [from, from + samples) of the cached block into batch at offset
+    private void decode(int blockSamples, int from, int samples, float[] batch, int offset){
+        int sensorCount = this.sensorCount;
+        int begin = from * sensorCount;
+        int values = samples * sensorCount;
+        if (this.format.getEncoding() == SensorEncoding.INT16){
+            int highBytes = blockSamples * sensorCount;
+            for (int i = 0; i < values; i++){
+                int code = (short) ((this.codes[begin + i] & 0xFF) | (this.codes[highBytes + begin + i] << 8));
+                batch[offset + i] = this.format.dequantize(code);
+            }
+        }
+        else
+            for (int i = 0; i < values; i++)
+                batch[offset + i] = this.format.dequantize(this.codes[begin + i] & 0xFF);
+    }
+
+    // inflating a block into codes, unless it is cached
+    private void inflate(int block) throws IOException {
+        if (block == this.cachedBlock)
+            return;
+        int length = this.blockLengths[block];
+        if (this.compressed.length < length)
+            this.compressed = new byte[length];
+        ByteBuffer source = ByteBuffer.wrap(this.compressed, 0, length);
+        while (source.hasRemaining())
+            if (this.channel.read(source, this.blockPositions[block] + source.position()) < 0)
+                throw new EOFException("Quantized sensor file is truncated.");
+        int size = (int) (this.blockFirsts[block + 1] - this.blockFirsts[block]) * this.sensorCount *
+                this.format.bytesPerValue();
+        if (this.codes.length < size)
+            this.codes = new byte[size];
+        this.cachedBlock = -1;
+        this.inflater.reset();
+        this.inflater.setInput(this.compressed, 0, length);
+        try {
+            int inflated = 0;
+            while (inflated < size && !this.inflater.finished()){
+                int n = this.inflater.inflate(this.codes, inflated, size - inflated);
+                if (n == 0 && (this.inflater.needsInput() || this.inflater.needsDictionary()))
+                    break;
+                inflated += n;
+            }
+            if (inflated != size)
+                throw new IOException("Block " + block + " is shorter than its samples.");
+        } catch (DataFormatException e) {
+            throw new IOException("Block " + block + " is corrupted.", e);
+        }
+        this.cachedBlock = block;
+    }
+
+    // reading a header at a position
+    private ByteBuffer read(long position, int bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining())
+            if (this.channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException("Quantized sensor file is truncated.");
+        return buffer.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.inflater.end();
+        this.channel.close();
+    }
+
+    // **************************** Setter & Getter ******************************
+    /**@return number of samples of the file*/
+    public long getSamples() { return this.blockFirsts[this.blocks]; }
+
+    public QuantizedSensorFormat getFormat() { return format; }
+
+    public int getSensorCount() { return sensorCount; }
+}
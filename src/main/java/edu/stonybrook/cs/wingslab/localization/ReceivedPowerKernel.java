@@ -0,0 +1,209 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import edu.stonybrook.cs.wingslab.commons.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**Received power computation for a whole sample. Contributions of the noise floor and every TX are accumulated
+ * in milliwatts in a reusable buffer and each sensor is converted to dB once at the end. The primitive methods
+ * allocate nothing; a kernel is not thread-safe and is meant to be owned by a single worker.
+ * Object-based samples without a gain table add the noise floor as LocalizationDatasetGenerator always has, as a TX
+ * at the sensor's own location, so it goes through the model's zero-distance loss (and shadowing, if any). Primitive
+ * and gain table samples add the noise floor as is.*/
+public class ReceivedPowerKernel {
+    private static final ThreadLocal<ReceivedPowerKernel> THREAD_KERNEL =
+            ThreadLocal.withInitial(() -> new ReceivedPowerKernel(0));
+
+    private double[] receivedPower;         // linear-domain accumulator, one per sensor
+    private SpectrumSensor[] scaledSss;     // sensors whose scaled elements are cached in scaledRx
+    private Element[] scaledRx;             // rx elements multiplied by cell size
+    private int scaledCellSize;
+    private int[] txCells = new int[0];         // scratch for object-based gain table samples
+    private double[] txPowers = new double[0];
+    private double[] shadowing = new double[0];     // correlated shadowing of a TX's links
+
+    /**ReceivedPowerKernel constructor
+     * @param sensorCount initial capacity; the kernel grows if a larger sample is given*/
+    public ReceivedPowerKernel(int sensorCount){
+        super();
+        this.receivedPower = new double[sensorCount];
+    }
+
+    /**@return kernel owned by the calling thread*/
+    static ReceivedPowerKernel forThread(){
+        return THREAD_KERNEL.get();
+    }
+
+    /**Computes sensors' received power using a gain table.
+     * @param gainTable gain table built for the sensors
+     * @param txCells cell index of TXs
+     * @param txPowers power(dB) of TXs
+     * @param txCount number of TXs to be used from the arrays
+     * @param noiseFloor noise floor(dB)
+     * @param random source of shadowing; only used if gain table has positive std
+     * @param out received power(dB) of sensors will be written here*/
+    public void compute(GainTable gainTable, int[] txCells, double[] txPowers, int txCount, double noiseFloor,
+                        Random random, double[] out){
+        accumulate(gainTable, txCells, txPowers, txCount, noiseFloor, random);
+        toDb(gainTable.getSensorCount(), out);
+    }
+
+    /**Computes and sets sensors' received power for object-based samples using a gain table.
+     * @param gainTable gain table built for the sensors
+     * @param txs array of TX
+     * @param sss array of SpectrumSensor the table was built for
+     * @param noiseFloor noise floor(dB)
+     * @param random source of shadowing; only used if gain table has positive std*/
+    public void compute(GainTable gainTable, TX[] txs, SpectrumSensor[] sss, double noiseFloor, Random random){
+        if (this.txCells.length < txs.length){
+            this.txCells = new int[txs.length];
+            this.txPowers = new double[txs.length];
+        }
+        for (int txId = 0; txId < txs.length; txId++){
+            this.txCells[txId] = gainTable.getGrid().index(txs[txId].getElement().getLocation());
+            this.txPowers[txId] = txs[txId].getPower();
+        }
+        accumulate(gainTable, this.txCells, this.txPowers, txs.length, noiseFloor, random);
+        for (int ssId = 0; ssId < sss.length; ssId++)
+            sss[ssId].getRx().setReceived_power(WirelessTools.getDB(this.receivedPower[ssId]));
+    }
+
+    private void accumulate(GainTable gainTable, int[] txCells, double[] txPowers, int txCount, double noiseFloor,
+                            Random random){
+        int ssCount = gainTable.getSensorCount();
+        reset(ssCount, noiseFloor);
+        double[] power = this.receivedPower;
+        double[] gains = gainTable.gains();
+        double std = gainTable.getStd();
+        CorrelatedShadowing correlation = std == 0.0 ? null : gainTable.getShadowing();
+        if (correlation != null && this.shadowing.length < ssCount)
+            this.shadowing = new double[ssCount];
+        for (int txId = 0; txId < txCount; txId++){
+            if (txPowers[txId] == Double.NEGATIVE_INFINITY)
+                continue;
+            double txPower = WirelessTools.getDecimal(txPowers[txId]);
+            int offset = gainTable.rowOffset(txCells[txId]);
+            if (std == 0.0)
+                for (int ssId = 0; ssId < ssCount; ssId++)
+                    power[ssId] += txPower * gains[offset + ssId];
+            else if (correlation != null){
+                correlation.draw(random, this.shadowing);
+                for (int ssId = 0; ssId < ssCount; ssId++)
+                    power[ssId] += txPower * gains[offset + ssId] *
+                            WirelessTools.getDecimal(this.shadowing[ssId] * std);
+            }
+            else
+                for (int ssId = 0; ssId < ssCount; ssId++)
+                    power[ssId] += txPower * gains[offset + ssId] *
+                            WirelessTools.getDecimal(random.nextGaussian() * std);    // shadowing on top of mean
+        }
+    }
+
+    /**Computes sensors' received power using a path loss function.
+     * @param pathLoss path loss function
+     * @param txX cell x of TXs
+     * @param txY cell y of TXs
+     * @param txHeights height of TXs
+     * @param txPowers power(dB) of TXs
+     * @param txCount number of TXs to be used from the arrays
+     * @param ssX cell x of sensors
+     * @param ssY cell y of sensors
+     * @param ssHeights height of sensors
+     * @param ssCount number of sensors to be used from the arrays
+     * @param noiseFloor noise floor(dB)
+     * @param out received power(dB) of sensors will be written here*/
+    public void compute(PathLossFunction pathLoss, double[] txX, double[] txY, double[] txHeights,
+                        double[] txPowers, int txCount, double[] ssX, double[] ssY, double[] ssHeights,
+                        int ssCount, double noiseFloor, double[] out){
+        reset(ssCount, noiseFloor);
+        double[] power = this.receivedPower;
+        for (int txId = 0; txId < txCount; txId++){
+            if (txPowers[txId] == Double.NEGATIVE_INFINITY)
+                continue;
+            for (int ssId = 0; ssId < ssCount; ssId++)
+                power[ssId] += WirelessTools.getDecimal(txPowers[txId] - pathLoss.pathLoss(txX[txId],
+                        txY[txId], txHeights[txId], ssX[ssId], ssY[ssId], ssHeights[ssId]));
+        }
+        toDb(ssCount, out);
+    }
+
+    /**Computes and sets sensors' received power for object-based samples.
+     * Scaled rx elements are cached as long as the same sensor array is given.
+     * @param txs array of TX
+     * @param sss array of SpectrumSensor
+     * @param propagationModel propagation model
+     * @param cellSize cell size in square
+     * @param noiseFloor noise floor(dB)*/
+    public void compute(TX[] txs, SpectrumSensor[] sss, PropagationModel propagationModel, int cellSize,
+                        double noiseFloor){
+        if (sss != this.scaledSss || cellSize != this.scaledCellSize){
+            this.scaledRx = new Element[sss.length];
+            for (int ssId = 0; ssId < sss.length; ssId++)
+                this.scaledRx[ssId] = sss[ssId].getRx().getElement().mul(cellSize);
+            this.scaledSss = sss;
+            this.scaledCellSize = cellSize;
+        }
+        reset(sss.length, Double.NEGATIVE_INFINITY);
+        double[] power = this.receivedPower;
+        if (noiseFloor != Double.NEGATIVE_INFINITY)
+            for (int ssId = 0; ssId < sss.length; ssId++)         // noise floor through a co-located link
+                power[ssId] += WirelessTools.getDecimal(noiseFloor -
+                        propagationModel.pathLoss(this.scaledRx[ssId], this.scaledRx[ssId]));
+        for (TX tx : txs){
+            if (tx.getPower() == Double.NEGATIVE_INFINITY)
+                continue;
+            Element txElement = tx.getElement().mul(cellSize);
+            for (int ssId = 0; ssId < sss.length; ssId++)
+                power[ssId] += WirelessTools.getDecimal(tx.getPower() -
+                        propagationModel.pathLoss(txElement, this.scaledRx[ssId]));
+        }
+        for (int ssId = 0; ssId < sss.length; ssId++)
+            sss[ssId].getRx().setReceived_power(WirelessTools.getDB(power[ssId]));
+    }
+
+    /**Computes and sets sensors' received power for object-based samples using a path loss function.
+     * @param txs array of TX
+     * @param sss array of SpectrumSensor
+     * @param pathLoss path loss function
+     * @param noiseFloor noise floor(dB)*/
+    public void compute(TX[] txs, SpectrumSensor[] sss, PathLossFunction pathLoss, double noiseFloor){
+        reset(sss.length, Double.NEGATIVE_INFINITY);
+        double[] power = this.receivedPower;
+        if (noiseFloor != Double.NEGATIVE_INFINITY)
+            for (int ssId = 0; ssId < sss.length; ssId++){       // noise floor through a co-located link
+                Element rxElement = sss[ssId].getRx().getElement();
+                double rxX = rxElement.getLocation().getCartesian().getX();
+                double rxY = rxElement.getLocation().getCartesian().getY();
+                power[ssId] += WirelessTools.getDecimal(noiseFloor - pathLoss.pathLoss(rxX, rxY,
+                        rxElement.getHeight(), rxX, rxY, rxElement.getHeight()));
+            }
+        for (TX tx : txs){
+            if (tx.getPower() == Double.NEGATIVE_INFINITY)
+                continue;
+            Element txElement = tx.getElement();
+            double txX = txElement.getLocation().getCartesian().getX();
+            double txY = txElement.getLocation().getCartesian().getY();
+            for (int ssId = 0; ssId < sss.length; ssId++){
+                Element rxElement = sss[ssId].getRx().getElement();
+                power[ssId] += WirelessTools.getDecimal(tx.getPower() - pathLoss.pathLoss(txX, txY,
+                        txElement.getHeight(), rxElement.getLocation().getCartesian().getX(),
+                        rxElement.getLocation().getCartesian().getY(), rxElement.getHeight()));
+            }
+        }
+        for (int ssId = 0; ssId < sss.length; ssId++)
+            sss[ssId].getRx().setReceived_power(WirelessTools.getDB(power[ssId]));
+    }
+
+    // resetting accumulator to the noise floor, added as is; -inf for none
+    private void reset(int ssCount, double noiseFloor){
+        if (this.receivedPower.length < ssCount)
+            this.receivedPower = new double[ssCount];
+        Arrays.fill(this.receivedPower, 0, ssCount, WirelessTools.getDecimal(noiseFloor));
+    }
+
+    private void toDb(int ssCount, double[] out){
+        for (int ssId = 0; ssId < ssCount; ssId++)
+            out[ssId] = WirelessTools.getDB(this.receivedPower[ssId]);
+    }
+}
@@ -0,0 +1,150 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import edu.stonybrook.cs.wingslab.commons.*;
+
+/**A sample kept as primitive arrays (struct of arrays) instead of TX/SpectrumSensor object graphs. A worker owns
+ * one buffer and refills it for every sample, so generating, labeling and encoding a sample allocates nothing.
+ * Locations are in cells, heights in meters and powers in dB. Not thread-safe.*/
+public class SampleBuffer {
+    private final int maxTxCount;       // capacity of TX arrays
+    private final int sensorCount;      // number of sensors of every sample
+    private int txCount;                // number of TXs of the current sample
+    final double[] txX;
+    final double[] txY;
+    final double[] txHeight;
+    final double[] txPower;
+    final int[] txCell;                 // cell index of TXs; filled by CellSampler.draw() with txX and txY
+    final double[] ssX;
+    final double[] ssY;
+    final double[] ssHeight;
+    final double[] receivedPower;       // received power(dB) of sensors
+    private boolean sssLocation;        // if sensors' location be written
+    private double noiseFloor;
+
+    /**SampleBuffer constructor
+     * @param maxTxCount maximum number of TXs of a sample
+     * @param sensorCount number of sensors of each sample*/
+    public SampleBuffer(int maxTxCount, int sensorCount){
+        super();
+        if (maxTxCount < 0 || sensorCount < 0)
+            throw new IllegalArgumentException("Buffer capacities should not be negative.");
+        this.maxTxCount = maxTxCount;
+        this.sensorCount = sensorCount;
+        this.txX = new double[maxTxCount];
+        this.txY = new double[maxTxCount];
+        this.txHeight = new double[maxTxCount];
+        this.txPower = new double[maxTxCount];
+        this.txCell = new int[maxTxCount];
+        this.ssX = new double[sensorCount];
+        this.ssY = new double[sensorCount];
+        this.ssHeight = new double[sensorCount];
+        this.receivedPower = new double[sensorCount];
+    }
+
+    /**Copies sensors' location and height; used when the sensors do not change from sample to sample.
+     * @param sss array of SpectrumSensor*/
+    public void setSensors(SpectrumSensor[] sss){
+        if (sss.length != this.sensorCount)
+            throw new IllegalArgumentException("Number of sensors does not match the buffer.");
+        for (int ssId = 0; ssId < sss.length; ssId++){
+            Element element = sss[ssId].getRx().getElement();
+            this.ssX[ssId] = element.getLocation().getCartesian().getX();
+            this.ssY[ssId] = element.getLocation().getCartesian().getY();
+            this.ssHeight[ssId] = element.getHeight();
+        }
+    }
+
+    /**Copies an object-based sample, including sensors' received power.
+     * @param sample a sample whose sensors' received power is computed*/
+    public void set(LocalizationDatasetGenerator sample){
+        TX[] txs = sample.getTxs();
+        int count = txs == null ? 0 : txs.length;
+        if (count > this.maxTxCount)
+            throw new IllegalArgumentException("Number of TXs is more than the buffer capacity.");
+        setSensors(sample.getSss());
+        for (int txId = 0; txId < count; txId++){
+            Element element = txs[txId].getElement();
+            this.txX[txId] = element.getLocation().getCartesian().getX();
+            this.txY[txId] = element.getLocation().getCartesian().getY();
+            this.txHeight[txId] = element.getHeight();
+            this.txPower[txId] = txs[txId].getPower();
+        }
+        this.txCount = count;
+        for (int ssId = 0; ssId < this.sensorCount; ssId++)
+            this.receivedPower[ssId] = sample.getSss()[ssId].getRx().getReceived_power();
+        this.sssLocation = sample.isSssLocation();
+        this.noiseFloor = sample.getNoiseFloor();
+    }
+
+    /**@return a new buffer with the same capacities and contents, e.g. to keep a sample of a reused buffer*/
+    public SampleBuffer copy(){
+        SampleBuffer copy = new SampleBuffer(this.maxTxCount, this.sensorCount);
+        System.arraycopy(this.txX, 0, copy.txX, 0, this.txCount);
+        System.arraycopy(this.txY, 0, copy.txY, 0, this.txCount);
+        System.arraycopy(this.txHeight, 0, copy.txHeight, 0, this.txCount);
+        System.arraycopy(this.txPower, 0, copy.txPower, 0, this.txCount);
+        System.arraycopy(this.txCell, 0, copy.txCell, 0, this.txCount);
+        System.arraycopy(this.ssX, 0, copy.ssX, 0, this.sensorCount);
+        System.arraycopy(this.ssY, 0, copy.ssY, 0, this.sensorCount);
+        System.arraycopy(this.ssHeight, 0, copy.ssHeight, 0, this.sensorCount);
+        System.arraycopy(this.receivedPower, 0, copy.receivedPower, 0, this.sensorCount);
+        copy.txCount = this.txCount;
+        copy.sssLocation = this.sssLocation;
+        copy.noiseFloor = this.noiseFloor;
+        return copy;
+    }
+
+    /**Sets the TX count of the sample; TX arrays should be filled up to this count.
+     * @param txCount number of TXs*/
+    void setTxCount(int txCount){
+        if (txCount < 0 || txCount > this.maxTxCount)
+            throw new IllegalArgumentException("Number of TXs is more than the buffer capacity.");
+        this.txCount = txCount;
+    }
+
+    /**Same as LocalizationDatasetGenerator.strongestIndex()
+     * @return index of the strongest TX; -1 if there is no TX*/
+    public int strongestIndex(){
+        int strongestIdx = -1;
+        double highestPower = Double.NEGATIVE_INFINITY;
+        for (int txId = 0; txId < this.txCount; txId++){
+            if (this.txPower[txId] > highestPower){
+                highestPower = this.txPower[txId];
+                strongestIdx = txId;
+            }
+        }
+        return strongestIdx;
+    }
+
+    // **************************** Setter & Getter ******************************
+    // returned arrays are the buffer itself; only the first getTxCount()/getSensorCount() values are valid
+    public int getMaxTxCount() { return maxTxCount; }
+
+    public int getSensorCount() { return sensorCount; }
+
+    public int getTxCount() { return txCount; }
+
+    public double[] getTxX() { return txX; }
+
+    public double[] getTxY() { return txY; }
+
+    public double[] getTxHeight() { return txHeight; }
+
+    public double[] getTxPower() { return txPower; }
+
+    public double[] getSsX() { return ssX; }
+
+    public double[] getSsY() { return ssY; }
+
+    public double[] getSsHeight() { return ssHeight; }
+
+    public double[] getReceivedPower() { return receivedPower; }
+
+    public boolean isSssLocation() { return sssLocation; }
+
+    public void setSssLocation(boolean sssLocation) { this.sssLocation = sssLocation; }
+
+    public double getNoiseFloor() { return noiseFloor; }
+
+    public void setNoiseFloor(double noiseFloor) { this.noiseFloor = noiseFloor; }
+}
@@ -0,0 +1,232 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**A label computed from a sample on top of its sensors' readings and TX list, e.g. the most isolated TX. A label is
+ * a fixed number of values per sample (which may depend on the number of sensors); labels that search TXs by
+ * location share the sample's TxSpatialIndex, which SampleLabeler builds only if such a label is selected.
+ * Distances are horizontal and in meter. Labels keep no per-sample state and can be shared by threads.*/
+public abstract class SampleLabel {
+    private final String name;          // column name, e.g. in npy files
+
+    /**SampleLabel constructor
+     * @param name column name of the label*/
+    protected SampleLabel(String name){
+        super();
+        this.name = name;
+    }
+
+    /**@param sensorCount number of sensors of the samples
+     * @return number of values of the label*/
+    public abstract int width(int sensorCount);
+
+    /**@param column a value of the label
+     * @return decimals the value is written with in text; 0 for integers*/
+    public abstract int decimals(int column);
+
+    /**@return whether compute() reads the spatial index*/
+    public abstract boolean usesIndex();
+
+    /**Computes the label of a sample.
+     * @param sample a sample whose received powers are computed
+     * @param index TXs of the sample; only built if usesIndex() is true
+     * @param values values are written here
+     * @param offset where the first value is written*/
+    public abstract void compute(SampleBuffer sample, TxSpatialIndex index, double[] values, int offset);
+
+    /**x, y (cells) and power(dB) of the strongest TX; (0, 0, noise floor) if there is no TX, as in the text
+     * format's strongest columns
+     * @return the label*/
+    public static SampleLabel strongest(){
+        return new TxLabel("strongest", 0.0) {
+            @Override
+            int select(SampleBuffer sample, TxSpatialIndex index){
+                return sample.strongestIndex();
+            }
+
+            @Override
+            public boolean usesIndex(){ return false; }
+        };
+    }
+
+    /**x, y (cells) and power(dB) of the TX whose nearest other TX is the farthest, as
+     * LocalizationDatasetGenerator.mostIsolatedTx(); (-1000, -1000, noise floor) if there is no TX
+     * @return the label*/
+    public static SampleLabel mostIsolated(){
+        return new TxLabel("most_isolated", -1000.0) {
+            @Override
+            int select(SampleBuffer sample, TxSpatialIndex index){
+                return mostIsolatedIndex(index);
+            }
+
+            @Override
+            public boolean usesIndex(){ return true; }
+        };
+    }
+
+    /**Distances of every sensor to its k nearest TXs, closest first; NaN if the sample has fewer TXs.
+     * @param k number of TXs per sensor
+     * @param cellSize cell size in square
+     * @return the label*/
+    public static SampleLabel nearestTxs(int k, int cellSize){
+        if (k <= 0)
+            throw new IllegalArgumentException("Number of nearest TXs should be positive.");
+        return new NearestTxs(k, cellSize);
+    }
+
+    /**Number of TXs within a radius of every sensor.
+     * @param radius radius in meter
+     * @param cellSize cell size in square
+     * @return the label*/
+    public static SampleLabel txsWithinRadius(double radius, int cellSize){
+        if (!(radius >= 0))
+            throw new IllegalArgumentException("Radius should not be negative.");
+        return new SampleLabel(String.format("txs_within_%s", radius == Math.rint(radius) ?
+                Long.toString((long) radius) : Double.toString(radius))) {
+            @Override
+            public int width(int sensorCount){ return sensorCount; }
+
+            @Override
+            public int decimals(int column){ return 0; }
+
+            @Override
+            public boolean usesIndex(){ return true; }
+
+            @Override
+            public void compute(SampleBuffer sample, TxSpatialIndex index, double[] values, int offset){
+                for (int ssId = 0; ssId < sample.getSensorCount(); ssId++)
+                    values[offset + ssId] = index.countWithin(sample.ssX[ssId], sample.ssY[ssId],
+                            radius / cellSize);
+            }
+        };
+    }
+
+    /**Parses a label, e.g. "strongest", "most_isolated", "nearest:3" (3 nearest TXs per sensor) or "within:500"
+     * (TXs within 500 meters of every sensor).
+     * @param spec label specification
+     * @param cellSize cell size in square
+     * @return the label*/
+    public static SampleLabel parse(String spec, int cellSize){
+        String trimmed = spec.trim();
+        int separator = trimmed.indexOf(':');
+        String kind = separator < 0 ? trimmed : trimmed.substring(0, separator);
+        String argument = separator < 0 ? null : trimmed.substring(separator + 1);
+        SampleLabel label;
+        try {
+            label = switch (kind) {
+                case "strongest" -> strongest();
+                case "most_isolated" -> mostIsolated();
+                case "nearest" -> nearestTxs(argument == null ? 1 : Integer.parseInt(argument), cellSize);
+                case "within" -> argument == null ? null : txsWithinRadius(Double.parseDouble(argument), cellSize);
+                default -> null;
+            };
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid label: " + spec, e);
+        }
+        if (label == null)
+            throw new IllegalArgumentException("Unknown label: " + spec);
+        return label;
+    }
+
+    /**@param specs comma-separated labels; empty for none
+     * @param cellSize cell size in square
+     * @return labels in the given order*/
+    public static List<SampleLabel> parseList(String specs, int cellSize){
+        List<SampleLabel> labels = new ArrayList<>();
+        if (specs == null || specs.isBlank())
+            return labels;
+        for (String spec : specs.split(","))
+            labels.add(parse(spec, cellSize));
+        return labels;
+    }
+
+    /**@param index TXs of a sample
+     * @return index of the TX whose nearest other TX is the farthest; the first one on ties, -1 if there is no
+     * TX*/
+    static int mostIsolatedIndex(TxSpatialIndex index){
+        int mostIsolatedTxIdx = -1;
+        double highestDistance = Double.NEGATIVE_INFINITY;
+        for (int txId = 0; txId < index.getTxCount(); txId++){
+            double distance = index.nearestOtherDistanceSquared(txId);
+            if (distance > highestDistance){
+                highestDistance = distance;
+                mostIsolatedTxIdx = txId;
+            }
+        }
+        return mostIsolatedTxIdx;
+    }
+
+    // x, y and power of one of the TXs
+    private abstract static class TxLabel extends SampleLabel {
+        private final double absentLocation;    // x and y written if there is no TX
+
+        private TxLabel(String name, double absentLocation){
+            super(name);
+            this.absentLocation = absentLocation;
+        }
+
+        // index of the TX to be written
+        abstract int select(SampleBuffer sample, TxSpatialIndex index);
+
+        @Override
+        public int width(int sensorCount){ return 3; }
+
+        @Override
+        public int decimals(int column){ return column < 2 ? 1 : 3; }
+
+        @Override
+        public void compute(SampleBuffer sample, TxSpatialIndex index, double[] values, int offset){
+            if (sample.getTxCount() == 0){
+                values[offset] = this.absentLocation;
+                values[offset + 1] = this.absentLocation;
+                values[offset + 2] = sample.getNoiseFloor();
+                return;
+            }
+            int txId = select(sample, index);
+            values[offset] = sample.txX[txId];
+            values[offset + 1] = sample.txY[txId];
+            values[offset + 2] = sample.txPower[txId];
+        }
+    }
+
+    // distances of every sensor to its k nearest TXs
+    private static class NearestTxs extends SampleLabel {
+        private final int k;
+        private final int cellSize;
+        private final ThreadLocal<double[]> distancesSquared;      // scratch of a query
+
+        private NearestTxs(int k, int cellSize){
+            super("nearest_" + k + "_txs");
+            this.k = k;
+            this.cellSize = cellSize;
+            this.distancesSquared = ThreadLocal.withInitial(() -> new double[k]);
+        }
+
+        @Override
+        public int width(int sensorCount){ return sensorCount * this.k; }
+
+        @Override
+        public int decimals(int column){ return 1; }
+
+        @Override
+        public boolean usesIndex(){ return true; }
+
+        @Override
+        public void compute(SampleBuffer sample, TxSpatialIndex index, double[] values, int offset){
+            double[] distancesSquared = this.distancesSquared.get();
+            for (int ssId = 0; ssId < sample.getSensorCount(); ssId++){
+                int found = index.nearest(sample.ssX[ssId], sample.ssY[ssId], -1, this.k, null, distancesSquared);
+                int ssOffset = offset + ssId * this.k;
+                for (int i = 0; i < this.k; i++)
+                    values[ssOffset + i] = i < found ? Math.sqrt(distancesSquared[i]) * this.cellSize : Double.NaN;
+            }
+        }
+    }
+
+    // **************************** Setter & Getter ******************************
+    public String getName() { return name; }
+
+    @Override
+    public String toString(){ return this.name; }
+}
@@ -0,0 +1,61 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import java.util.List;
+
+/**Computes the selected labels of a sample into one reusable row of values, in the order the labels were given.
+ * The TX spatial index is built once per sample and only if a selected label uses it, so unselected labels cost
+ * nothing. A labeler is owned by one encoder or writer; it is not thread-safe.*/
+public class SampleLabeler {
+    private final List<SampleLabel> labels;
+    private final TxSpatialIndex index = new TxSpatialIndex();
+    private final boolean usesIndex;        // whether any of the labels uses the index
+    private int sensorCount = -1;           // sensor count values is sized for
+    private double[] values = new double[0];
+    private int width;
+
+    /**SampleLabeler constructor
+     * @param labels labels to be computed, in output order*/
+    public SampleLabeler(List<SampleLabel> labels){
+        super();
+        this.labels = List.copyOf(labels);
+        this.usesIndex = this.labels.stream().anyMatch(SampleLabel::usesIndex);
+    }
+
+    /**Computes the labels of a sample; the values stay valid until the next call.
+     * @param sample a sample whose received powers are computed
+     * @return number of values, i.e. width(sample.getSensorCount())*/
+    public int label(SampleBuffer sample){
+        if (sample.getSensorCount() != this.sensorCount){
+            this.sensorCount = sample.getSensorCount();
+            this.width = width(this.sensorCount);
+            if (this.values.length < this.width)
+                this.values = new double[this.width];
+        }
+        if (this.usesIndex)
+            this.index.build(sample);
+        int offset = 0;
+        for (SampleLabel label : this.labels) {
+            label.compute(sample, this.index, this.values, offset);
+            offset += label.width(this.sensorCount);
+        }
+        return this.width;
+    }
+
+    /**@param sensorCount number of sensors of the samples
+     * @return number of values of all labels*/
+    public int width(int sensorCount){
+        int width = 0;
+        for (SampleLabel label : this.labels)
+            width += label.width(sensorCount);
+        return width;
+    }
+
+    /**@return whether there is no label to be computed*/
+    public boolean isEmpty(){ return this.labels.isEmpty(); }
+
+    // **************************** Setter & Getter ******************************
+    public List<SampleLabel> getLabels() { return labels; }
+
+    /**@return values of the last labeled sample; only the first width values are valid*/
+    public double[] getValues() { return values; }
+}
@@ -0,0 +1,162 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**Publishes freshly generated samples to in-process subscribers. Samples are only generated as they are requested,
+ * so a slow consumer holds generation back instead of letting samples pile up. Every subscription gets its own app
+ * and SampleBuffer, generates on the executor and delivers the same buffer to every onNext(); a subscriber should
+ * copy what it keeps before returning (e.g. SampleBuffer.copy()). A failed sample ends the subscription with
+ * onError().
+ * Subscriptions get disjoint ranges of sample indices: the i-th subscription (counted from 0) starts at index
+ * i * count, or i * UNLIMITED_RANGE if the publisher is unlimited. In a seeded run every subscriber thus gets fresh
+ * samples, and the same ones again on a rerun with the same seed and order of subscriptions.*/
+public class SamplePublisher implements Flow.Publisher<SampleBuffer> {
+    private static final int BATCH = 256;
+    // a subscription gives its executor thread back after this many samples, even if more are requested
+    public static final long UNLIMITED_RANGE = 1L << 40;
+    // sample indices of a subscription of an unlimited publisher
+    private final Supplier<LocalizationDatasetGeneratorApp> apps;
+    // creates one app per subscription; the field grid should be set before they are created
+    private final long count;
+    // number of samples of each subscription; Long.MAX_VALUE means unlimited
+    private final Executor executor;
+    private final AtomicLong subscriptions = new AtomicLong();
+    // subscriptions so far; orders their index ranges
+
+    /**SamplePublisher constructor
+     * @param apps supplier of apps (e.g. a lambda calling the constructor); called once per subscription
+     * @param count number of samples of each subscription; Long.MAX_VALUE for unlimited
+     * @param executor executor samples are generated on*/
+    public SamplePublisher(Supplier<LocalizationDatasetGeneratorApp> apps, long count, Executor executor){
+        super();
+        if (count < 0)
+            throw new IllegalArgumentException("Number of samples should not be negative.");
+        this.apps = Objects.requireNonNull(apps);
+        this.count = count;
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    /**SamplePublisher constructor for an unlimited publisher on the common pool
+     * @param apps supplier of apps*/
+    public SamplePublisher(Supplier<LocalizationDatasetGeneratorApp> apps){
+        this(apps, Long.MAX_VALUE, ForkJoinPool.commonPool());
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super SampleBuffer> subscriber){
+        SampleSubscription subscription = new SampleSubscription(Objects.requireNonNull(subscriber));
+        subscriber.onSubscribe(subscription);
+        subscription.schedule();        // completes right away if there is nothing to publish
+    }
+
+    // demand is drained by at most one executor task at a time; pending counts requests that arrived meanwhile
+    private class SampleSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super SampleBuffer> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+        private LocalizationDatasetGeneratorApp app;    // created on the executor
+        private SampleBuffer sample;
+        private long remaining = SamplePublisher.this.count;
+        private final long firstSample = SamplePublisher.this.subscriptions.getAndIncrement() *
+                (SamplePublisher.this.count == Long.MAX_VALUE ? UNLIMITED_RANGE : SamplePublisher.this.count);
+
+        private SampleSubscription(Flow.Subscriber<? super SampleBuffer> subscriber){
+            super();
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n){
+            if (n <= 0)
+                this.invalidRequest = new IllegalArgumentException("Requested number of samples should be " +
+                        "positive: " + n);
+            else
+                this.demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE :
+                        current + added);
+            schedule();
+        }
+
+        @Override
+        public void cancel(){
+            this.cancelled = true;
+        }
+
+        private void schedule(){
+            if (this.pending.getAndIncrement() == 0)
+                SamplePublisher.this.executor.execute(this);
+        }
+
+        @Override
+        public void run(){
+            int missed = 1;
+            int emitted = 0;
+            while (true) {
+                long requested = this.demand.get();
+                long delivered = 0;
+                while (delivered != requested) {
+                    if (terminated())
+                        return;
+                    if (emitted == BATCH) {         // giving the thread back; pending stays positive meanwhile
+                        produced(delivered);
+                        SamplePublisher.this.executor.execute(this);
+                        return;
+                    }
+                    try {
+                        if (this.app == null){
+                            this.app = SamplePublisher.this.apps.get();
+                            this.sample = this.app.newSampleBuffer();
+                            this.app.setNextSampleIndex(this.firstSample);
+                        }
+                        this.app.nextSample(this.sample);
+                    } catch (RuntimeException e) {
+                        this.cancelled = true;
+                        this.subscriber.onError(e);
+                        return;
+                    }
+                    if (this.remaining != Long.MAX_VALUE)
+                        this.remaining--;
+                    this.subscriber.onNext(this.sample);
+                    delivered++;
+                    emitted++;
+                }
+                if (terminated())
+                    return;
+                produced(delivered);
+                missed = this.pending.addAndGet(-missed);
+                if (missed == 0)
+                    return;
+            }
+        }
+
+        // signals an invalid request or completion; true if the subscription is over
+        private boolean terminated(){
+            if (this.cancelled)
+                return true;
+            Throwable error = this.invalidRequest;
+            if (error != null){
+                this.cancelled = true;
+                this.subscriber.onError(error);
+                return true;
+            }
+            if (this.remaining == 0){
+                this.cancelled = true;
+                this.subscriber.onComplete();
+                return true;
+            }
+            return false;
+        }
+
+        private void produced(long delivered){
+            if (delivered != 0)
+                this.demand.getAndUpdate(current -> current == Long.MAX_VALUE ? current : current - delivered);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import java.util.Random;
+
+/**Random source of one sample, derived only from (run seed, global sample index) in the manner of SplittableRandom:
+ * the index-th SplitMix64 output of the run seed seeds a SplitMix64 stream for the sample. The same sample is
+ * therefore drawn whichever thread, chunk, shard or machine generates it. It extends Random so CellSampler,
+ * GainTable shadowing and LogDistanceKernel can use it unchanged; reset() re-seeds it without allocation.
+ * Not thread-safe (unlike Random); every worker owns one.*/
+public class SampleRandom extends Random {
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private long state;
+    private double nextNextGaussian;            // second value of the last polar pair
+    private boolean haveNextNextGaussian;
+
+    /**SampleRandom constructor; reset() should be called before drawing*/
+    public SampleRandom(){
+        super(0);
+    }
+
+    /**Re-seeds this random for a sample.
+     * @param runSeed seed of the run
+     * @param sampleIndex global index of the sample
+     * @return this*/
+    public SampleRandom reset(long runSeed, long sampleIndex){
+        this.state = mix64(runSeed + GOLDEN_GAMMA * (sampleIndex + 1));
+        this.haveNextNextGaussian = false;
+        return this;
+    }
+
+    /**Continues from another random's current state, e.g. to draw the same values again for another dataset.
+     * @param other random whose state is copied
+     * @return this*/
+    SampleRandom copyFrom(SampleRandom other){
+        this.state = other.state;
+        this.nextNextGaussian = other.nextNextGaussian;
+        this.haveNextNextGaussian = other.haveNextNextGaussian;
+        return this;
+    }
+
+    /**@return a new random run seed, e.g. when none is given; it should be recorded to reproduce the run*/
+    public static long newRunSeed(){
+        return mix64(System.nanoTime() ^ mix64(System.currentTimeMillis()));
+    }
+
+    @Override
+    public long nextLong(){
+        this.state += GOLDEN_GAMMA;
+        return mix64(this.state);
+    }
+
+    @Override
+    protected int next(int bits){
+        return (int) (nextLong() >>> (64 - bits));
+    }
+
+    // same algorithm as Random.nextGaussian(), but the cached value is reset with the seed
+    @Override
+    public double nextGaussian(){
+        if (this.haveNextNextGaussian){
+            this.haveNextNextGaussian = false;
+            return this.nextNextGaussian;
+        }
+        double v1, v2, s;
+        do {
+            v1 = 2 * nextDouble() - 1;
+            v2 = 2 * nextDouble() - 1;
+            s = v1 * v1 + v2 * v2;
+        } while (s >= 1 || s == 0);
+        double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+        this.nextNextGaussian = v2 * multiplier;
+        this.haveNextNextGaussian = true;
+        return v1 * multiplier;
+    }
+
+    // finalizer of SplitMix64 (Stafford variant 13), as in SplittableRandom
+    private static long mix64(long z){
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,94 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**Generates samples on demand for in-process consumers, without writing them anywhere. Every spliterator owns one
+ * app and one SampleBuffer that is refilled for each element, so an element is only valid until the next one is
+ * requested; use SampleBuffer.copy() to keep it. Splitting creates another app from the supplier, which lets a
+ * parallel stream generate on several threads, each with its own buffer. Every element has a global sample index,
+ * so a seeded run (see LocalizationDatasetGeneratorApp.setRunSeed()) gives the same samples however it is split.
+ * An unlimited spliterator splits off prefixes of SamplePublisher.UNLIMITED_RANGE samples, so the index ranges of its
+ * splits never overlap. The app is created when the first sample is requested, i.e. on the thread that uses it.*/
+public class SampleSpliterator implements Spliterator<SampleBuffer> {
+    private final Supplier<LocalizationDatasetGeneratorApp> apps;
+    // creates apps; the field grid should be set before they are created
+    private LocalizationDatasetGeneratorApp app;    // null until the first sample
+    private SampleBuffer sample;
+    private long nextIndex;
+    // global index of the next sample
+    private long remaining;
+    // number of samples left; Long.MAX_VALUE means unlimited
+
+    /**SampleSpliterator constructor
+     * @param apps supplier of apps (e.g. a lambda calling the constructor); called once per split
+     * @param count number of samples; Long.MAX_VALUE for an unlimited source*/
+    public SampleSpliterator(Supplier<LocalizationDatasetGeneratorApp> apps, long count){
+        this(apps, 0, count);
+    }
+
+    /**SampleSpliterator constructor
+     * @param apps supplier of apps (e.g. a lambda calling the constructor); called once per split
+     * @param firstIndex global index of the first sample
+     * @param count number of samples; Long.MAX_VALUE for an unlimited source*/
+    public SampleSpliterator(Supplier<LocalizationDatasetGeneratorApp> apps, long firstIndex, long count){
+        super();
+        if (count < 0)
+            throw new IllegalArgumentException("Number of samples should not be negative.");
+        this.apps = apps;
+        this.nextIndex = firstIndex;
+        this.remaining = count;
+    }
+
+    /**@param apps supplier of apps
+     * @param count number of samples; Long.MAX_VALUE for an unlimited stream (use limit() or a short-circuit)
+     * @param parallel whether the stream is parallel
+     * @return stream of samples; elements are reused buffers*/
+    public static Stream<SampleBuffer> stream(Supplier<LocalizationDatasetGeneratorApp> apps, long count,
+                                              boolean parallel){
+        return StreamSupport.stream(new SampleSpliterator(apps, count), parallel);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super SampleBuffer> action){
+        if (this.remaining == 0)
+            return false;
+        if (this.app == null){
+            this.app = this.apps.get();
+            this.sample = this.app.newSampleBuffer();
+        }
+        this.app.nextSample(this.sample, this.nextIndex++);
+        if (this.remaining != Long.MAX_VALUE)
+            this.remaining--;
+        action.accept(this.sample);
+        return true;
+    }
+
+    @Override
+    public Spliterator<SampleBuffer> trySplit(){
+        if (this.remaining < 2)
+            return null;
+        // halving an unlimited source would soon overflow the indices; it gives a bounded range instead
+        long prefixCount = this.remaining == Long.MAX_VALUE ? SamplePublisher.UNLIMITED_RANGE : this.remaining / 2;
+        SampleSpliterator prefix = new SampleSpliterator(this.apps, this.nextIndex, prefixCount);
+        this.nextIndex += prefixCount;
+        if (this.remaining != Long.MAX_VALUE)
+            this.remaining -= prefixCount;
+        return prefix;
+    }
+
+    // global index of the next sample
+    long getNextIndex() { return nextIndex; }
+
+    @Override
+    public long estimateSize(){ return this.remaining; }
+
+    @Override
+    public int characteristics(){
+        // samples are independent, so there is no meaningful encounter order
+        return NONNULL | (this.remaining != Long.MAX_VALUE ? SIZED | SUBSIZED : 0);
+    }
+}
@@ -0,0 +1,12 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+/**Encoding of sensors' received power in NPY datasets*/
+public enum SensorEncoding {
+    /**float32 sensors.npy*/
+    FLOAT32,
+    /**int16 centi-dB in deflated blocks (sensors.qsr); see QuantizedSensorFormat*/
+    INT16,
+    /**uint8 levels between the noise floor and a ceiling in deflated blocks (sensors.qsr); see
+     * QuantizedSensorFormat*/
+    UINT8
+}
@@ -0,0 +1,168 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import edu.stonybrook.cs.wingslab.commons.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**Thread-safe PathLossFunction that runs expensive path loss computations (SPLAT! executions) on a bounded pool
+ * sized separately from the generator threads. Results go to a shared PathLossCache. Requests are single-flight:
+ * a thread missing the cache for a link that is already being computed waits for that computation instead of
+ * starting another one.
+ * Each pool thread gets its own delegate from the factory, so delegates need not be thread-safe. Any
+ * PathLossFunction can be the delegate, e.g. an ExternalPathLoss running a stub executable in tests.*/
+public class SplatExecutionService implements PathLossFunction, Closeable {
+    private final PathLossCache cache;
+    private final ExecutorService pool;
+    private final ThreadLocal<PathLossFunction> delegates;    // one delegate per pool thread
+    private final ConcurrentHashMap<Long, CompletableFuture<Double>> inFlight = new ConcurrentHashMap<>();
+    private final int processes;
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder executionNanos = new LongAdder();
+    private final LongAdder sharedWaits = new LongAdder();  // requests served by another request's execution
+
+    /**SplatExecutionService constructor
+     * @param cache shared cache results are written to
+     * @param delegateFactory creates the delegate of a pool thread, e.g. () -> PathLossFunction.of(new Splat(splat),
+     *                        cellSize)
+     * @param processes maximum number of concurrent executions*/
+    public SplatExecutionService(PathLossCache cache, Supplier<PathLossFunction> delegateFactory, int processes){
+        super();
+        if (processes <= 0)
+            throw new IllegalArgumentException("Number of processes should be positive.");
+        this.cache = cache;
+        this.processes = processes;
+        this.delegates = ThreadLocal.withInitial(delegateFactory);
+        AtomicInteger threadId = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(processes, runnable -> {
+            Thread thread = new Thread(runnable, "splat-" + threadId.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public double pathLoss(double txX, double txY, double txHeight, double rxX, double rxY, double rxHeight){
+        if (!this.cache.accepts(txHeight, rxHeight))
+            return join(CompletableFuture.supplyAsync(() -> execute(txX, txY, txHeight, rxX, rxY, rxHeight),
+                    this.pool));
+        long key = PathLossCache.key(txX, txY, rxX, rxY);
+        double loss = this.cache.get(key);
+        if (!Double.isNaN(loss))
+            return loss;
+        CompletableFuture<Double> created = new CompletableFuture<>();
+        CompletableFuture<Double> future = this.inFlight.putIfAbsent(key, created);
+        if (future != null){
+            this.sharedWaits.increment();
+            return join(future);
+        }
+        try {
+            this.pool.execute(() -> {
+                try {
+                    created.complete(executeAndCache(key, txX, txY, txHeight, rxX, rxY, rxHeight));
+                } catch (Throwable e) {
+                    created.completeExceptionally(e);
+                } finally {
+                    this.inFlight.remove(key, created);     // result is already cached
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.inFlight.remove(key, created);
+            created.completeExceptionally(e);
+        }
+        return join(created);
+    }
+
+    // runs on a pool thread
+    private double executeAndCache(long key, double txX, double txY, double txHeight, double rxX, double rxY,
+                                   double rxHeight){
+        double loss = this.cache.get(key);      // a previous flight may have finished just before this one
+        if (!Double.isNaN(loss))
+            return loss;
+        loss = execute(txX, txY, txHeight, rxX, rxY, rxHeight);
+        try {
+            this.cache.put(key, loss);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return loss;
+    }
+
+    private double execute(double txX, double txY, double txHeight, double rxX, double rxY, double rxHeight){
+        long beginTime = System.nanoTime();
+        double loss = this.delegates.get().pathLoss(txX, txY, txHeight, rxX, rxY, rxHeight);
+        long nanos = System.nanoTime() - beginTime;
+        this.executionNanos.add(nanos);
+        GeneratorMetrics.global().record(GeneratorMetrics.Stage.SPLAT_EXECUTION, nanos);
+        this.executions.increment();
+        return loss;
+    }
+
+    private static double join(CompletableFuture<Double> future){
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException)
+                throw runtimeException;
+            throw e;
+        }
+    }
+
+    /**Computes all links between the cells of the grid and the sensors that are not cached yet, so sampling
+     * never waits for an execution. Blocks until done.
+     * @param grid grid of the field
+     * @param sss sensors
+     * @param txHeight height of TXs
+     * @return number of links computed*/
+    public long prefetch(FieldGrid grid, SpectrumSensor[] sss, double txHeight){
+        long before = this.executions.sum();
+        List<CompletableFuture<Void>> cells = new ArrayList<>(grid.cellCount());
+        for (int cell = 0; cell < grid.cellCount(); cell++){
+            int cellId = cell;
+            cells.add(CompletableFuture.runAsync(() -> {
+                for (SpectrumSensor ss : sss){
+                    Element rx = ss.getRx().getElement();
+                    double rxX = rx.getLocation().getCartesian().getX();
+                    double rxY = rx.getLocation().getCartesian().getY();
+                    long key = PathLossCache.key(grid.x(cellId), grid.y(cellId), rxX, rxY);
+                    if (this.cache.accepts(txHeight, rx.getHeight()) && Double.isNaN(this.cache.get(key)))
+                        executeAndCache(key, grid.x(cellId), grid.y(cellId), txHeight, rxX, rxY, rx.getHeight());
+                }
+            }, this.pool));
+        }
+        CompletableFuture.allOf(cells.toArray(new CompletableFuture<?>[0])).join();
+        return this.executions.sum() - before;
+    }
+
+    /**stops the pool; running executions are completed*/
+    @Override
+    public void close(){
+        this.pool.shutdown();
+    }
+
+    // **************************** Setter & Getter ******************************
+    public PathLossCache getCache() { return cache; }
+
+    public int getProcesses() { return processes; }
+
+    /**@return number of delegate executions*/
+    public long getExecutions() { return executions.sum(); }
+
+    /**@return total time(ns) spent in delegate executions*/
+    public long getExecutionNanos() { return executionNanos.sum(); }
+
+    /**@return number of requests that waited for an execution started by another request*/
+    public long getSharedWaits() { return sharedWaits.sum(); }
+}
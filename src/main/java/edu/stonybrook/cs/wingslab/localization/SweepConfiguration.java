@@ -0,0 +1,137 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**One dataset of a sweep: the parameters a family of datasets usually differs in. A sweep file has one dataset per
+ * line as whitespace-separated key=value pairs, e.g. "alpha=3.5 std=1.0 sensors=400 tx=0-4"; keys are alpha, std
+ * (0 for no shadowing), sensors and tx (minimum-maximum number of TXs, or one number). Omitted keys take the
+ * defaults' values; empty lines and lines starting with '#' are ignored.*/
+public class SweepConfiguration {
+    private final double alpha;         // propagation model coeff.; log only
+    private final double std;           // shadowing std in dB; 0 for none. log only
+    private final int sensorCount;      // number of sensors
+    private final int minTxNum;         // minimum number of TXs of a sample
+    private final int maxTxNum;         // maximum number of TXs of a sample
+
+    /**SweepConfiguration constructor
+     * @param alpha propagation model coeff.
+     * @param std shadowing std in dB; 0 for none
+     * @param sensorCount number of sensors
+     * @param minTxNum minimum number of TXs of a sample
+     * @param maxTxNum maximum number of TXs of a sample*/
+    public SweepConfiguration(double alpha, double std, int sensorCount, int minTxNum, int maxTxNum){
+        super();
+        if (std < 0 || sensorCount <= 0 || minTxNum < 0 || maxTxNum < minTxNum)
+            throw new IllegalArgumentException(String.format("Invalid dataset configuration: std %s, %d sensors, " +
+                    "%d-%d TXs.", std, sensorCount, minTxNum, maxTxNum));
+        this.alpha = alpha;
+        this.std = std;
+        this.sensorCount = sensorCount;
+        this.minTxNum = minTxNum;
+        this.maxTxNum = maxTxNum;
+    }
+
+    /**@param line key=value pairs of a dataset
+     * @param defaults values of omitted keys
+     * @return the dataset's configuration*/
+    public static SweepConfiguration parse(String line, SweepConfiguration defaults){
+        double alpha = defaults.alpha;
+        double std = defaults.std;
+        int sensorCount = defaults.sensorCount;
+        int minTxNum = defaults.minTxNum;
+        int maxTxNum = defaults.maxTxNum;
+        for (String pair : line.trim().split("\\s+")) {
+            int separator = pair.indexOf('=');
+            if (separator < 0)
+                throw new IllegalArgumentException("Sweep entries should be key=value: " + pair);
+            String value = pair.substring(separator + 1);
+            try {
+                switch (pair.substring(0, separator)) {
+                    case "alpha" -> alpha = Double.parseDouble(value);
+                    case "std" -> std = Double.parseDouble(value);
+                    case "sensors" -> sensorCount = Integer.parseInt(value);
+                    case "tx" -> {
+                        int dash = value.indexOf('-');
+                        minTxNum = Integer.parseInt(dash < 0 ? value : value.substring(0, dash));
+                        maxTxNum = Integer.parseInt(dash < 0 ? value : value.substring(dash + 1));
+                    }
+                    default -> throw new IllegalArgumentException("Unknown sweep key: " + pair);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid sweep value: " + pair, e);
+            }
+        }
+        return new SweepConfiguration(alpha, std, sensorCount, minTxNum, maxTxNum);
+    }
+
+    /**Reads a sweep file.
+     * @param file sweep file; one dataset per line
+     * @param defaults values of omitted keys
+     * @return configurations in file order*/
+    public static List<SweepConfiguration> read(Path file, SweepConfiguration defaults) throws IOException {
+        List<SweepConfiguration> configurations = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            if (line.isBlank() || line.trim().startsWith("#"))
+                continue;
+            try {
+                configurations.add(parse(line, defaults));
+            } catch (IllegalArgumentException e) {
+                throw new IOException(String.format("%s:%d: %s", file, lineNumber, e.getMessage()), e);
+            }
+        }
+        if (configurations.isEmpty())
+            throw new IOException("Sweep file has no datasets: " + file);
+        return configurations;
+    }
+
+    /**@param other another configuration
+     * @return whether both draw the same TXs for a sample*/
+    public boolean sameTxDraws(SweepConfiguration other){
+        return this.minTxNum == other.minTxNum && this.maxTxNum == other.maxTxNum;
+    }
+
+    /**@param other another configuration
+     * @return whether both use the same propagation model*/
+    public boolean sameModel(SweepConfiguration other){
+        return Double.compare(this.alpha, other.alpha) == 0 && Double.compare(this.std, other.std) == 0;
+    }
+
+    @Override
+    public boolean equals(Object o){
+        if (this == o)
+            return true;
+        if (!(o instanceof SweepConfiguration that))
+            return false;
+        return sameModel(that) && sameTxDraws(that) && this.sensorCount == that.sensorCount;
+    }
+
+    @Override
+    public int hashCode(){
+        return Objects.hash(this.alpha, this.std, this.sensorCount, this.minTxNum, this.maxTxNum);
+    }
+
+    @Override
+    public String toString(){
+        return String.format("alpha=%s std=%s sensors=%d tx=%d-%d", this.alpha, this.std, this.sensorCount,
+                this.minTxNum, this.maxTxNum);
+    }
+
+    // **************************** Setter & Getter ******************************
+    public double getAlpha() { return alpha; }
+
+    public double getStd() { return std; }
+
+    public int getSensorCount() { return sensorCount; }
+
+    public int getMinTxNum() { return minTxNum; }
+
+    public int getMaxTxNum() { return maxTxNum; }
+}
@@ -0,0 +1,237 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import edu.stonybrook.cs.wingslab.commons.TX;
+
+import java.util.Arrays;
+
+/**Uniform bucket grid over the TXs of a sample for nearest-neighbor and radius queries. TXs are counting-sorted
+ * into about two per bucket over their bounding box, so building is O(n) and a query on uniformly spread TXs
+ * visits a few buckets instead of every TX. Locations and distances are in cells (horizontal only); callers
+ * scale by cell size. An index is rebuilt for every sample and allocates only when a sample has more TXs than
+ * any before. Not thread-safe.*/
+public class TxSpatialIndex {
+    private static final ThreadLocal<TxSpatialIndex> THREAD_INDEX = ThreadLocal.withInitial(TxSpatialIndex::new);
+    private static final double TXS_PER_BUCKET = 2.0;
+
+    private int txCount;
+    private double minX;
+    private double minY;
+    private double bucketWidth;
+    private double bucketHeight;
+    private int columns;                // buckets along x
+    private int rows;                   // buckets along y
+    private int[] bucketStart = new int[2];     // bucketStart[b]..bucketStart[b + 1]: TXs of bucket b in ids
+    private int[] ids = new int[0];             // TX ids sorted by bucket
+    private double[] sortedX = new double[0];   // locations in the order of ids
+    private double[] sortedY = new double[0];
+    private int[] positions = new int[0];       // positions[id]: where the TX is in ids
+    private final double[] nearestScratch = new double[1];
+    private double[] objectX = new double[0];   // locations of object-based TXs
+    private double[] objectY = new double[0];
+
+    /**TxSpatialIndex constructor; the index is empty until build() is called*/
+    public TxSpatialIndex(){
+        super();
+    }
+
+    /**@return index owned by the calling thread*/
+    static TxSpatialIndex forThread(){
+        return THREAD_INDEX.get();
+    }
+
+    /**Indexes the TXs of a sample.
+     * @param sample a sample buffer*/
+    public void build(SampleBuffer sample){
+        build(sample.txX, sample.txY, sample.getTxCount());
+    }
+
+    /**Indexes object-based TXs; TX i of the array is reported as id i.
+     * @param txs array of TX; may be null*/
+    public void build(TX[] txs){
+        int count = txs == null ? 0 : txs.length;
+        if (this.objectX.length < count){
+            this.objectX = new double[count];
+            this.objectY = new double[count];
+        }
+        for (int txId = 0; txId < count; txId++){
+            this.objectX[txId] = txs[txId].getElement().getLocation().getCartesian().getX();
+            this.objectY[txId] = txs[txId].getElement().getLocation().getCartesian().getY();
+        }
+        build(this.objectX, this.objectY, count);
+    }
+
+    /**Indexes the first txCount locations of the arrays; TX i is reported as id i.
+     * @param txX x of TXs in cells
+     * @param txY y of TXs in cells
+     * @param txCount number of TXs*/
+    public void build(double[] txX, double[] txY, int txCount){
+        this.txCount = txCount;
+        if (this.ids.length < txCount){
+            this.ids = new int[txCount];
+            this.sortedX = new double[txCount];
+            this.sortedY = new double[txCount];
+            this.positions = new int[txCount];
+        }
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        this.minX = Double.POSITIVE_INFINITY;
+        this.minY = Double.POSITIVE_INFINITY;
+        for (int txId = 0; txId < txCount; txId++){
+            this.minX = Math.min(this.minX, txX[txId]);
+            this.minY = Math.min(this.minY, txY[txId]);
+            maxX = Math.max(maxX, txX[txId]);
+            maxY = Math.max(maxY, txY[txId]);
+        }
+        int side = Math.max(1, (int) Math.sqrt(txCount / TXS_PER_BUCKET));
+        this.columns = side;
+        this.rows = side;
+        this.bucketWidth = txCount > 0 && maxX > this.minX ? (maxX - this.minX) / side : 1.0;
+        this.bucketHeight = txCount > 0 && maxY > this.minY ? (maxY - this.minY) / side : 1.0;
+        int bucketCount = this.columns * this.rows;
+        if (this.bucketStart.length < bucketCount + 1)
+            this.bucketStart = new int[bucketCount + 1];
+        Arrays.fill(this.bucketStart, 0, bucketCount + 1, 0);
+        for (int txId = 0; txId < txCount; txId++)
+            this.bucketStart[bucket(txX[txId], txY[txId]) + 1]++;
+        for (int b = 0; b < bucketCount; b++)
+            this.bucketStart[b + 1] += this.bucketStart[b];
+        for (int txId = 0; txId < txCount; txId++){
+            int b = bucket(txX[txId], txY[txId]);
+            int position = this.bucketStart[b]++;           // shifted back below
+            this.ids[position] = txId;
+            this.positions[txId] = position;
+            this.sortedX[position] = txX[txId];
+            this.sortedY[position] = txY[txId];
+        }
+        for (int b = bucketCount; b > 0; b--)
+            this.bucketStart[b] = this.bucketStart[b - 1];
+        this.bucketStart[0] = 0;
+    }
+
+    /**@param txId an indexed TX
+     * @return squared distance from the TX to the nearest other TX; +inf if it is the only one*/
+    public double nearestOtherDistanceSquared(int txId){
+        int position = this.positions[txId];
+        if (nearest(this.sortedX[position], this.sortedY[position], txId, 1, null, this.nearestScratch) == 0)
+            return Double.POSITIVE_INFINITY;
+        return this.nearestScratch[0];
+    }
+
+    /**Finds the k nearest TXs of a location, closest first.
+     * @param x x of the location in cells
+     * @param y y of the location in cells
+     * @param excludedId a TX id to be skipped (e.g. the location's own TX); -1 for none
+     * @param k number of TXs to be found
+     * @param nearestIds ids are written here; may be null
+     * @param distancesSquared squared distances are written here, at least k long
+     * @return number of TXs found; less than k only if the sample has fewer TXs*/
+    public int nearest(double x, double y, int excludedId, int k, int[] nearestIds, double[] distancesSquared){
+        int found = 0;
+        if (k <= 0 || this.txCount == 0)
+            return found;
+        int centerColumn = column(x);
+        int centerRow = row(y);
+        for (int ring = 0; ; ring++){
+            int fromColumn = centerColumn - ring, toColumn = centerColumn + ring;
+            int fromRow = centerRow - ring, toRow = centerRow + ring;
+            for (int row = Math.max(fromRow, 0); row <= Math.min(toRow, this.rows - 1); row++){
+                if (row == fromRow || row == toRow)
+                    found = scan(row, Math.max(fromColumn, 0), Math.min(toColumn, this.columns - 1), x, y,
+                            excludedId, found, k, nearestIds, distancesSquared);
+                else {      // inner buckets of the row were visited by smaller rings
+                    if (fromColumn >= 0)
+                        found = scan(row, fromColumn, fromColumn, x, y, excludedId, found, k, nearestIds,
+                                distancesSquared);
+                    if (toColumn < this.columns)
+                        found = scan(row, toColumn, toColumn, x, y, excludedId, found, k, nearestIds,
+                                distancesSquared);
+                }
+            }
+            // nothing outside this ring can be closer than the ring's border
+            double border = Double.POSITIVE_INFINITY;
+            if (fromColumn > 0)
+                border = Math.min(border, x - (this.minX + fromColumn * this.bucketWidth));
+            if (toColumn < this.columns - 1)
+                border = Math.min(border, this.minX + (toColumn + 1) * this.bucketWidth - x);
+            if (fromRow > 0)
+                border = Math.min(border, y - (this.minY + fromRow * this.bucketHeight));
+            if (toRow < this.rows - 1)
+                border = Math.min(border, this.minY + (toRow + 1) * this.bucketHeight - y);
+            if (border == Double.POSITIVE_INFINITY)
+                return found;
+            if (found == k && border > 0 && border * border >= distancesSquared[k - 1])
+                return found;
+        }
+    }
+
+    /**@param x x of the location in cells
+     * @param y y of the location in cells
+     * @param radius radius in cells
+     * @return number of TXs within the radius (inclusive) of the location*/
+    public int countWithin(double x, double y, double radius){
+        if (this.txCount == 0 || radius < 0)
+            return 0;
+        double radiusSquared = radius * radius;
+        int fromColumn = column(x - radius), toColumn = column(x + radius);
+        int fromRow = row(y - radius), toRow = row(y + radius);
+        int count = 0;
+        for (int row = fromRow; row <= toRow; row++){
+            for (int position = this.bucketStart[row * this.columns + fromColumn];
+                 position < this.bucketStart[row * this.columns + toColumn + 1]; position++){
+                double dx = this.sortedX[position] - x;
+                double dy = this.sortedY[position] - y;
+                if (dx * dx + dy * dy <= radiusSquared)
+                    count++;
+            }
+        }
+        return count;
+    }
+
+    // adding TXs of buckets fromColumn..toColumn of a row; they are contiguous in ids
+    private int scan(int row, int fromColumn, int toColumn, double x, double y, int excludedId, int found, int k,
+                     int[] nearestIds, double[] distancesSquared){
+        for (int position = this.bucketStart[row * this.columns + fromColumn];
+             position < this.bucketStart[row * this.columns + toColumn + 1]; position++){
+            if (this.ids[position] == excludedId)
+                continue;
+            double dx = this.sortedX[position] - x;
+            double dy = this.sortedY[position] - y;
+            found = insert(dx * dx + dy * dy, this.ids[position], found, k, nearestIds, distancesSquared);
+        }
+        return found;
+    }
+
+    // keeping the k smallest distances sorted; returns the new number of found TXs
+    private static int insert(double distanceSquared, int id, int found, int k, int[] nearestIds,
+                              double[] distancesSquared){
+        if (found == k && distanceSquared >= distancesSquared[k - 1])
+            return found;
+        int i = found == k ? k - 1 : found++;
+        for (; i > 0 && distancesSquared[i - 1] > distanceSquared; i--){
+            distancesSquared[i] = distancesSquared[i - 1];
+            if (nearestIds != null)
+                nearestIds[i] = nearestIds[i - 1];
+        }
+        distancesSquared[i] = distanceSquared;
+        if (nearestIds != null)
+            nearestIds[i] = id;
+        return found;
+    }
+
+    private int bucket(double x, double y){
+        return row(y) * this.columns + column(x);
+    }
+
+    // bucket column of x, clamped to the grid
+    private int column(double x){
+        return (int) Math.max(0, Math.min(this.columns - 1, Math.floor((x - this.minX) / this.bucketWidth)));
+    }
+
+    // bucket row of y, clamped to the grid
+    private int row(double y){
+        return (int) Math.max(0, Math.min(this.rows - 1, Math.floor((y - this.minY) / this.bucketHeight)));
+    }
+
+    // **************************** Setter & Getter ******************************
+    public int getTxCount() { return txCount; }
+}
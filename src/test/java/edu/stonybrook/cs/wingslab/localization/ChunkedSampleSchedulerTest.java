@@ -0,0 +1,107 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**A checkpointed run that fails mid-run, resumed from its checkpoint, against an uninterrupted run. Samples only
+ * depend on their index, like those of a seeded run.*/
+class ChunkedSampleSchedulerTest {
+    private static final int SAMPLES = 40 * 8 - 3;      // the last chunk is partial
+    private static final int CHUNK_SIZE = 8;
+    private static final int FAILING_CHUNK = 20;
+    private static final int SENSORS = 3;
+    private static final int MAX_TXS = 2;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void resumedTextIsTheSameFile() throws Exception {
+        Path oneShot = this.dir.resolve("one-shot.txt");
+        Path resumed = this.dir.resolve("resumed.txt");
+        assertEquals(SAMPLES, scheduler(4).run(sources(4, -1), new Path[]{oneShot}, false, null));
+        interruptAndResume(resumed, false);
+        assertArrayEquals(Files.readAllBytes(oneShot), Files.readAllBytes(resumed));
+    }
+
+    @Test
+    void resumedGzipHasTheSameSamples() throws Exception {
+        Path oneShot = this.dir.resolve("one-shot.txt.gz");
+        Path resumed = this.dir.resolve("resumed.txt.gz");
+        assertEquals(SAMPLES, scheduler(4).run(sources(4, -1), new Path[]{oneShot}, true, null));
+        interruptAndResume(resumed, true);
+        // members are finished at checkpoints, so only the decompressed bytes are the same
+        assertArrayEquals(gunzip(oneShot), gunzip(resumed));
+    }
+
+    // a run failing at FAILING_CHUNK, whose later chunks are written after the gap, then resumed
+    private void interruptAndResume(Path output, boolean gzip) throws Exception {
+        Path checkpointFile = this.dir.resolve(output.getFileName() + ".checkpoint");
+        GenerationCheckpoint checkpoint = new GenerationCheckpoint(checkpointFile, output.getFileName().toString(),
+                1, DatasetShard.WHOLE, SAMPLES, CHUNK_SIZE, gzip, false, 0);
+        // one thread generates chunks in order, so every chunk before the failing one is checkpointed
+        assertThrows(RuntimeException.class, () -> scheduler(1).run(sources(1, FAILING_CHUNK),
+                new Path[]{output}, gzip, checkpoint));
+        GenerationCheckpoint saved = GenerationCheckpoint.load(checkpointFile, 0);
+        assertEquals(FAILING_CHUNK, saved.getCompletedChunks());
+        assertEquals(FAILING_CHUNK * CHUNK_SIZE, saved.getWrittenSamples());
+        assertEquals(FAILING_CHUNK * CHUNK_SIZE, saved.nextSample());
+        // chunks scheduled before the failure are written after the gap; a torn write follows them
+        Files.write(output, new byte[]{'x', '\n'}, StandardOpenOption.APPEND);
+
+        assertEquals(SAMPLES, scheduler(3).run(sources(3, -1), new Path[]{output}, gzip, saved));
+        assertTrue(GenerationCheckpoint.load(checkpointFile, 0).isComplete());
+    }
+
+    private static ChunkedSampleScheduler scheduler(int parallelism){
+        return new ChunkedSampleScheduler(0, SAMPLES, CHUNK_SIZE, parallelism);
+    }
+
+    // sources whose samples only depend on their index; failingChunk throws, -1 for none
+    private static ChunkedSampleScheduler.SampleSource[] sources(int count, int failingChunk){
+        ChunkedSampleScheduler.SampleSource[] sources = new ChunkedSampleScheduler.SampleSource[count];
+        for (int i = 0; i < count; i++){
+            SampleBuffer sample = new SampleBuffer(MAX_TXS, SENSORS);
+            sources[i] = (firstIndex, samples, encoders) -> {
+                if (firstIndex == (long) failingChunk * CHUNK_SIZE)
+                    throw new IllegalStateException("Chunk " + failingChunk + " failed.");
+                for (long index = firstIndex; index < firstIndex + samples; index++){
+                    fill(sample, index);
+                    encoders[0].encode(sample);
+                }
+                return samples;
+            };
+        }
+        return sources;
+    }
+
+    private static void fill(SampleBuffer sample, long index){
+        Random random = new Random(index);
+        int txCount = random.nextInt(MAX_TXS + 1);
+        for (int txId = 0; txId < txCount; txId++){
+            sample.txX[txId] = random.nextInt(100);
+            sample.txY[txId] = random.nextInt(100);
+            sample.txPower[txId] = -20 + 50 * random.nextDouble();
+        }
+        sample.setTxCount(txCount);
+        for (int ssId = 0; ssId < SENSORS; ssId++)
+            sample.receivedPower[ssId] = -130 + 100 * random.nextDouble();
+        sample.setNoiseFloor(-90);
+    }
+
+    private static byte[] gunzip(Path file) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import edu.stonybrook.cs.wingslab.commons.*;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**CsvSampleEncoder lines against LocalizationDatasetGenerator.toString(); received powers are set on the sensors
+ * after the sample is created, so every value goes through both formatters as is*/
+class CsvSampleEncoderTest {
+    private static final PathLossFunction FLAT = (txX, txY, txHeight, rxX, rxY, rxHeight) -> 100.0;
+
+    @Test
+    void tiesAroundTieGuard(){
+        // decimal ties of "%.3f"; offsets of 1e-9 are 1e-6 after scaling, so they cross TIE_GUARD (1e-5) both ways
+        double[] ties = {12.3455, -87.0005, 0.0005, -0.0015, 999.9995, 999999.9995};
+        for (double tie : ties)
+            for (int k = -30; k <= 30; k++){
+                double value = tie + k * 1e-9;
+                assertEncodesLikeToString(sample(new double[]{value, -value, Math.nextUp(value)},
+                        new double[]{value, Math.nextDown(value)}, false, value));
+            }
+        // binary ties, e.g. 0.0625 is exactly 62.5 thousandths
+        double[] exact = {0.0625, 20.0625, -3.0625, 0.5, -0.5, 1e-3 / 2};
+        for (double value : exact)
+            assertEncodesLikeToString(sample(new double[]{value, -value}, new double[]{value}, true, value));
+    }
+
+    @Test
+    void negativeInfinityAndNegativeZero(){
+        double[] powers = {Double.NEGATIVE_INFINITY, -0.0, 0.0, -0.0001, -0.0004999, 0.0004999, -1e-300};
+        assertEncodesLikeToString(sample(powers, new double[]{-0.0, 0.0}, false, -90));
+        assertEncodesLikeToString(sample(powers, new double[]{-0.0001}, true, Double.NEGATIVE_INFINITY));
+        assertEncodesLikeToString(sample(powers, new double[0], false, -0.0));
+        assertEncodesLikeToString(sample(powers, new double[0], true, Double.NEGATIVE_INFINITY));
+    }
+
+    @Test
+    void magnitudesAboveFastLimit(){
+        double[] powers = {1e6, -1e6, Math.nextDown(1e6), 999999.9996, -1.5e7, 1e300, -Double.MAX_VALUE, Double.NaN,
+                Double.POSITIVE_INFINITY};
+        assertEncodesLikeToString(sample(powers, new double[]{1e6, 1e300, -2.5e6}, false, 1.5e6));
+        assertEncodesLikeToString(sample(powers, new double[]{-1e300}, true, Double.NaN));
+        assertEncodesLikeToString(sample(powers, new double[0], false, 1e300));
+    }
+
+    @Test
+    void zeroTxs(){
+        double[] powers = {-90.0005, -90.0, -123.456};
+        for (boolean sssLocation : new boolean[]{false, true})
+            for (double noiseFloor : new double[]{-90.0005, -90.0, -0.0625})
+                assertEncodesLikeToString(sample(powers, new double[0], sssLocation, noiseFloor));
+    }
+
+    @Test
+    void nonRootDefaultLocale(){
+        Locale defaultLocale = Locale.getDefault();
+        Locale formatLocale = Locale.getDefault(Locale.Category.FORMAT);
+        Locale displayLocale = Locale.getDefault(Locale.Category.DISPLAY);
+        try {
+            for (Locale locale : new Locale[]{Locale.GERMANY, Locale.forLanguageTag("ar-EG"),
+                    Locale.forLanguageTag("hi-IN-u-nu-deva")}){
+                Locale.setDefault(locale);
+                assertEncodesLikeToString(sample(new double[]{-1234.5678, Double.NEGATIVE_INFINITY, -0.0},
+                        new double[]{20.0625, -3.5}, true, -90.0005));
+                assertEncodesLikeToString(sample(new double[]{12.3455, 1e7}, new double[0], true, -90));
+            }
+        } finally {
+            Locale.setDefault(defaultLocale);
+            Locale.setDefault(Locale.Category.FORMAT, formatLocale);
+            Locale.setDefault(Locale.Category.DISPLAY, displayLocale);
+        }
+    }
+
+    @Test
+    void randomValues(){
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++){
+            double scale = Math.pow(10, random.nextInt(9) - 2);
+            double[] powers = new double[1 + random.nextInt(6)];
+            for (int ssId = 0; ssId < powers.length; ssId++)
+                powers[ssId] = (random.nextDouble() - 0.5) * scale;
+            double[] txPowers = new double[random.nextInt(5)];
+            for (int txId = 0; txId < txPowers.length; txId++)
+                txPowers[txId] = (random.nextDouble() - 0.5) * scale;
+            assertEncodesLikeToString(sample(powers, txPowers, random.nextBoolean(),
+                    (random.nextDouble() - 0.5) * scale));
+        }
+    }
+
+    // a sample whose sensors received the given powers
+    private static LocalizationDatasetGenerator sample(double[] powers, double[] txPowers, boolean sssLocation,
+                                                       double noiseFloor){
+        SpectrumSensor[] sss = new SpectrumSensor[powers.length];
+        for (int ssId = 0; ssId < sss.length; ssId++)
+            sss[ssId] = new SpectrumSensor(new RX(new Element(new Point(ssId % 10, ssId / 10), 15)), 1, 1);
+        TX[] txs = new TX[txPowers.length];
+        for (int txId = 0; txId < txs.length; txId++)
+            txs[txId] = new TX(new Element(new Point(3 * txId, 7 * txId % 11), 30), txPowers[txId]);
+        LocalizationDatasetGenerator sample = new LocalizationDatasetGenerator(txs, sss, new Square(100), FLAT, 1,
+                sssLocation, noiseFloor);
+        for (int ssId = 0; ssId < sss.length; ssId++)
+            sss[ssId].getRx().setReceived_power(powers[ssId]);
+        return sample;
+    }
+
+    private static void assertEncodesLikeToString(LocalizationDatasetGenerator sample){
+        CsvSampleEncoder encoder = new CsvSampleEncoder();          // the default locale is read here
+        encoder.encode(sample);
+        // compared as bytes; decoding them back is lossy if the default charset can't encode the locale's digits
+        String expected = sample + System.lineSeparator();
+        assertArrayEquals(expected.getBytes(Charset.defaultCharset()), encoder.toByteArray(), expected);
+    }
+}
@@ -0,0 +1,88 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**Samples rejected by NpyDatasetWriter leave every column with the same number of rows*/
+class NpyDatasetWriterTest {
+    private static final FieldGrid GRID = new FieldGrid(10, 10);
+    private static final int SENSORS = 2;
+    private static final int MAX_TXS = 3;
+    private static final Pattern ROWS = Pattern.compile("'shape': \\((\\d+),");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void rejectedSamplesLeaveColumnsAligned() throws IOException {
+        Path dataset = this.dir.resolve("dataset");
+        SampleBuffer sample = new SampleBuffer(MAX_TXS, SENSORS);
+        try (NpyDatasetWriter writer = new NpyDatasetWriter(dataset, SENSORS, MAX_TXS, true,
+                List.of(SampleLabel.strongest(), SampleLabel.mostIsolated()),
+                new OccupancyMapFormat(GRID, true, -100), null)) {
+            writer.write(fill(sample, 1, 1, 5));
+            // a TX out of the grid, a sensor out of the grid and NaN TX powers are found before any column is written
+            assertThrows(IllegalArgumentException.class, () -> writer.write(fill(sample, 2, 12, 5)));
+            fill(sample, 1, 1, 5).ssX[1] = -1;
+            assertThrows(IllegalArgumentException.class, () -> writer.write(sample));
+            assertThrows(IllegalArgumentException.class, () -> writer.write(fill(sample, 3, 1, Double.NaN)));
+            writer.write(fill(sample, 0, 1, 5));
+            writer.write(fill(sample, 3, 9, 5));
+            assertEquals(3, writer.getRows());
+            assertFalse(writer.isFailed());
+        }
+        int columns = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dataset, "*.npy")) {
+            for (Path file : files){
+                String name = file.getFileName().toString();
+                // 3 samples; occupancy offsets have one more row, cells and powers one per TX (1 + 0 + 3)
+                long expected = name.equals(OccupancyMapFormat.OFFSETS) || name.equals(OccupancyMapFormat.CELLS) ||
+                        name.equals(OccupancyMapFormat.POWERS) ? 4 : 3;
+                assertEquals(expected, rows(file), name);
+                columns++;
+            }
+        }
+        assertEquals(11, columns);
+        assertTrue(Files.readString(dataset.resolve(NpyDatasetWriter.MANIFEST)).contains("\"samples\": 3"));
+    }
+
+    // txCount TXs in distinct cells of row y with the given power; sensors at (0, 0) and (9, 9)
+    private static SampleBuffer fill(SampleBuffer sample, int txCount, int y, double power){
+        for (int txId = 0; txId < txCount; txId++){
+            sample.txX[txId] = 3 * txId;
+            sample.txY[txId] = y;
+            sample.txPower[txId] = power;
+        }
+        sample.setTxCount(txCount);
+        sample.ssX[0] = 0;
+        sample.ssY[0] = 0;
+        sample.ssX[1] = 9;
+        sample.ssY[1] = 9;
+        sample.receivedPower[0] = -80;
+        sample.receivedPower[1] = -70;
+        return sample;
+    }
+
+    // number of rows in the header of a .npy file
+    private static long rows(Path file) throws IOException {
+        byte[] header = new byte[128];
+        try (InputStream in = Files.newInputStream(file)) {
+            assertEquals(header.length, in.readNBytes(header, 0, header.length));
+        }
+        Matcher matcher = ROWS.matcher(new String(header, StandardCharsets.ISO_8859_1));
+        assertTrue(matcher.find(), "shape of " + file);
+        return Long.parseLong(matcher.group(1));
+    }
+}
@@ -0,0 +1,120 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**OccupancyMapWriter parts merged and expanded by OccupancyMapLoader, across part boundaries*/
+class OccupancyMapWriterTest {
+    private static final FieldGrid GRID = new FieldGrid(6, 4);     // not square, so x and y can't be swapped
+    private static final int MAX_TXS = 5;
+    private static final int SENSORS = 3;
+    private static final float EMPTY = Float.NEGATIVE_INFINITY;
+    private static final float NO_SENSOR = -1000;
+    // the first part has more offsets than one merge buffer reads (8192), the second none at all
+    private static final int[] PART_SAMPLES = {9000, 0, 2500};
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void mergedMapsRoundTrip() throws IOException {
+        OccupancyMapFormat format = new OccupancyMapFormat(GRID, true, -100);
+        int cellCount = GRID.cellCount();
+        Random random = new Random(11);
+        SampleBuffer sample = new SampleBuffer(MAX_TXS, SENSORS);
+        List<float[]> occupancy = new ArrayList<>();        // expected dense maps, in order
+        List<float[]> images = new ArrayList<>();
+        List<Path> parts = new ArrayList<>();
+        long entries = 0;
+        for (int part = 0; part < PART_SAMPLES.length; part++){
+            Path partDir = Files.createDirectory(this.dir.resolve("part" + part));
+            try (OccupancyMapWriter writer = new OccupancyMapWriter(partDir, format)) {
+                for (int i = 0; i < PART_SAMPLES[part]; i++){
+                    float[] map = fill(sample, random);
+                    for (float power : map)
+                        entries += power != EMPTY ? 1 : 0;
+                    occupancy.add(map);
+                    images.add(image(sample, format));
+                    writer.write(sample);
+                }
+                assertEquals(PART_SAMPLES[part], writer.getRows());
+            }
+            parts.add(partDir);
+        }
+        Path merged = Files.createDirectory(this.dir.resolve("merged"));
+        assertEquals(entries, OccupancyMapWriter.merge(parts, merged, format));
+
+        try (OccupancyMapLoader loader = new OccupancyMapLoader(merged, format)) {
+            assertEquals(occupancy.size(), loader.getSamples());
+            // batches crossing the part boundary, including the empty part, and a single last sample
+            int[][] ranges = {{0, 1}, {8190, 5}, {8999, 2}, {0, 11500}, {9000, 2500}, {11499, 1}, {11500, 0}};
+            float[] out = null;
+            for (int[] range : ranges){
+                out = loader.occupancy(range[0], range[1], EMPTY, out);
+                assertArrayEquals(flatten(occupancy, range[0], range[1]), slice(out, range[1] * cellCount));
+                out = loader.sensorImage(range[0], range[1], NO_SENSOR, out);
+                assertArrayEquals(flatten(images, range[0], range[1]), slice(out, range[1] * cellCount));
+            }
+            assertThrows(IndexOutOfBoundsException.class, () -> loader.occupancy(11499, 2, EMPTY, null));
+        }
+    }
+
+    // a random sample; TXs may share cells. returns the expected dense occupancy map
+    private static float[] fill(SampleBuffer sample, Random random){
+        int txCount = random.nextInt(MAX_TXS + 1);
+        double[] milliwatts = new double[GRID.cellCount()];
+        for (int txId = 0; txId < txCount; txId++){
+            sample.txX[txId] = random.nextInt(GRID.getWidth());
+            sample.txY[txId] = random.nextInt(GRID.getLength());
+            sample.txPower[txId] = -20 + 50 * random.nextDouble();
+            milliwatts[GRID.index((int) sample.txX[txId], (int) sample.txY[txId])] +=
+                    Math.pow(10, sample.txPower[txId] / 10);
+        }
+        sample.setTxCount(txCount);
+        for (int ssId = 0; ssId < SENSORS; ssId++){
+            sample.ssX[ssId] = random.nextInt(GRID.getWidth());
+            sample.ssY[ssId] = random.nextInt(GRID.getLength());
+            sample.receivedPower[ssId] = random.nextInt(10) == 0 ? Double.NEGATIVE_INFINITY :
+                    -130 + 200 * random.nextDouble();
+        }
+        float[] map = new float[GRID.cellCount()];
+        for (int cell = 0; cell < map.length; cell++)
+            map[cell] = milliwatts[cell] == 0 ? EMPTY : (float) (10 * Math.log10(milliwatts[cell]));
+        return map;
+    }
+
+    // expected sensor image; the strongest sensor of a cell is kept
+    private static float[] image(SampleBuffer sample, OccupancyMapFormat format){
+        int[] levels = new int[GRID.cellCount()];
+        for (int ssId = 0; ssId < SENSORS; ssId++){
+            int cell = GRID.index((int) sample.ssX[ssId], (int) sample.ssY[ssId]);
+            levels[cell] = Math.max(levels[cell], format.quantize(sample.receivedPower[ssId]));
+        }
+        float[] image = new float[levels.length];
+        for (int cell = 0; cell < levels.length; cell++)
+            image[cell] = levels[cell] == 0 ? NO_SENSOR : (float) format.dequantize(levels[cell]);
+        return image;
+    }
+
+    private static float[] flatten(List<float[]> samples, int first, int count){
+        int cellCount = GRID.cellCount();
+        float[] flat = new float[count * cellCount];
+        for (int i = 0; i < count; i++)
+            System.arraycopy(samples.get(first + i), 0, flat, i * cellCount, cellCount);
+        return flat;
+    }
+
+    private static float[] slice(float[] batch, int length){
+        return Arrays.copyOf(batch, length);
+    }
+}
@@ -0,0 +1,117 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**QuantizedSensorWriter parts merged and read back by QuantizedSensorReader, across block and part boundaries*/
+class QuantizedSensorWriterTest {
+    private static final int SENSORS = 7;
+    // a part of full blocks plus a partial one, an empty part, a part of exactly one block and one of a few samples
+    private static final int[] PART_SAMPLES = {2 * QuantizedSensorWriter.BLOCK_SAMPLES + 37, 0,
+            QuantizedSensorWriter.BLOCK_SAMPLES, 5};
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void int16RoundTrip() throws IOException {
+        roundTrip(QuantizedSensorFormat.int16());
+    }
+
+    @Test
+    void uint8RoundTrip() throws IOException {
+        roundTrip(QuantizedSensorFormat.uint8(-100, 27));
+    }
+
+    private void roundTrip(QuantizedSensorFormat format) throws IOException {
+        Random random = new Random(7);
+        List<Path> parts = new ArrayList<>();
+        List<float[]> expected = new ArrayList<>();         // dequantized codes of every sample, in order
+        long partBytes = 0;
+        for (int part = 0; part < PART_SAMPLES.length; part++){
+            Path path = this.dir.resolve(format.getEncoding() + "-" + part + ".qsr");
+            try (QuantizedSensorWriter writer = new QuantizedSensorWriter(path, format, SENSORS)) {
+                for (int sample = 0; sample < PART_SAMPLES[part]; sample++){
+                    double[] power = new double[SENSORS];
+                    float[] codes = new float[SENSORS];
+                    for (int ssId = 0; ssId < SENSORS; ssId++){
+                        // -inf, values clamped by both encodings and values in range
+                        power[ssId] = random.nextInt(10) == 0 ? Double.NEGATIVE_INFINITY :
+                                random.nextInt(20) == 0 ? (random.nextBoolean() ? 1e4 : -1e4) :
+                                -120 + 160 * random.nextDouble();
+                        codes[ssId] = format.dequantize(format.quantize(power[ssId]));
+                    }
+                    writer.write(power);
+                    expected.add(codes);
+                }
+                assertEquals(PART_SAMPLES[part], writer.getRows());
+            }
+            if (part == 0)
+                appendEmptyBlock(path);
+            partBytes += Files.size(path);
+            parts.add(path);
+        }
+        Path merged = this.dir.resolve(format.getEncoding() + ".qsr");
+        QuantizedSensorWriter.merge(parts, merged);
+        // only the first part's header is kept
+        assertEquals(partBytes - (parts.size() - 1) * QuantizedSensorFormat.HEADER_SIZE, Files.size(merged));
+
+        try (QuantizedSensorReader reader = new QuantizedSensorReader(merged)) {
+            assertEquals(expected.size(), reader.getSamples());
+            assertEquals(SENSORS, reader.getSensorCount());
+            assertEquals(format.getEncoding(), reader.getFormat().getEncoding());
+            assertEquals(format.getFloor(), reader.getFormat().getFloor());
+            assertEquals(format.getStep(), reader.getFormat().getStep());
+            // whole file, then batches in order (crossing blocks and parts) and backwards (evicting the cache)
+            assertArrayEquals(flatten(expected, 0, expected.size()), reader.read(0, expected.size(), null));
+            float[] out = new float[0];
+            for (int first = 0, count = 1; first < expected.size(); first += count, count = 2 * count + 1){
+                count = Math.min(count, expected.size() - first);
+                out = reader.read(first, count, out);
+                assertArrayEquals(flatten(expected, first, count), slice(out, count));
+            }
+            for (int first = expected.size() - 100; first >= 0; first -= 100){
+                out = reader.read(first, 100, out);
+                assertArrayEquals(flatten(expected, first, 100), slice(out, 100));
+            }
+            assertEquals(0, reader.read(expected.size(), 0, null).length);
+            assertThrows(IndexOutOfBoundsException.class, () -> reader.read(expected.size() - 1, 2, null));
+        }
+    }
+
+    // a block of no samples, as another writer could leave at the end of a part
+    private static void appendEmptyBlock(Path path) throws IOException {
+        ByteBuffer blockHeader = ByteBuffer.allocate(QuantizedSensorFormat.BLOCK_HEADER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN).putInt(0).putInt(0).flip();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.APPEND)) {
+            while (blockHeader.hasRemaining())
+                channel.write(blockHeader);
+        }
+    }
+
+    private static float[] flatten(List<float[]> samples, int first, int count){
+        float[] flat = new float[count * SENSORS];
+        for (int i = 0; i < count; i++)
+            System.arraycopy(samples.get(first + i), 0, flat, i * SENSORS, SENSORS);
+        return flat;
+    }
+
+    private static float[] slice(float[] batch, int count){
+        float[] slice = new float[count * SENSORS];
+        System.arraycopy(batch, 0, slice, 0, slice.length);
+        return slice;
+    }
+}
@@ -0,0 +1,56 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**Index ranges of split SampleSpliterators; no sample is generated, so no app is created*/
+class SampleSpliteratorTest {
+    private static final Supplier<LocalizationDatasetGeneratorApp> NO_APPS = () -> {
+        throw new AssertionError("No sample should be generated.");
+    };
+
+    @Test
+    void unlimitedSplitsHaveDisjointRanges(){
+        SampleSpliterator source = new SampleSpliterator(NO_APPS, Long.MAX_VALUE);
+        List<long[]> ranges = new ArrayList<>();        // {first, end} of every prefix
+        for (int split = 0; split < 64; split++){
+            SampleSpliterator prefix = (SampleSpliterator) source.trySplit();
+            assertNotNull(prefix);
+            assertEquals(SamplePublisher.UNLIMITED_RANGE, prefix.estimateSize());
+            assertTrue(prefix.hasCharacteristics(Spliterator.SIZED));
+            ranges.add(new long[]{prefix.getNextIndex(), prefix.getNextIndex() + prefix.estimateSize()});
+            // prefixes of prefixes stay inside them
+            SampleSpliterator nested = (SampleSpliterator) prefix.trySplit();
+            assertTrue(nested.getNextIndex() >= ranges.get(split)[0]);
+            assertTrue(prefix.getNextIndex() + prefix.estimateSize() <= ranges.get(split)[1]);
+        }
+        assertEquals(Long.MAX_VALUE, source.estimateSize());
+        assertFalse(source.hasCharacteristics(Spliterator.SIZED));
+        ranges.add(new long[]{source.getNextIndex(), Long.MAX_VALUE});
+        ranges.sort(Comparator.comparingLong(range -> range[0]));
+        assertEquals(0, ranges.get(0)[0]);
+        for (int i = 0; i < ranges.size(); i++){
+            assertTrue(ranges.get(i)[0] >= 0 && ranges.get(i)[0] < ranges.get(i)[1], "range does not overflow");
+            if (i > 0)
+                assertEquals(ranges.get(i - 1)[1], ranges.get(i)[0], "ranges are disjoint and leave no gap");
+        }
+    }
+
+    @Test
+    void boundedSplitsCoverTheRange(){
+        SampleSpliterator source = new SampleSpliterator(NO_APPS, 100, 7);
+        SampleSpliterator prefix = (SampleSpliterator) source.trySplit();
+        assertEquals(100, prefix.getNextIndex());
+        assertEquals(3, prefix.estimateSize());
+        assertEquals(103, source.getNextIndex());
+        assertEquals(4, source.estimateSize());
+        assertNull(new SampleSpliterator(NO_APPS, 0, 1).trySplit());
+    }
+}
@@ -0,0 +1,80 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**SplatExecutionService with ExternalPathLoss delegates running stub executables in place of SPLAT!*/
+class SplatExecutionServiceTest {
+    private static final int CELL_SIZE = 10;
+    private static final double TX_HEIGHT = 30;
+    private static final double RX_HEIGHT = 15;
+
+    @TempDir
+    static Path stubDir;
+    private static Path chattyStub;         // writes more to stderr than a pipe holds, then 100 + txX + rxX
+    private static Path hangingStub;        // sleeps without writing anything
+
+    @BeforeAll
+    static void createStubs() throws IOException {
+        assumeTrue(Files.isExecutable(Path.of("/bin/sh")), "stubs are shell scripts");
+        chattyStub = stub("chatty.sh", "head -c 200000 /dev/zero >&2\n" +
+                "awk -v tx=\"$1\" -v rx=\"$4\" 'BEGIN { print 100 + tx + rx }'\n");
+        hangingStub = stub("hanging.sh", "sleep 30\n");
+    }
+
+    private static Path stub(String name, String body) throws IOException {
+        Path stub = stubDir.resolve(name);
+        Files.writeString(stub, "#!/bin/sh\n" + body);
+        assertTrue(stub.toFile().setExecutable(true));
+        return stub;
+    }
+
+    @Test
+    void chattyStubDoesNotBlock(){
+        ExternalPathLoss pathLoss = new ExternalPathLoss(10, chattyStub.toString());
+        double loss = assertTimeoutPreemptively(Duration.ofSeconds(10), () ->
+                pathLoss.pathLoss(3, 4, TX_HEIGHT, 7, 8, RX_HEIGHT));
+        assertEquals(110.0, loss, 1e-9);
+    }
+
+    @Test
+    void hangingStubTimesOut(){
+        ExternalPathLoss pathLoss = new ExternalPathLoss(1, hangingStub.toString());
+        IllegalStateException e = assertTimeoutPreemptively(Duration.ofSeconds(10), () ->
+                assertThrows(IllegalStateException.class, () -> pathLoss.pathLoss(0, 0, TX_HEIGHT, 1, 1,
+                        RX_HEIGHT)));
+        assertTrue(e.getMessage().contains("timed out"));
+    }
+
+    @Test
+    void concurrentRequestsShareExecutionsAndCache(){
+        PathLossCache cache = new PathLossCache(CELL_SIZE, TX_HEIGHT, RX_HEIGHT);
+        try (SplatExecutionService service = new SplatExecutionService(cache,
+                () -> new ExternalPathLoss(10, chattyStub.toString()), 2)) {
+            List<CompletableFuture<Double>> requests = new ArrayList<>();
+            for (int i = 0; i < 8; i++)
+                for (int rxX = 0; rxX < 3; rxX++){
+                    int x = rxX;
+                    requests.add(CompletableFuture.supplyAsync(() -> service.pathLoss(1, 2, TX_HEIGHT, x, 5,
+                            RX_HEIGHT)));
+                }
+            for (int i = 0; i < requests.size(); i++)
+                assertEquals(101.0 + i % 3, requests.get(i).join(), 1e-9);
+            assertEquals(3, service.getExecutions());       // one per link; the rest waited or hit the cache
+            assertEquals(3, cache.size());
+            assertEquals(102.0, cache.get(PathLossCache.key(1, 2, 1, 5)), 1e-9);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package edu.stonybrook.cs.wingslab.localization;
+
+import edu.stonybrook.cs.wingslab.commons.WirelessTools;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**LogDistanceKernel on the JDK Vector API: sensors are processed SPECIES.length() at a time for every TX. Only
+ * built with the vector profile and only loaded through LogDistanceKernel.create(); results agree with the scalar
+ * kernel within LogDistanceKernel.TOLERANCE_DB.*/
+public class VectorLogDistanceKernel extends LogDistanceKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final double DB_TO_LN = Math.log(10) / 10;       // 10^(x / 10) = e^(x * DB_TO_LN)
+    private static final ThreadLocal<double[]> SHADOWING = ThreadLocal.withInitial(() -> new double[0]);
+
+    /**VectorLogDistanceKernel constructor; see LogDistanceKernel*/
+    public VectorLogDistanceKernel(double alpha, double referenceLoss, double std, int cellSize, boolean heights,
+                                   double minDistance){
+        super(alpha, referenceLoss, std, cellSize, heights, minDistance);
+    }
+
+    @Override
+    public void compute(double[] txX, double[] txY, double[] txHeights, double[] txPowers, int txCount,
+                        double[] ssX, double[] ssY, double[] ssHeights, int ssCount, double noiseFloor,
+                        Random random, double[] out){
+        double exponent = -this.alpha / 2;
+        double minDistanceSquared = this.minDistance * this.minDistance;
+        double[] shadowing = this.std > 0.0 ? shadowing(ssCount) : null;
+        int bound = SPECIES.loopBound(ssCount);
+        Arrays.fill(out, 0, ssCount, WirelessTools.getDecimal(noiseFloor));
+        for (int txId = 0; txId < txCount; txId++){
+            if (txPowers[txId] == Double.NEGATIVE_INFINITY)
+                continue;
+            double txPower = WirelessTools.getDecimal(txPowers[txId] - this.referenceLoss);
+            double txXm = txX[txId] * this.cellSize;
+            double txYm = txY[txId] * this.cellSize;
+            if (shadowing != null)
+                for (int ssId = 0; ssId < ssCount; ssId++)
+                    shadowing[ssId] = random.nextGaussian() * this.std * DB_TO_LN;
+            int ssId = 0;
+            for (; ssId < bound; ssId += SPECIES.length()){
+                DoubleVector dx = DoubleVector.fromArray(SPECIES, ssX, ssId).mul(this.cellSize).sub(txXm);
+                DoubleVector dy = DoubleVector.fromArray(SPECIES, ssY, ssId).mul(this.cellSize).sub(txYm);
+                DoubleVector d2 = dx.mul(dx).add(dy.mul(dy));
+                if (this.heights){
+                    DoubleVector dz = DoubleVector.fromArray(SPECIES, ssHeights, ssId).sub(txHeights[txId]);
+                    d2 = d2.add(dz.mul(dz));
+                }
+                DoubleVector gain = d2.max(minDistanceSquared).lanewise(VectorOperators.POW, exponent);
+                if (shadowing != null)
+                    gain = gain.mul(DoubleVector.fromArray(SPECIES, shadowing, ssId).lanewise(VectorOperators.EXP));
+                gain.mul(txPower).add(DoubleVector.fromArray(SPECIES, out, ssId)).intoArray(out, ssId);
+            }
+            for (; ssId < ssCount; ssId++){        // tail
+                double dx = ssX[ssId] * this.cellSize - txXm;
+                double dy = ssY[ssId] * this.cellSize - txYm;
+                double dz = this.heights ? ssHeights[ssId] - txHeights[txId] : 0.0;
+                double gain = Math.pow(Math.max(dx * dx + dy * dy + dz * dz, minDistanceSquared), exponent);
+                if (shadowing != null)
+                    gain *= Math.exp(shadowing[ssId]);
+                out[ssId] += txPower * gain;
+            }
+        }
+        int ssId = 0;
+        for (; ssId < bound; ssId += SPECIES.length())
+            DoubleVector.fromArray(SPECIES, out, ssId).lanewise(VectorOperators.LOG10).mul(10).intoArray(out, ssId);
+        for (; ssId < ssCount; ssId++)
+            out[ssId] = WirelessTools.getDB(out[ssId]);
+    }
+
+    @Override
+    public boolean isVectorized(){ return true; }
+
+    // per-thread scratch for shadowing of one TX, in natural-log units
+    private static double[] shadowing(int ssCount){
+        double[] shadowing = SHADOWING.get();
+        if (shadowing.length < ssCount){
+            shadowing = new double[ssCount];
+            SHADOWING.set(shadowing);
+        }
+        return shadowing;
+    }
+}